@@ -1,14 +1,13 @@
 package paris;
 
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+
+import paris.storage.LiteralFormatter;
+import paris.storage.PrefixTrie;
 
 import javatools.administrative.Announce;
 import javatools.administrative.D;
 import javatools.datatypes.FinalMap;
-import javatools.parsers.DateParser;
-import javatools.parsers.NumberParser;
 
 /** This class is part of the PARIS ontology matching project at INRIA Saclay/France.
  * 
@@ -112,8 +111,7 @@ public class Config {
   }
 
   public static String[] namespaces = prefixes.keySet().toArray(new String[0]);
-  public static String namespacesDisjunct = "(" + join(namespaces, "|") + ").*";
-  public static Pattern prefixRegexp = Pattern.compile(namespacesDisjunct);
+  public static PrefixTrie prefixTrie = new PrefixTrie(prefixes);
   
   //-----------------------------------------------------------------------------
   //                   Common code
@@ -155,13 +153,36 @@ public class Config {
   /** Guesses the type of entity*/
   public static EntityType entityType(String e, EntityType def) {
     if (e.startsWith("\"")) return (EntityType.STRING);
-    if (e.startsWith("http://") || e.matches("[a-z0-9]{1,10}:\\S+")) return (EntityType.RESOURCE);
+    if (e.startsWith("http://") || isPrefixedName(e)) return (EntityType.RESOURCE);
     if (e.length() > 0 && (e.charAt(0) == '+' || e.charAt(0) == '-' || Character.isDigit(e.charAt(0)))) {
-      if (DateParser.isDate(e)) return (EntityType.DATE);
-      if (NumberParser.isNumberAndUnit(e)) return (EntityType.NUMBER);
+      if (LiteralFormatter.isDate(e)) return (EntityType.DATE);
+      if (LiteralFormatter.isNumberAndUnit(e)) return (EntityType.NUMBER);
     }
     return def;
   }
+
+  /** TRUE if the entity is of the form prefix:name, as e.matches("[a-z0-9]{1,10}:\\S+")*/
+  public static boolean isPrefixedName(String e) {
+    int colon = 0;
+    while (colon < e.length() && colon <= 10) {
+      char c = e.charAt(colon);
+      if ((c < 'a' || c > 'z') && (c < '0' || c > '9')) break;
+      colon++;
+    }
+    if (colon == 0 || colon > 10 || colon + 1 >= e.length() || e.charAt(colon) != ':') return (false);
+    for (int i = colon + 1; i < e.length(); i++) {
+      switch (e.charAt(i)) {
+        case ' ':
+        case '\t':
+        case '\n':
+        case '\u000B':
+        case '\f':
+        case '\r':
+          return (false);
+      }
+    }
+    return (true);
+  }
   
   /** Guesses the type of literal*/
   @SuppressWarnings("unused")
@@ -170,8 +191,8 @@ public class Config {
     	return EntityType.DATE;
     e=stripQuotes(e);
     if (e.length() > 0 && (e.charAt(0) == '+' || e.charAt(0) == '-' || Character.isDigit(e.charAt(0)))) {
-      if (DateParser.isDate(e)) return (EntityType.DATE);
-      if (NumberParser.isNumberAndUnit(e) || NumberParser.isFloat(e)) return (EntityType.NUMBER);
+      if (LiteralFormatter.isDate(e)) return (EntityType.DATE);
+      if (LiteralFormatter.isNumberAndUnit(e) || LiteralFormatter.isFloat(e)) return (EntityType.NUMBER);
     }
     return (EntityType.STRING);
   }
@@ -208,18 +229,14 @@ public class Config {
 
   /** Compresses a string by prefix*/
   public static String compress(String s) {
-  	Matcher matcher = prefixRegexp.matcher(s);
-  	if (matcher.matches()) {
-  		//System.out.printf("matches %s %s for %s\n", matcher.group(1), prefixes.get(matcher.group(1)), s);
-  		String result = (prefixes.get(matcher.group(1)) + s.substring(matcher.group(1).length()));
-  		//System.out.printf(result);
-  		if (result.endsWith(">")) {
-  			return result.substring(0, result.length()-1);
-  		} else {
-  			assert(result.endsWith("-"));
-  			return result.substring(0, result.length()-2) + "-";
-  		}
-  	} else return s;
+  	String result = prefixTrie.replace(s);
+  	if (result == s) return s;
+  	if (result.endsWith(">")) {
+  		return result.substring(0, result.length()-1);
+  	} else {
+  		assert(result.endsWith("-"));
+  		return result.substring(0, result.length()-2) + "-";
+  	}
   }
 
   /** TRUE if the property ends with '-' */
@@ -4,23 +4,24 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.regex.Pattern;
 
-import bak.pcj.IntIterator;
+import bak.pcj.list.IntArrayList;
 import bak.pcj.set.IntOpenHashSet;
 import bak.pcj.set.IntSet;
 
 import paris.storage.FactStore;
-import paris.storage.FactStore.PredicateAndObject;
+import paris.storage.FactStoreSnapshot;
+import paris.storage.TypeIndex;
 
 import javatools.administrative.Announce;
 import javatools.administrative.Announce.Level;
@@ -59,9 +60,39 @@ public class Paris {
 	/** The setting in which we work */
 	public static Setting setting;
 
+	/**
+	 * Scores of the superclasses of one class, in arrays indexed by the class
+	 * numbers of the type index of the store of the superclasses, so that they
+	 * can be reused for all classes
+	 */
+	protected static class SuperclassScores {
+		/** SUM x such that type(x,c): 1 - PROD y such that type(y,d): 1-P(x=y), for each superclass d */
+		final double[] degree;
+		/** PROD y such that type(y,d): 1-P(x=y), for each superclass d, for the current x */
+		final double[] product;
+		/** TRUE for the superclasses in withDegree and withProduct */
+		final boolean[] hasDegree, hasProduct;
+		/** The superclasses that have a degree, and a product */
+		final IntArrayList withDegree = new IntArrayList(), withProduct = new IntArrayList();
+
+		SuperclassScores(TypeIndex types) {
+			degree = new double[types.numClasses()];
+			product = new double[types.numClasses()];
+			Arrays.fill(product, 1);
+			hasDegree = new boolean[types.numClasses()];
+			hasProduct = new boolean[types.numClasses()];
+		}
+	}
+
 	/** Finds the super classes of a class */
 	public static void findSuperClassesOf(Integer subclass, FactStore subStore,
 			FactStore superStore) {
+		findSuperClassesOf(subclass, subStore, superStore, new SuperclassScores(superStore.typeIndex()));
+	}
+
+	/** Finds the super classes of a class, using the arrays of the scores, which are left empty */
+	public static void findSuperClassesOf(int subclass, FactStore subStore,
+			FactStore superStore, SuperclassScores scores) {
 		// We ignore classes that contain practically all entities
 		if (subStore.entity(subclass).startsWith("owl:")
 				|| subStore.entity(subclass)
@@ -71,30 +102,25 @@ public class Paris {
 			Announce.debug("Computing superclasses of",
 					subclass);
 
-		// maps each superclass d to
+		TypeIndex subTypes = subStore.typeIndex();
+		TypeIndex superTypes = superStore.typeIndex();
+		// scores.degree contains for each superclass d
 		// SUM x such that type(x,c): 1 - PROD y such that type(y,d): 1-P(x=y)
-		Map<Integer, Double> superclassDegree = new TreeMap<Integer, Double>();
 		// contains the value
 		// # x such that type(x,c) // no longer: and exists y: y=x and type(y,some
 		// class)
 		double normalizer = 0;
 		int counter = 0;
-		// Don't compute that for classes that are too far up in the hierarchy
-		IntSet subInstances = subStore.instancesOf(subclass);
-		if (subInstances == null)
-			return;
-		IntIterator it = subInstances.iterator();
-		while (it.hasNext()) {
-			int subclassInstance = it.next();
+		int numInstances = subTypes.numInstances(subclass);
+		for (int n = 0; n < numInstances; n++) {
+			int subclassInstance = subTypes.instanceAt(subclass, n);
 			if (debug && counter++ > 100)
 				break;
 			if (debug)
 				Announce.debug("   Looking at instance",
 						subclassInstance);
 			// For each instance x of c...
-			boolean foundeqv = false;
-			Map<Integer, Double> membershipProduct = new TreeMap<Integer, Double>();
-			// maps each superclass d to
+			// scores.product contains for each superclass d
 			// PROD y such that type(y,d): 1-P(x=y)
 			for (Pair<Object, Double> superclassInstancePair : computed
 					.equalToScored(subStore, subclassInstance)) {
@@ -108,28 +134,34 @@ public class Paris {
 
 				if (equality < Config.THETA)
 					continue;
-				IntSet classes = superStore.classesOf(superclassInstance);
-				IntIterator it2 = classes.iterator();
-				while (it2.hasNext()) {
-					int superClass = it2.next();
+				int numTypes = superTypes.numTypes(superclassInstance);
+				for (int k = 0; k < numTypes; k++) {
+					int superClass = superTypes.typeAt(superclassInstance, k);
 					assert(superClass > 0);
-					double prod = membershipProduct.containsKey(superClass) ? membershipProduct
-							.get(superClass) : 1;
+					int d = superTypes.classNumber(superClass);
+					if (!scores.hasProduct[d]) {
+						scores.hasProduct[d] = true;
+						scores.withProduct.add(d);
+					}
+					double prod = scores.product[d];
 					if (debug)
 						Announce.debug("        Scoring for",
 								superStore.entity(superClass), prod, 1 - equality
 										* equality, prod * (1 - equality));
-					prod *= 1 - equality;
-					membershipProduct.put(superClass, prod);
-					foundeqv = true;
+					scores.product[d] = prod * (1 - equality);
 				}
 			}
-			if (foundeqv) {
-				for (Integer superclass : membershipProduct.keySet()) {
-					D.addKeyValueDbl(superclassDegree, superclass,
-							1 - membershipProduct.get(superclass));
+			for (int k = 0; k < scores.withProduct.size(); k++) {
+				int d = scores.withProduct.get(k);
+				if (!scores.hasDegree[d]) {
+					scores.hasDegree[d] = true;
+					scores.withDegree.add(d);
 				}
+				scores.degree[d] += 1 - scores.product[d];
+				scores.product[d] = 1;
+				scores.hasProduct[d] = false;
 			}
+			scores.withProduct.clear();
 			normalizer++;
 		}
 		// We do not do the domain/range deduction
@@ -146,9 +178,16 @@ public class Paris {
 		if (normalizer == 0)
 			normalizer = 1;
 
-		// Set the final values
-		for (Integer superclass : superclassDegree.keySet()) {
-			double instanceScore = superclassDegree.get(superclass) / normalizer;
+		// Set the final values, in the order of the classes
+		int[] withDegree = scores.withDegree.toArray();
+		scores.withDegree.clear();
+		Arrays.sort(withDegree);
+		for (int d : withDegree) {
+			int superclass = superTypes.classAt(d);
+			double superclassDegree = scores.degree[d];
+			scores.degree[d] = 0;
+			scores.hasDegree[d] = false;
+			double instanceScore = superclassDegree / normalizer;
 			double domainScore = 1.0; // domainSuperclassDegree.containsKey(superclass)
 																// ? domainSuperclassDegree.get(superclass) :
 																// 1.0;
@@ -156,8 +195,8 @@ public class Paris {
 				continue;
 			if (debug)
 				Announce.debug("Setting final value:", superStore.entity(superclass),
-						superclassDegree.get(superclass), normalizer,
-						superclassDegree.get(superclass) / normalizer, 1
+						superclassDegree, normalizer,
+						superclassDegree / normalizer, 1
 								- (1 - instanceScore) * domainScore);
 			if (!test)
 				computed.setSubclass(subStore, subclass, superclass, 1
@@ -168,10 +207,11 @@ public class Paris {
 	public static void computeClassesOneWay(FactStore fs1, FactStore fs2) {
 		int counter = fs2.numClasses();
 		Announce.progressStart("Computing subclasses one direction", counter);
+		SuperclassScores scores = new SuperclassScores(fs1.typeIndex());
 		for (int cls = 0 ; cls < fs2.numEntities(); cls++) {
 			if (!fs2.isClass(cls))
 				continue;
-			findSuperClassesOf(cls, fs2, fs1);
+			findSuperClassesOf(cls, fs2, fs1, scores);
 			Announce.progressStep();
 		}
 		Announce.progressDone();
@@ -310,10 +350,10 @@ public class Paris {
 			if (relationGuide != null && newNeighborhood.isEmpty())
 				return;
 			
-			List<PredicateAndObject> facts = fs2.factsAbout(y2); 
-			for (int i = 0; i < facts.size(); i++) {
-				int r2bis = facts.get(i).predicate;
-				int ny2 = facts.get(i).object;
+			int degree = fs2.degree(y2);
+			for (int i = 0; i < degree; i++) {
+				int r2bis = fs2.predicateAt(y2, i);
+				int ny2 = fs2.objectAt(y2, i);
 //				Neighborhood n2 = oldNeighborhood == null ? null : oldNeighborhood.getChildRO(r2bis);
 				Neighborhood n2 = oldNeighborhood;
 //				if (!extendNeighborhoods && oldNeighborhood == null) {
@@ -554,12 +594,12 @@ public class Paris {
 
 				visited2.clear();
 				
-				List<PredicateAndObject> facts = fs2.factsAbout(x2); 
-				for (int i = 0; i < facts.size(); i++) {
+				int degree = fs2.degree(x2);
+				for (int i = 0; i < degree; i++) {
 //					if (oldNeighborhood == null)
 //						oldNeighborhood = computed.getNeighborhood(fs1, r1);
-					int r2bis = facts.get(i).predicate;
-					int ny2 = facts.get(i).object;
+					int r2bis = fs2.predicateAt(x2, i);
+					int ny2 = fs2.objectAt(x2, i);
 					Neighborhood n2 = oldNeighborhood == null ? null : oldNeighborhood.getChildRO(r2bis);
 					JoinRelation nr2 = new JoinRelation(fs2, r2bis);
 					Neighborhood nn2 = neighborhood.getChild(run, r2bis);
@@ -631,20 +671,37 @@ public class Paris {
 			if (run == 0)
 				return;
 			
-			List<PredicateAndObject> facts = fs1.factsAbout(x1); 
-			for (int i = 0; i < facts.size(); i++) {
-				PredicateAndObject f = facts.get(i);
-				if (f.predicate == r1.getLast())
+			int degree = fs1.degree(x1);
+			if (relationGuide != null && rg.keys().size() < degree) {
+				// look up the facts of the few guided relations instead of scanning all facts
+				for (int predicate : rg.keys()) {
+					if (predicate == r1.getLast())
+						continue; // relation will be trivial
+					Neighborhood nrg = rg.getChildRO(predicate);
+					if (nrg == null)
+						continue;
+					int end = fs1.endFact(x1, predicate);
+					for (int i = fs1.firstFact(x1, predicate); i < end; i++) {
+						r1.push(FactStore.inverse(predicate));
+						exploreFirstOntology(fs1.objectAt(x1, i), r1, y1, nrg);
+						r1.pop();
+					}
+				}
+				return;
+			}
+			for (int i = 0; i < degree; i++) {
+				int predicate = fs1.predicateAt(x1, i);
+				if (predicate == r1.getLast())
 					continue; // relation will be trivial
-				int r1bis = FactStore.inverse(f.predicate);
+				int r1bis = FactStore.inverse(predicate);
 				Neighborhood nrg = null;
 				if (relationGuide != null) {
-					nrg = rg.getChildRO(f.predicate);
+					nrg = rg.getChildRO(predicate);
 					if (nrg == null)
 						continue;
 				}
 				r1.push(r1bis);
-				exploreFirstOntology(f.object, r1, y1, nrg);
+				exploreFirstOntology(fs1.objectAt(x1, i), r1, y1, nrg);
 				r1.pop();
 			}
 		}
@@ -663,19 +720,31 @@ public class Paris {
 			// call exploreFirstOntology for all fact about y1
 			// (the first recursive call is unrolled to make things run faster)
 			
-			List<PredicateAndObject> facts = fs1.factsAbout(y1); 
-			for (int i = 0; i < facts.size(); i++) {
-				PredicateAndObject f = facts.get(i);
-				int nx1 = f.object;
-				int r1bis = FactStore.inverse(f.predicate);
-				JoinRelation nr1 = new JoinRelation(fs1, r1bis);
-				Neighborhood rg = null;
-				if (relationGuide != null) {
-					rg = relationGuide.getChildRO(f.predicate);
-					if (rg == null && !Config.allLengthOneAfterSample)
+			int degree = fs1.degree(y1);
+			if (relationGuide != null && !Config.allLengthOneAfterSample && relationGuide.keys().size() < degree) {
+				// look up the facts of the few guided relations instead of scanning all facts
+				for (int predicate : relationGuide.keys()) {
+					Neighborhood rg = relationGuide.getChildRO(predicate);
+					if (rg == null)
 						continue;
+					int end = fs1.endFact(y1, predicate);
+					for (int i = fs1.firstFact(y1, predicate); i < end; i++)
+						exploreFirstOntology(fs1.objectAt(y1, i), new JoinRelation(fs1, FactStore.inverse(predicate)), y1, rg);
+				}
+			} else {
+				for (int i = 0; i < degree; i++) {
+					int predicate = fs1.predicateAt(y1, i);
+					int nx1 = fs1.objectAt(y1, i);
+					int r1bis = FactStore.inverse(predicate);
+					JoinRelation nr1 = new JoinRelation(fs1, r1bis);
+					Neighborhood rg = null;
+					if (relationGuide != null) {
+						rg = relationGuide.getChildRO(predicate);
+						if (rg == null && !Config.allLengthOneAfterSample)
+							continue;
+					}
+					exploreFirstOntology(nx1, nr1, y1, rg);
 				}
-				exploreFirstOntology(nx1, nr1, y1, rg);
 			}
 
 			assert (!equalityProduct.keySet().contains(null));
@@ -740,10 +809,10 @@ public class Paris {
 			equalityProduct.clear();
 			fullEqualityProduct.clear();
 
-			List<PredicateAndObject> facts = fs1.factsAbout(y1); 
-			for (int i = 0; i < facts.size(); i++) {
-				int x1 = facts.get(i).object;
-				int r1bis = FactStore.inverse(facts.get(i).predicate);
+			int degree = fs1.degree(y1);
+			for (int i = 0; i < degree; i++) {
+				int x1 = fs1.objectAt(y1, i);
+				int r1bis = FactStore.inverse(fs1.predicateAt(y1, i));
 				
 				if (!fs1.isLiteral(x1) && Config.ignoreClasses && fs1.isClass(x1))
 				  continue;
@@ -771,11 +840,11 @@ public class Paris {
 					}
 					mapperOutput.relationNormalizer.addNormalizer(r1bis);
 					
-					List<PredicateAndObject> facts2 = fs2.factsAbout(x2); 
-					for (int j = 0; j < facts2.size(); j++) {
-						int ny2 = facts2.get(j).object;
+					int degree2 = fs2.degree(x2);
+					for (int j = 0; j < degree2; j++) {
+						int ny2 = fs2.objectAt(x2, j);
 						double yeqv = computed.equality(fs1, y1, ny2);
-						int r2bis = facts2.get(j).predicate;
+						int r2bis = fs2.predicateAt(x2, j);
 						Neighborhood nn2 = currentNeighborhood.getChild(run, r2bis);
 						nn2.registerOccurrence(xeqv);
 						nn2.registerScore(xeqv * yeqv);
@@ -1065,9 +1134,18 @@ public class Paris {
 	}
 
 	public static FactStore loadFactStore(File path, String prefix, String uri) throws IOException {
+		if (FactStoreSnapshot.accepts(path)) return (FactStoreSnapshot.load(setting, path));
 		FactStore fs;
 		fs = new FactStore(setting, prefix, uri,
 				setting.joinLengthLimit, setting.normalizeStrings, setting.normalizeDatesToYears);
+		File snapshot = null;
+		long sourceStamp = 0;
+		if (setting.snapshotFolder != null) {
+			snapshot = FactStoreSnapshot.snapshotFor(setting.snapshotFolder, path);
+			sourceStamp = FactStoreSnapshot.sourceStamp(path);
+			FactStore saved = FactStoreSnapshot.loadIfCurrent(setting, snapshot, path, prefix, uri, fs.formatters);
+			if (saved != null) return (saved);
+		}
 		Announce.doing("Loading facts...");
 		if (path.isFile()) {
 			fs.load(path);
@@ -1076,9 +1154,42 @@ public class Paris {
 		}
 		fs.prepare();
 		Announce.done();
+		if (snapshot != null) {
+			setting.snapshotFolder.mkdirs();
+			FactStoreSnapshot.save(fs, snapshot, sourceStamp);
+			// Continue with the mapped snapshot, so that the facts in memory can be freed
+			if (setting.mappedSnapshots) fs = FactStoreSnapshot.load(setting, snapshot);
+		}
 		return fs;
 	}
 	
+	/** Loads both fact stores, at the same time if the setting says so */
+	public static void loadFactStores() throws IOException, InterruptedException {
+		if (!setting.concurrentKbLoad) {
+			factStore1 = loadFactStore(setting.ontology1, "", "");
+			factStore2 = loadFactStore(setting.ontology2, "", "");
+			return;
+		}
+		final Throwable[] failure = new Throwable[1];
+		Thread second = new Thread() {
+			public void run() {
+				try {
+					factStore2 = loadFactStore(setting.ontology2, "", "");
+				} catch (Throwable e) {
+					failure[0] = e;
+				}
+			}
+		};
+		second.start();
+		factStore1 = loadFactStore(setting.ontology1, "", "");
+		second.join();
+		// Without the second fact store, the alignment cannot start
+		if (failure[0] instanceof IOException) throw (IOException) failure[0];
+		if (failure[0] instanceof RuntimeException) throw (RuntimeException) failure[0];
+		if (failure[0] instanceof Error) throw (Error) failure[0];
+		if (failure[0] != null) throw new IOException(failure[0]);
+	}
+	
 	/** Runs the thing */
 	public static void main(String[] args) throws Exception {
 		// Load the setting
@@ -1089,8 +1200,10 @@ public class Paris {
 							"java paris.Paris <settingFile>",
 							"      You can specify a file that has no content.",
 							"      PARIS will then ask for the necessary data and store it in <settingFile>.\n",
-							"java paris.Paris <kb1> <kb2> <outputFolder>",
-							"      Aligns <kb1> and <kb2>, puts the results into <outputFolder>.\n",
+							"java paris.Paris <kb1> <kb2> <outputFolder> [<snapshotFolder>]",
+							"      Aligns <kb1> and <kb2>, puts the results into <outputFolder>.",
+							"      Keeps binary snapshots of the loaded KBs in <snapshotFolder> for faster reloading.",
+							"      A KB can also be such a snapshot file.\n",
 							"java paris.Paris <factstore> <dump>",
 							"      Dumps all entities of <factstore> to the file <dump>\n",
 							"See http://webdam.inria.fr/paris/ for further information.");
@@ -1104,9 +1217,10 @@ public class Paris {
 		}
 
 		Announce.doing("Starting PARIS");
-		if (args.length == 3) {
+		if (args.length == 3 || args.length == 4) {
 			Announce.message("Settings specified on command line");
 	    setting = new Setting("", ".", args[0], args[1], null, args[2], null);
+	    if (args.length == 4) setting.snapshotFolder = new File(args[3]);
 		} else {
 			Announce.message("Settings:", args[0]);
 			setting = new Setting(new File(args[0]));			
@@ -1146,8 +1260,7 @@ public class Paris {
 		long startTime = System.currentTimeMillis();
 
 		Announce.doing("Loading fact stores (could take a long time...)");
-		factStore1 = loadFactStore(setting.ontology1, "", "");
-		factStore2 = loadFactStore(setting.ontology2, "", "");
+		loadFactStores();
 		Announce.done();			
 
 		Runtime.getRuntime().gc();
@@ -7,9 +7,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -17,6 +19,8 @@ import paris.Setting.LiteralDistance;
 import paris.shingling.QueryResult;
 import paris.shingling.ShinglingTable;
 import paris.storage.FactStore;
+import paris.storage.LiteralValues;
+import paris.storage.NumberAndDateIndex;
 
 import javatools.administrative.Announce;
 import javatools.administrative.D;
@@ -76,6 +80,12 @@ public class Result implements Closeable {
   
   ShinglingStore shinglingStore1;
   ShinglingStore shinglingStore2;
+
+  /** Maps the literals of 1 to the literals of 2 with the same name, and others to 0 */
+  protected int[] sameLiterals1;
+
+  /** Maps the literals of 2 to the literals of 1 with the same name, and others to 0 */
+  protected int[] sameLiterals2;
     
   // -----------------------------------------------------------------
   //             Constructor
@@ -100,6 +110,10 @@ public class Result implements Closeable {
     }
     factStore1 = fs1;
     factStore2 = fs2;
+    sameLiterals1 = fs1.sameLiterals(fs2);
+    sameLiterals2 = new int[fs2.numEntities()];
+    for (int l1 = 0; l1 < sameLiterals1.length; l1++)
+      if (sameLiterals1[l1] != 0) sameLiterals2[sameLiterals1[l1]] = l1;
 		mapperOutput1 = new MapperOutput(fs1);
 		mapperOutput2 = new MapperOutput(fs2);
     this.setting = setting;
@@ -254,13 +268,83 @@ public double stringEquality(String s1, String s2) {
 		return -1;
   }
 }
+  /** Returns the literal of the other fact store with the same name as the literal, 0 if there is none */
+  public int sameLiteral(FactStore fs, int literal) {
+    return (fs == factStore1 ? sameLiterals1[literal] : sameLiterals2[literal]);
+  }
+
+  /** Returns the equality of two literals, as stringEquality() of their names */
+  public double literalEquality(FactStore fs1, int l1, FactStore fs2, int l2) {
+    if (sameLiteral(fs1, l1) == l2) return (1);
+    LiteralValues values1 = fs1.literalValues();
+    LiteralValues values2 = fs2.literalValues();
+    // Literal names start with a quote, so that they are compared as strings
+    double score;
+    if (setting.literalDistance == LiteralDistance.IDENTITY) score = values1.sameValue(l1, values2, l2) ? 1 : 0;
+    else score = valueCompare(setting, values1.value(l1), values2.value(l2));
+    if (score < 1 && setting.matchNumbersAndDates) score = Math.max(score, numberOrDateEquality(fs1, l1, fs2, l2));
+    return (score);
+  }
+
+  /**
+   * Returns the equality of two literals as numbers or dates: the numbers have
+   * the same unit and differ by at most the number tolerance, relative to the
+   * larger one, or one date includes the other. Returns 0 otherwise
+   */
+  public double numberOrDateEquality(FactStore fs1, int l1, FactStore fs2, int l2) {
+    NumberAndDateIndex index1 = fs1.numbersAndDates();
+    NumberAndDateIndex index2 = fs2.numbersAndDates();
+    if (index1.isNumber(l1) && index2.isNumber(l2)) {
+      double n1 = index1.number(l1);
+      double n2 = index2.number(l2);
+      if (Math.abs(n1 - n2) > setting.numberTolerance * Math.max(Math.abs(n1), Math.abs(n2)) || !index1.sameUnit(l1, index2, l2)) return (0);
+      return (1 / setting.penalizeApproxMatches);
+    }
+    if (index1.isDate(l1) && index2.isDate(l2) && index1.year(l1) == index2.year(l2)) {
+      String d1 = fs1.literalValues().value(l1);
+      String d2 = fs2.literalValues().value(l2);
+      if (DateParser.includes(d1, d2) || DateParser.includes(d2, d1)) return (1 / setting.penalizeApproxMatches);
+    }
+    return (0);
+  }
+
+  /** Adds the numbers and dates of the other fact store that match the literal, except for the identical one */
+  protected void addNumberAndDateMatches(FactStore fs, int x1, Collection<Pair<Object, Double>> result) {
+    NumberAndDateIndex index1 = fs.numbersAndDates();
+    NumberAndDateIndex index2 = other(fs).numbersAndDates();
+    int same = sameLiteral(fs, x1);
+    if (index1.isNumber(x1)) {
+      // Numbers within the tolerance relative to the larger one are within this distance
+      double n1 = index1.number(x1);
+      double distance = setting.numberTolerance < 1 ? setting.numberTolerance * Math.abs(n1) / (1 - setting.numberTolerance) : Double.POSITIVE_INFINITY;
+      int end = index2.endNumber(n1 + distance);
+      for (int i = index2.firstNumber(n1 - distance); i < end; i++) {
+        int x2 = index2.numberLiteralAt(i);
+        if (x2 == same) continue;
+        double score = numberOrDateEquality(fs, x1, other(fs), x2);
+        if (score > 0) result.add(new Pair<Object, Double>(x2, score));
+      }
+    }
+    if (index1.isDate(x1)) {
+      int year = index1.year(x1);
+      int end = index2.endDate(year);
+      for (int i = index2.firstDate(year); i < end; i++) {
+        int x2 = index2.dateLiteralAt(i);
+        // Pairs of numbers were compared as numbers
+        if (x2 == same || index1.isNumber(x1) && index2.isNumber(x2)) continue;
+        double score = numberOrDateEquality(fs, x1, other(fs), x2);
+        if (score > 0) result.add(new Pair<Object, Double>(x2, score));
+      }
+    }
+  }
+
   /** Returns the equality. */
   public double equality(FactStore fs1, int s1, int s2) {
   	FactStore fs2 = other(fs1);
     if (fs1.isLiteral(s1)) {
       if (!fs2.isLiteral(s2)) 
       	return 0.;
-      return stringEquality(fs1.entity(s1), fs2.entity(s2));
+      return literalEquality(fs1, s1, fs2, s2);
     } else {
     	if (fs2.isLiteral(s2))
     		return 0.;
@@ -277,7 +361,7 @@ public double stringEquality(String s1, String s2) {
   	// The implementation of EqualityStore does assert(this.setting.takeMaxMax), so no point in doing this check
 //    if(this.setting.takeMax)
 //    	return(equalToScoredMax(fs,x1));
-    return literalEqualToScored(fs, fs.entity(x1));
+    return literalEqualToScored(fs, x1);
   }
 
   
@@ -321,32 +405,42 @@ public double stringEquality(String s1, String s2) {
     	return (equalityStore.subOfScored((Integer) x1));
   }
   
-  /** Says to whom you are equal as a literal */
-  public Collection<Pair<Object, Double>> literalEqualToScored(FactStore fs, String x1) {
-  	if (!Config.literalDistanceForEquality || setting.literalDistance == LiteralDistance.IDENTITY
-  			|| Config.entityType((String) x1) != Config.EntityType.STRING) {
+  /**
+   * Says to whom you are equal as a literal. Numbers and dates are matched by
+   * their values, and also by the literal distance, as other strings are
+   */
+  public Collection<Pair<Object, Double>> literalEqualToScored(FactStore fs, int x1) {
+  	boolean numberOrDate = setting.matchNumbersAndDates && (fs.numbersAndDates().isNumber(x1) || fs.numbersAndDates().isDate(x1));
+  	boolean approximate = Config.literalDistanceForEquality && setting.literalDistance != LiteralDistance.IDENTITY
+  			&& Config.entityType(fs.entity(x1)) == Config.EntityType.STRING;
+  	if (!numberOrDate && !approximate) {
 	    return literalExactEqualToScored(fs, x1);
     } else {
     	Collection<Pair<Object, Double>> exactResult = literalExactEqualToScored(fs, x1);
     	// don't query the index if an exact match exists
     	if (!exactResult.isEmpty() && setting.noApproxIfExact)
     		return exactResult;
-    	// perform approximate matching
   		Collection<Pair<Object, Double>> l = new ArrayList<Pair<Object, Double>>();
+  		if (!approximate) {
+  			l.addAll(exactResult);
+  			addNumberAndDateMatches(fs, x1, l);
+  			return l;
+  		}
+    	// perform approximate matching
   		assert (!Config.treatIdAsRelation);
   		if (setting.literalDistance == LiteralDistance.SHINGLING || setting.literalDistance == LiteralDistance.SHINGLINGLEVENSHTEIN) {
   			if (shinglingStore1 != null) {
   				ShinglingStore ss = shinglingStoreForFactStore(fs);
-  				int e = fs.entity(x1);
-  				for (int i = 0; i < ss.indexMatch[e].length; i++) {
-  					l.add(new Pair<Object, Double>(ss.indexMatch[e][i], ss.indexScore[e][i]));
+  				for (int i = 0; i < ss.indexMatch[x1].length; i++) {
+  					l.add(new Pair<Object, Double>(ss.indexMatch[x1][i], ss.indexScore[x1][i]));
   				}
   			} else {
-	    		Iterator<QueryResult> i1 = other(fs).similarLiterals((String) x1, Config.literalDistanceThreshold).iterator();					
+	    		String name = fs.entity(x1);
+	    		Iterator<QueryResult> i1 = other(fs).similarLiterals(name, Config.literalDistanceThreshold).iterator();					
 					while (i1.hasNext()) {
 						QueryResult qr = i1.next();
 						assert(other(fs).isLiteral(other(fs).entity(qr.result)));
-						double score = computeQueryResultScore(qr, x1, setting.literalDistance);
+						double score = computeQueryResultScore(qr, name, setting.literalDistance);
 						if (score > 0.)
 							l.add(new Pair<Object, Double>(other(fs).entity(qr.result), score));
 					}
@@ -355,7 +449,7 @@ public double stringEquality(String s1, String s2) {
 	  		for (int i = 0; i < other(fs).numEntities(); i++) {
 	  			if (!other(fs).isLiteral(i))
 	  				continue;
-  				double score = stringEquality(x1, other(fs).entity(i));
+  				double score = literalEquality(fs, x1, other(fs), i);
   				// we're not supposed to find an exact match now
   				assert (!setting.noApproxIfExact || score < 0.99999);
   				if (score > Config.literalDistanceThreshold) {
@@ -364,10 +458,28 @@ public double stringEquality(String s1, String s2) {
   				}
 	  		}
   		}
+  		if (numberOrDate) {
+  			Collection<Pair<Object, Double>> matches = new ArrayList<Pair<Object, Double>>();
+  			addNumberAndDateMatches(fs, x1, matches);
+  			addBest(l, matches);
+  		}
   		return l;
   	}
   }
 
+  /** Adds the matches to the result, and keeps the better score of a literal that both contain, so that no literal is counted twice */
+  protected static void addBest(Collection<Pair<Object, Double>> result, Collection<Pair<Object, Double>> matches) {
+    if (matches.isEmpty()) return;
+    Map<Object, Pair<Object, Double>> known = new HashMap<Object, Pair<Object, Double>>();
+    for (Pair<Object, Double> pair : result)
+      known.put(pair.first(), pair);
+    for (Pair<Object, Double> match : matches) {
+      Pair<Object, Double> pair = known.get(match.first());
+      if (pair == null) result.add(match);
+      else if (match.second() > pair.second()) pair.setSecond(match.second());
+    }
+  }
+
   public double computeQueryResultScore(QueryResult qr, String x1, LiteralDistance ld) {
   	double score;
   	if (ld == LiteralDistance.SHINGLING) {
@@ -389,10 +501,11 @@ public double stringEquality(String s1, String s2) {
 
 	/** Check if the literal exists exactly in the other ontology */
 	private Collection<Pair<Object, Double>> literalExactEqualToScored(
-			FactStore fs, String x1) {
-		if (other(fs).entity(x1) == 0) return (Collections.emptyList());
-		assert(other(fs).isLiteral(other(fs).entity(x1)));
-		return (Arrays.asList(new Pair<Object,Double>(other(fs).entity(x1),1.0)));
+			FactStore fs, int x1) {
+		int x2 = sameLiteral(fs, x1);
+		if (x2 == 0) return (Collections.emptyList());
+		assert(other(fs).isLiteral(x2));
+		return (Arrays.asList(new Pair<Object,Double>(x2,1.0)));
 	}
 
   /** Returns equality*/
@@ -414,9 +527,12 @@ public double stringEquality(String s1, String s2) {
 
   /** Compares two strings*/
   public static double stringCompare(Setting setting, String s1, String s2) {
+    return (valueCompare(setting, Config.stripQuotes(s1), Config.stripQuotes(s2)));
+  }
+
+  /** Compares two strings without quotes, as Config.stripQuotes() returns them*/
+  public static double valueCompare(Setting setting, String s1, String s2) {
   	double score;
-    s1=Config.stripQuotes(s1);
-    s2=Config.stripQuotes(s2);    
     String splitBy="";
     switch(setting.literalDistance) {
       case IDENTITY:
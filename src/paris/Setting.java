@@ -2,6 +2,7 @@ package paris;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import javatools.administrative.Announce;
 import javatools.administrative.Parameters;
@@ -78,6 +79,34 @@ public class Setting {
   public boolean noApproxIfExact = true;
   /** parallelize the loading of each fact store */
   public boolean parallelFileLoad;
+  /** load N-Triples files by parsing memory-mapped chunks in parallel */
+  public boolean mappedFileLoad;
+  /** number of threads that parse the chunks of one file */
+  public int loadThreads;
+  /** parse other files in a pipeline of one reading thread and loadThreads parsing threads */
+  public boolean pipelinedParsing;
+  /** load both knowledge bases at the same time */
+  public boolean concurrentKbLoad;
+  /** folder for binary snapshots of the prepared fact stores, NULL for none */
+  public File snapshotFolder;
+  /** use the facts, entity names, types and literal values of snapshots from the mapped files instead of reading them into memory */
+  public boolean mappedSnapshots;
+  /** scan the files before loading them, to size the dictionaries and buffers in advance */
+  public boolean prescanFiles;
+  /** drop facts that occur more than once in a knowledge base when loading it */
+  public boolean removeDuplicateFacts;
+  /** give the entities new ids after loading, so that neighboring entities have close ids */
+  public boolean renumberEntities;
+  /** keep the entity names as front-coded UTF-8 bytes instead of as Strings, which takes less memory but makes looking up names slower */
+  public boolean packedNames;
+  /** relations to load, as names or as namespaces that end in "*", NULL for all */
+  public List<String> keepRelations;
+  /** relations not to load, as names or as namespaces that end in "*", NULL for none */
+  public List<String> dropRelations;
+  /** fraction of the subjects to load, chosen by the hash of their names */
+  public double subjectSample;
+  /** graphs of N-Quads files to load, NULL for all */
+  public List<String> graphs;
   /** number of threads for the shingling precomputation */
   public int shinglingThreads;
   /** if nonempty, print debug information for entities matching this string */
@@ -119,6 +148,11 @@ public class Setting {
    * If you need a string distance, use normalizeStrings=TRUE.*/
   /* if you use SHINGLING or SHINGLINGLEVENSHTEIN, make sure that the fact stores were generated with the literal indexes */
   public LiteralDistance literalDistance;
+
+  /** match literals that are numbers up to numberTolerance, and dates that include each other, not only identical literals */
+  public boolean matchNumbersAndDates;
+  /** relative difference up to which two numbers with the same unit match, if matchNumbersAndDates is set */
+  public double numberTolerance;
   
   /** Constructs a setting*/
   public Setting(String name, String homeFolder, String o1, String o2, String berkeley, String tsv,GoldStandard g) {
@@ -150,6 +184,20 @@ public class Setting {
     precomputeShinglings = false;
     noApproxIfExact = true;
     parallelFileLoad = true;
+    mappedFileLoad = true;
+    loadThreads = Runtime.getRuntime().availableProcessors();
+    snapshotFolder = null;
+    mappedSnapshots = false;
+    pipelinedParsing = true;
+    concurrentKbLoad = true;
+    prescanFiles = false;
+    removeDuplicateFacts = false;
+    renumberEntities = false;
+    packedNames = false;
+    keepRelations = null;
+    dropRelations = null;
+    subjectSample = 1.0;
+    graphs = null;
     penalizeApproxMatches = 1.1;
     
     smoothNumerator = 0.;
@@ -170,6 +218,8 @@ public class Setting {
     joinThreshold = Config.IOTA;
     debugSampling = false;
     literalDistance = Setting.LiteralDistance.IDENTITY;
+    matchNumbersAndDates = false;
+    numberTolerance = 0.0;
   }
   /** Constructs a setting from an ini file
    * @throws IOException */
@@ -200,6 +250,20 @@ public class Setting {
     precomputeShinglings=Parameters.getBoolean("precomputeShinglings", false);
     noApproxIfExact=Parameters.getBoolean("noApproxIfExact", true);
     parallelFileLoad=Parameters.getBoolean("parallelFileLoad", true);
+    mappedFileLoad=Parameters.getBoolean("mappedFileLoad", true);
+    loadThreads=Parameters.getInt("loadThreads", Runtime.getRuntime().availableProcessors());
+    snapshotFolder=Parameters.getFile("snapshotFolder", null);
+    mappedSnapshots=Parameters.getBoolean("mappedSnapshots", false);
+    pipelinedParsing=Parameters.getBoolean("pipelinedParsing", true);
+    concurrentKbLoad=Parameters.getBoolean("concurrentKbLoad", true);
+    prescanFiles=Parameters.getBoolean("prescanFiles", false);
+    removeDuplicateFacts=Parameters.getBoolean("removeDuplicateFacts", false);
+    renumberEntities=Parameters.getBoolean("renumberEntities", false);
+    packedNames=Parameters.getBoolean("packedNames", false);
+    keepRelations=Parameters.getList("keepRelations");
+    dropRelations=Parameters.getList("dropRelations");
+    subjectSample=Parameters.getDouble("subjectSample", 1.0);
+    graphs=Parameters.getList("graphs");
     penalizeApproxMatches=Parameters.getDouble("penalizeApproxMatches", 1.1);
     smoothNumerator=Parameters.getDouble("smoothNumerator", 0.);
     smoothDenominator=Parameters.getDouble("smoothDenominator", 10.);
@@ -218,6 +282,8 @@ public class Setting {
     optimizeNoJoins=Parameters.getBoolean("optimizeNoJoins", true);
     joinThreshold=Parameters.getDouble("joinThreshold", Config.IOTA);
     debugSampling=Parameters.getBoolean("debugSampling", false);
+    matchNumbersAndDates=Parameters.getBoolean("matchNumbersAndDates", false);
+    numberTolerance=Parameters.getDouble("numberTolerance", 0.0);
 
     
     String dist=Parameters.get("literalDistance","identity");
@@ -29,7 +29,7 @@ public class ShinglingStore extends SubThingStore<Integer> {
   protected void prepareLiteral(int i) {
 	  if (!fs1.isLiteral(i))
 			return;
-		Collection<Pair<Object, Double>> similar = result.literalEqualToScored(fs1, fs1.entity(i));
+		Collection<Pair<Object, Double>> similar = result.literalEqualToScored(fs1, i);
 		indexMatch[i] = new int[similar.size()];
 		indexScore[i] = new double[similar.size()];
 		int j = 0;
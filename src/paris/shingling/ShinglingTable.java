@@ -134,8 +134,19 @@ public class ShinglingTable implements Serializable {
 	}
 
 	public void index(String strTmp) {
+		index(strTmp, signature(strTmp));
+	}
+
+	/** Adds a string with its signature. Not thread-safe */
+	public void index(String strTmp, int[] min) {
 		indexed.add(strTmp);
-		
+		for (int i = 0; i < noHashFunctions; i++) {
+			hashtables[i].add(min[i],indexed.size()-1);
+		}
+	}
+
+	/** Returns the minimal hash of the shingles of the string for every hash function. Thread-safe */
+	public int[] signature(String strTmp) {
 		int min[] = new int[noHashFunctions];
 		for (int i = 0; i < noHashFunctions; i++) {
 			min[i] = hashTableSize - 1;
@@ -170,9 +181,7 @@ public class ShinglingTable implements Serializable {
 			}
 		}
 
-		for (int i = 0; i < noHashFunctions; i++) {
-			hashtables[i].add(min[i],indexed.size()-1);
-		}
+		return min;
 	}
 
 	public Collection<QueryResult> query(String str1Tmp, double threshold) {
@@ -0,0 +1,425 @@
+package paris.storage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Decompresses a bzip2 file in several threads. The blocks of a bzip2 file
+ * are compressed independently of each other, and each block starts with the
+ * 48-bit magic number 0x314159265359 at any bit of the file. The file is cut at
+ * these numbers, and each block is decoded by itself. A block that only seemed
+ * to start at a magic number, because the number occurred inside another block,
+ * is left out. Files that consist of several bzip2 streams (as written by
+ * pbzip2) are read through.
+ */
+public class Bzip2InputStream extends ParallelDecompressor {
+
+  /** Magic number of a block */
+  protected static final long BLOCK_MAGIC = 0x314159265359L;
+
+  /** Magic number of the end of a stream */
+  protected static final long END_MAGIC = 0x177245385090L;
+
+  /** Maximal number of bytes in a block before the initial run-length decoding */
+  protected static final int MAX_BLOCK_SIZE = 900000;
+
+  protected static final int MAX_GROUPS = 6;
+
+  protected static final int MAX_ALPHA_SIZE = 258;
+
+  protected static final int MAX_CODE_LEN = 23;
+
+  protected static final int MAX_SELECTORS = 18002;
+
+  protected static final int GROUP_SIZE = 50;
+
+  /** CRC table of bzip2, most significant bit first */
+  protected static final int[] CRC_TABLE = new int[256];
+  static {
+    for (int i = 0; i < 256; i++) {
+      int c = i << 24;
+      for (int k = 0; k < 8; k++)
+        c = (c & 0x80000000) != 0 ? (c << 1) ^ 0x04c11db7 : c << 1;
+      CRC_TABLE[i] = c;
+    }
+  }
+
+  /** Where the contents so far end, in bits */
+  protected long next;
+
+  public Bzip2InputStream(File f, int nThreads) throws IOException {
+    super(f, nThreads);
+    try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+      byte[] header = new byte[4];
+      if (raf.length() < 4) throw new IOException("Not in bzip2 format: " + f);
+      raf.readFully(header);
+      if (header[0] != 'B' || header[1] != 'Z' || header[2] != 'h' || header[3] < '1' || header[3] > '9') throw new IOException("Not in bzip2 format: " + f);
+    }
+    start();
+  }
+
+  @Override
+  protected void cut() throws IOException, InterruptedException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      FileChannel channel = raf.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+      byte[] bytes = buffer.array();
+      long position = 0;
+      long window = 0;
+      // Start of the current block, -1 for none
+      long start = -1;
+      int read;
+      while ((read = channel.read(buffer, position)) > 0) {
+        for (int i = 0; i < read; i++) {
+          window = (window << 8) | (bytes[i] & 0xFF);
+          // The magic numbers need 48 bits of the window, plus up to 7 bits of the next byte
+          if (position + i < 6) continue;
+          for (int shift = 7; shift >= 0; shift--) {
+            long bits = (window >>> shift) & 0xFFFFFFFFFFFFL;
+            if (bits != BLOCK_MAGIC && bits != END_MAGIC) continue;
+            long at = (position + i + 1) * 8 - shift - 48;
+            if (start >= 0) emit(start, at);
+            start = bits == BLOCK_MAGIC ? at : -1;
+          }
+        }
+        position += read;
+        buffer.clear();
+      }
+      if (start >= 0) emit(start, position * 8);
+    }
+  }
+
+  @Override
+  protected Decoder newDecoder() throws IOException {
+    final BlockDecoder decoder = new BlockDecoder(file);
+    return (new Decoder() {
+
+      @Override
+      public void decode(Piece piece) {
+        try {
+          piece.data = decoder.decode(piece.start);
+          piece.decodedEnd = decoder.in.position();
+        } catch (IOException e) {
+          piece.failure = e;
+        } catch (RuntimeException e) {
+          // Bits that only seemed to start a block can lead anywhere
+          piece.failure = new IOException("Corrupt bzip2 block", e);
+        }
+      }
+
+      @Override
+      public void close() {
+        decoder.close();
+      }
+    });
+  }
+
+  @Override
+  protected InputStream contents(Piece piece) throws IOException {
+    // The piece starts at a magic number inside a block
+    if (piece.start < next) return (null);
+    if (piece.failure != null) throw piece.failure;
+    next = piece.decodedEnd;
+    return (data(piece));
+  }
+
+  @Override
+  public long position() {
+    return (super.position() >>> 3);
+  }
+
+  /** Reads the bits of a file from a position */
+  protected static class BitReader {
+
+    protected final RandomAccessFile raf;
+
+    protected final FileChannel channel;
+
+    protected final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+    protected final byte[] bytes = buffer.array();
+
+    /** Next byte and end of the bytes in the buffer */
+    protected int pos, end;
+
+    /** File position of the end of the bytes in the buffer */
+    protected long filePos;
+
+    /** Bits that were read, but not returned */
+    protected long bits;
+
+    protected int nBits;
+
+    public BitReader(File file) throws IOException {
+      raf = new RandomAccessFile(file, "r");
+      channel = raf.getChannel();
+    }
+
+    /** Moves to a bit of the file */
+    public void seek(long bit) throws IOException {
+      filePos = bit >>> 3;
+      pos = end = 0;
+      nBits = 0;
+      bits((int) (bit & 7));
+    }
+
+    /** Returns the position of the next bit */
+    public long position() {
+      return ((filePos - (end - pos)) * 8 - nBits);
+    }
+
+    /** Returns the next n bits, n <= 32 */
+    public int bits(int n) throws IOException {
+      while (nBits < n) {
+        if (pos == end) {
+          buffer.clear();
+          int read = channel.read(buffer, filePos);
+          if (read <= 0) throw new EOFException("Unexpected end of bzip2 file");
+          filePos += read;
+          pos = 0;
+          end = read;
+        }
+        bits = (bits << 8) | (bytes[pos++] & 0xFF);
+        nBits += 8;
+      }
+      nBits -= n;
+      return ((int) ((bits >>> nBits) & ((1L << n) - 1)));
+    }
+
+    /** Returns the next bit */
+    public boolean bit() throws IOException {
+      return (bits(1) != 0);
+    }
+
+    public void close() {
+      try {
+        raf.close();
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  /** Decodes single blocks of a file */
+  protected static class BlockDecoder {
+
+    protected final BitReader in;
+
+    /** Block after the move-to-front decoding, then the links of the inverse Burrows-Wheeler transform */
+    protected final int[] tt = new int[MAX_BLOCK_SIZE];
+
+    protected final byte[] seqToUnseq = new byte[256];
+
+    protected final byte[] selectors = new byte[MAX_SELECTORS];
+
+    protected final int[][] limit = new int[MAX_GROUPS][MAX_CODE_LEN + 1];
+
+    protected final int[][] base = new int[MAX_GROUPS][MAX_CODE_LEN + 1];
+
+    protected final int[][] perm = new int[MAX_GROUPS][MAX_ALPHA_SIZE];
+
+    protected final int[] minLens = new int[MAX_GROUPS];
+
+    protected final int[][] lengths = new int[MAX_GROUPS][MAX_ALPHA_SIZE];
+
+    protected final int[] counts = new int[256];
+
+    /** Number of groups of symbols in the block */
+    protected int nSelectors;
+
+    /** Table and symbol of the current group of symbols */
+    protected int group, groupPos, groupIndex;
+
+    public BlockDecoder(File file) throws IOException {
+      in = new BitReader(file);
+    }
+
+    /** Returns the next Huffman-coded symbol */
+    protected int symbol() throws IOException {
+      if (groupPos == 0) {
+        if (groupIndex >= nSelectors) throw new IOException("Corrupt bzip2 block");
+        group = selectors[groupIndex++];
+        groupPos = GROUP_SIZE;
+      }
+      groupPos--;
+      int[] limit = this.limit[group];
+      int n = minLens[group];
+      int code = in.bits(n);
+      while (code > limit[n]) {
+        if (++n > 20) throw new IOException("Corrupt bzip2 block");
+        code = (code << 1) | in.bits(1);
+      }
+      int index = code - base[group][n];
+      if (index < 0 || index >= MAX_ALPHA_SIZE) throw new IOException("Corrupt bzip2 block");
+      return (perm[group][index]);
+    }
+
+    /** Builds the decoding tables of a group from the code lengths of its symbols */
+    protected void makeTables(int t, int alphaSize) {
+      int[] length = lengths[t];
+      int[] limit = this.limit[t];
+      int[] base = this.base[t];
+      int[] perm = this.perm[t];
+      int minLen = 32, maxLen = 0;
+      for (int i = 0; i < alphaSize; i++) {
+        minLen = Math.min(minLen, length[i]);
+        maxLen = Math.max(maxLen, length[i]);
+      }
+      int pp = 0;
+      for (int i = minLen; i <= maxLen; i++)
+        for (int j = 0; j < alphaSize; j++)
+          if (length[j] == i) perm[pp++] = j;
+      Arrays.fill(base, 0);
+      for (int i = 0; i < alphaSize; i++)
+        base[length[i] + 1]++;
+      for (int i = 1; i < base.length; i++)
+        base[i] += base[i - 1];
+      Arrays.fill(limit, 0);
+      int vec = 0;
+      for (int i = minLen; i <= maxLen; i++) {
+        vec += base[i + 1] - base[i];
+        limit[i] = vec - 1;
+        vec <<= 1;
+      }
+      for (int i = minLen + 1; i <= maxLen; i++)
+        base[i] = ((limit[i - 1] + 1) << 1) - base[i];
+      minLens[t] = minLen;
+    }
+
+    /** Decodes the block that starts at a bit of the file */
+    public byte[] decode(long start) throws IOException {
+      in.seek(start);
+      if (in.bits(24) != (int) (BLOCK_MAGIC >>> 24) || in.bits(24) != (int) (BLOCK_MAGIC & 0xFFFFFF)) throw new IOException("No bzip2 block");
+      int crc = in.bits(32);
+      if (in.bit()) throw new IOException("Randomized bzip2 blocks are not supported");
+      int origPtr = in.bits(24);
+      // The bytes that occur in the block
+      int inUse16 = in.bits(16);
+      int nInUse = 0;
+      for (int i = 0; i < 16; i++) {
+        if ((inUse16 & (0x8000 >>> i)) == 0) continue;
+        int inUse = in.bits(16);
+        for (int j = 0; j < 16; j++)
+          if ((inUse & (0x8000 >>> j)) != 0) seqToUnseq[nInUse++] = (byte) (i * 16 + j);
+      }
+      if (nInUse == 0) throw new IOException("Corrupt bzip2 block");
+      int alphaSize = nInUse + 2;
+      // The Huffman table of each group of 50 symbols
+      int nGroups = in.bits(3);
+      int nSelectors = in.bits(15);
+      if (nGroups < 2 || nGroups > MAX_GROUPS || nSelectors < 1) throw new IOException("Corrupt bzip2 block");
+      byte[] mtf = new byte[MAX_GROUPS];
+      for (int i = 0; i < nGroups; i++)
+        mtf[i] = (byte) i;
+      for (int i = 0; i < nSelectors; i++) {
+        int j = 0;
+        while (in.bit()) {
+          if (++j >= nGroups) throw new IOException("Corrupt bzip2 block");
+        }
+        byte selector = mtf[j];
+        System.arraycopy(mtf, 0, mtf, 1, j);
+        mtf[0] = selector;
+        // bzip2 ignores the selectors behind the maximum
+        if (i < MAX_SELECTORS) selectors[i] = selector;
+      }
+      this.nSelectors = Math.min(nSelectors, MAX_SELECTORS);
+      // The code lengths, as deltas
+      for (int t = 0; t < nGroups; t++) {
+        int length = in.bits(5);
+        for (int i = 0; i < alphaSize; i++) {
+          while (true) {
+            if (length < 1 || length > 20) throw new IOException("Corrupt bzip2 block");
+            if (!in.bit()) break;
+            length += in.bit() ? -1 : 1;
+          }
+          lengths[t][i] = length;
+        }
+        makeTables(t, alphaSize);
+      }
+      // The symbols: move-to-front indexes and runs of the first byte
+      groupIndex = 0;
+      groupPos = 0;
+      Arrays.fill(counts, 0);
+      int[] yy = new int[256];
+      for (int i = 0; i < 256; i++)
+        yy[i] = i;
+      int eob = nInUse + 1;
+      int size = 0;
+      int symbol = symbol();
+      while (symbol != eob) {
+        if (symbol <= 1) {
+          int run = 0;
+          for (int weight = 1; symbol <= 1; weight <<= 1) {
+            if (weight >= 1 << 21) throw new IOException("Corrupt bzip2 block");
+            run += symbol == 0 ? weight : 2 * weight;
+            symbol = symbol();
+          }
+          int b = seqToUnseq[yy[0]] & 0xFF;
+          if (size + run > tt.length) throw new IOException("Corrupt bzip2 block");
+          counts[b] += run;
+          Arrays.fill(tt, size, size + run, b);
+          size += run;
+          continue;
+        }
+        if (size >= tt.length) throw new IOException("Corrupt bzip2 block");
+        int index = symbol - 1;
+        int value = yy[index];
+        System.arraycopy(yy, 0, yy, 1, index);
+        yy[0] = value;
+        int b = seqToUnseq[value] & 0xFF;
+        counts[b]++;
+        tt[size++] = b;
+        symbol = symbol();
+      }
+      if (origPtr >= size) throw new IOException("Corrupt bzip2 block");
+      // Inverse Burrows-Wheeler transform: the upper bits link to the next byte
+      int[] cftab = new int[256];
+      for (int i = 1; i < 256; i++)
+        cftab[i] = cftab[i - 1] + counts[i - 1];
+      for (int i = 0; i < size; i++) {
+        int b = tt[i] & 0xFF;
+        tt[cftab[b]++] |= i << 8;
+      }
+      // Undo the initial run-length encoding, where 4 equal bytes are followed by the number of repetitions
+      byte[] out = new byte[size + size / 4 + 64];
+      int n = 0;
+      int last = -1;
+      int run = 0;
+      int blockCrc = -1;
+      int tPos = tt[origPtr] >>> 8;
+      for (int k = 0; k < size; k++) {
+        tPos = tt[tPos];
+        int b = tPos & 0xFF;
+        tPos >>>= 8;
+        if (run == 4) {
+          if (n + b > out.length) out = Arrays.copyOf(out, Math.max(out.length * 2, n + b));
+          for (int r = 0; r < b; r++) {
+            out[n++] = (byte) last;
+            blockCrc = (blockCrc << 8) ^ CRC_TABLE[(blockCrc >>> 24) ^ last];
+          }
+          run = 0;
+          continue;
+        }
+        if (b == last) run++;
+        else {
+          run = 1;
+          last = b;
+        }
+        if (n == out.length) out = Arrays.copyOf(out, out.length * 2);
+        out[n++] = (byte) b;
+        blockCrc = (blockCrc << 8) ^ CRC_TABLE[(blockCrc >>> 24) ^ b];
+      }
+      if (~blockCrc != crc) throw new IOException("Corrupt bzip2 block, wrong checksum");
+      return (Arrays.copyOf(out, n));
+    }
+
+    public void close() {
+      in.close();
+    }
+  }
+}
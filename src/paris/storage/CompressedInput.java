@@ -0,0 +1,318 @@
+package paris.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import javatools.administrative.Announce;
+import javatools.filehandlers.FileSet;
+
+/**
+ * Opens knowledge base files that may be compressed with gzip, bzip2 or xz, so
+ * that dumps do not have to be decompressed to disk. Decompression runs in
+ * parallel to the parser, and in several threads: BGZF files (blocked gzip, as
+ * written by bgzip) are decompressed block by block, other gzip files member by
+ * member, bzip2 files block by block and xz files by the blocks of their index.
+ * lbzip2, pbzip2 and xz are used instead if they are installed, because they
+ * are faster, but none of them is needed.
+ */
+public class CompressedInput {
+
+  /** Returns the compression extension of the file (".gz", ".bz2", ".xz"), or NULL */
+  public static String compression(File f) {
+    String extension = FileSet.extension(f).toLowerCase();
+    switch (extension) {
+      case ".gz":
+      case ".bz2":
+      case ".xz":
+        return (extension);
+    }
+    return (null);
+  }
+
+  /** Returns the file without its compression extension */
+  public static File uncompressedName(File f) {
+    if (compression(f) == null) return (f);
+    return (new File(f.getParentFile(), FileSet.newExtension(f.getName(), null)));
+  }
+
+  /** Opens a file, decompressing it if necessary */
+  public static InputStream open(File f, int threads) throws IOException {
+    String compression = compression(f);
+    if (compression == null) return (new FileInputStream(f));
+    switch (compression) {
+      case ".bz2":
+        if (onPath("lbzip2")) return (external(f, "lbzip2", "-dc", "-n", String.valueOf(Math.max(1, threads))));
+        if (onPath("pbzip2")) return (external(f, "pbzip2", "-dc", "-p" + Math.max(1, threads)));
+        break;
+      case ".xz":
+        if (onPath("xz")) return (external(f, "xz", "-dc", "-T" + Math.max(0, threads)));
+        break;
+    }
+    return (decoder(f, threads));
+  }
+
+  /** Opens a compressed file with the decompressors of PARIS, which do not need external programs */
+  public static ParallelDecompressor decoder(File f, int threads) throws IOException {
+    String compression = compression(f);
+    if (compression == null) throw new IOException("Not a compressed file: " + f);
+    switch (compression) {
+      case ".gz":
+        if (isBgzf(f)) return (new BgzfInputStream(f, threads));
+        return (new GzipMembersInputStream(f, threads));
+      case ".bz2":
+        return (new Bzip2InputStream(f, threads));
+      default:
+        return (new XzInputStream(f, threads));
+    }
+  }
+
+  /** TRUE if a program is on the PATH */
+  public static boolean onPath(String program) {
+    String path = System.getenv("PATH");
+    if (path == null) return (false);
+    for (String folder : path.split(File.pathSeparator)) {
+      if (new File(folder, program).canExecute()) return (true);
+    }
+    return (false);
+  }
+
+  /** Decompresses a file with an external program */
+  protected static InputStream external(final File f, String... command) throws IOException {
+    String[] commandLine = new String[command.length + 1];
+    System.arraycopy(command, 0, commandLine, 0, command.length);
+    commandLine[command.length] = f.getPath();
+    final Process process = new ProcessBuilder(commandLine).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    process.getOutputStream().close();
+    return (new FilterInputStream(process.getInputStream()) {
+
+      /** TRUE once the end was reached */
+      protected boolean done;
+
+      /** Checks the exit value at the end of the output */
+      protected int checkEnd(int read) throws IOException {
+        if (read != -1 || done) return (read);
+        done = true;
+        try {
+          if (process.waitFor() != 0) throw new IOException("Decompressing " + f + " failed");
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        return (read);
+      }
+
+      @Override
+      public int read() throws IOException {
+        return (checkEnd(super.read()));
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return (checkEnd(super.read(b, off, len)));
+      }
+
+      @Override
+      public void close() throws IOException {
+        super.close();
+        process.destroy();
+      }
+    });
+  }
+
+  /** TRUE if the gzip file is in BGZF format, i.e., its blocks carry their size */
+  public static boolean isBgzf(File f) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+      byte[] header = new byte[18];
+      if (raf.length() < header.length) return (false);
+      raf.readFully(header);
+      return (bgzfBlockSize(header) > 0);
+    }
+  }
+
+  /** Returns the size of the BGZF block that starts with the header, or -1 */
+  protected static int bgzfBlockSize(byte[] header) {
+    ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+    if ((header[0] & 0xFF) != 0x1f || (header[1] & 0xFF) != 0x8b || header[2] != 8 || (header[3] & 4) == 0) return (-1);
+    if (buffer.getShort(10) != 6 || header[12] != 'B' || header[13] != 'C' || buffer.getShort(14) != 2) return (-1);
+    return ((buffer.getShort(16) & 0xFFFF) + 1);
+  }
+
+  /** Decompresses the blocks of a BGZF file in parallel, and returns their contents in order */
+  protected static class BgzfInputStream extends ParallelDecompressor {
+
+    public BgzfInputStream(File f, int nThreads) {
+      super(f, nThreads);
+      start();
+    }
+
+    /** Cuts the file into its blocks, which carry their size */
+    @Override
+    protected void cut() throws IOException, InterruptedException {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+        byte[] header = new byte[18];
+        long position = 0;
+        long length = raf.length();
+        while (position < length) {
+          raf.seek(position);
+          raf.readFully(header);
+          int size = bgzfBlockSize(header);
+          if (size < 0) throw new IOException("Corrupt BGZF block in " + file + " at " + position);
+          emit(position, position + size);
+          position += size;
+        }
+      }
+    }
+
+    @Override
+    protected Decoder newDecoder() throws IOException {
+      final RandomAccessFile raf = new RandomAccessFile(file, "r");
+      final Inflater inflater = new Inflater(true);
+      return (new Decoder() {
+
+        @Override
+        public void decode(Piece piece) {
+          try {
+            byte[] compressed = new byte[(int) (piece.end - piece.start)];
+            raf.seek(piece.start);
+            raf.readFully(compressed);
+            piece.data = inflate(compressed, inflater);
+          } catch (IOException e) {
+            piece.failure = e;
+          }
+        }
+
+        @Override
+        public void close() {
+          inflater.end();
+          try {
+            raf.close();
+          } catch (IOException e) {
+          }
+        }
+      });
+    }
+
+    /** Decompresses one block */
+    protected static byte[] inflate(byte[] compressed, Inflater inflater) throws IOException {
+      ByteBuffer buffer = ByteBuffer.wrap(compressed).order(ByteOrder.LITTLE_ENDIAN);
+      int headerSize = 12 + (buffer.getShort(10) & 0xFFFF);
+      int size = buffer.getInt(compressed.length - 4);
+      if (size < 0 || size > 1 << 16 || headerSize + 8 > compressed.length) throw new IOException("Corrupt BGZF block");
+      byte[] data = new byte[size];
+      inflater.reset();
+      inflater.setInput(compressed, headerSize, compressed.length - headerSize - 8);
+      try {
+        int done = 0;
+        while (done < data.length && !inflater.finished()) {
+          int n = inflater.inflate(data, done, data.length - done);
+          if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+          done += n;
+        }
+        if (done != data.length) throw new IOException("Corrupt BGZF block");
+      } catch (DataFormatException e) {
+        throw new IOException(e);
+      }
+      CRC32 crc = new CRC32();
+      crc.update(data);
+      if ((int) crc.getValue() != buffer.getInt(compressed.length - 8)) throw new IOException("Corrupt BGZF block");
+      return (data);
+    }
+
+    @Override
+    protected InputStream contents(Piece piece) throws IOException {
+      if (piece.failure != null) throw piece.failure;
+      return (data(piece));
+    }
+  }
+
+  /** File of the check folder that GZIPInputStream decodes into the reference contents */
+  public static final String CHECK_REFERENCE = "reference.nt.gz";
+
+  /** Number of threads of the check */
+  protected static final int CHECK_THREADS = 3;
+
+  /**
+   * Checks the decoders of PARIS (not the external programs) against the
+   * compressed files of a folder:
+   *
+   * <PRE>
+   * java -cp paris.jar paris.storage.CompressedInput data/compressed
+   * </PRE>
+   *
+   * The GZIPInputStream of Java decodes the file reference.nt.gz, and every
+   * compressed file of the folder has to decode to the same bytes. Truncated
+   * and corrupted copies of the files have to fail with an IOException.
+   */
+  public static void main(String[] args) throws Exception {
+    File folder = new File(args.length == 0 ? "data/compressed" : args[0]);
+    byte[] reference;
+    try (InputStream in = new GZIPInputStream(new FileInputStream(new File(folder, CHECK_REFERENCE)))) {
+      reference = readAll(in);
+    }
+    File[] files = folder.listFiles();
+    Arrays.sort(files);
+    boolean ok = true;
+    for (File f : files) {
+      if (compression(f) == null) continue;
+      byte[] bytes = Files.readAllBytes(f.toPath());
+      boolean same = Arrays.equals(decode(f), reference);
+      // Cuts the last member, block or index
+      boolean truncated = fails(Arrays.copyOf(bytes, bytes.length * 2 / 3), compression(f));
+      byte[] corrupt = bytes.clone();
+      for (int i = corrupt.length / 2; i < corrupt.length / 2 + 16; i++)
+        corrupt[i] ^= 0x55;
+      boolean corrupted = fails(corrupt, compression(f));
+      Announce.message(f.getName() + ":", same ? "OK" : "WRONG", truncated ? "" : "truncated copy not detected", corrupted ? "" : "corrupted copy not detected");
+      ok &= same && truncated && corrupted;
+    }
+    if (!ok) System.exit(1);
+  }
+
+  /** Decodes a compressed file with the decoders of PARIS */
+  protected static byte[] decode(File f) throws IOException {
+    try (InputStream in = decoder(f, CHECK_THREADS)) {
+      return (readAll(in));
+    }
+  }
+
+  /** TRUE if the decoders of PARIS reject the compressed bytes with an IOException */
+  protected static boolean fails(byte[] bytes, String extension) throws IOException {
+    File f = File.createTempFile("paris_check", ".nt" + extension);
+    f.deleteOnExit();
+    try (OutputStream out = new FileOutputStream(f)) {
+      out.write(bytes);
+    }
+    try {
+      decode(f);
+      return (false);
+    } catch (IOException e) {
+      return (true);
+    } finally {
+      f.delete();
+    }
+  }
+
+  /** Reads a stream to its end */
+  protected static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1 << 16];
+    int read;
+    while ((read = in.read(buffer)) != -1)
+      result.write(buffer, 0, read);
+    return (result.toByteArray());
+  }
+}
@@ -5,10 +5,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
 import java.util.regex.Pattern;
 
 import paris.Config;
@@ -20,31 +18,23 @@ import paris.shingling.ShinglingTable;
 import javatools.administrative.Announce;
 import javatools.administrative.D;
 import javatools.parsers.NumberFormatter;
-import bak.pcj.IntIterator;
-import bak.pcj.map.ObjectKeyIntMap;
-import bak.pcj.map.ObjectKeyIntOpenHashMap;
+import bak.pcj.list.IntArrayList;
 import bak.pcj.set.IntOpenHashSet;
 import bak.pcj.set.IntSet;
 
 /** Represents a set of facts */
-public class FactStore {
+public class FactStore implements TripleSink {
 
   /** Approximate string index */
   ShinglingTable literalIndex;
 
-  /** Maps entity names and literals to their ids */
-  protected ObjectKeyIntMap entityNames = new ObjectKeyIntOpenHashMap();
+  /** Maps entity names and literals to their ids and back */
+  protected NameDictionary entities;
 
   /**
-   * Maps relation names to their ids, everyone followed by its inverse relation
+   * Maps relation names to their ids and back, everyone followed by its inverse relation
    */
-  protected ObjectKeyIntMap relationNames = new ObjectKeyIntOpenHashMap();
-
-  /** Maps ids to entity names */
-  protected ArrayList<String> entities = new ArrayList<>();
-
-  /** Maps ids to relation names */
-  protected ArrayList<String> relations = new ArrayList<>();
+  protected NameDictionary relations = new NameDictionary();
 
   /** Maps to the functionalities */
   protected double[] functionalities;
@@ -60,8 +50,17 @@ public class FactStore {
 
   /** Store if something is a class */
   protected boolean isClass[];
+
+  /** The rdf:type facts in both directions, built by prepare() */
+  protected TypeIndex types;
   protected boolean isLiteral[];
 
+  /** The values of the literals without quotes, built by prepare() */
+  protected LiteralValues literalValues;
+
+  /** The numbers and dates among the literals, built by prepare() if the setting matches them */
+  protected NumberAndDateIndex numbersAndDates;
+
   protected int joinLengthLimit;
 
   /**
@@ -75,6 +74,15 @@ public class FactStore {
 
   public Setting setting;
 
+  /** Decides which triples are loaded, NULL for all */
+  protected final TripleFilter filter;
+
+  /** The namespace prefixes of the files of this fact store */
+  protected final UriPrefixes prefixes = new UriPrefixes();
+
+  /** Estimated size of the files that are being loaded, NULL if they were not scanned */
+  protected LoadEstimate loadEstimate;
+
   /** Constant for rdf:type*/
   public int TYPE;
 
@@ -88,10 +96,23 @@ public class FactStore {
     this.joinLengthLimit = joinLengthLimit;
     this.setting = setting;
     formatters = formis;
+    filter = setting == null ? null : TripleFilter.forSetting(setting);
+    entities = newEntityDictionary();
     addRelation("<xxx-unused>");
     addEntity("<xxx-unused>");
   }
 
+  /** Returns the namespace prefixes of the files of this fact store */
+  public UriPrefixes prefixes() {
+    return (prefixes);
+  }
+
+  /** Returns an empty dictionary for the entity names, packed if the setting asks for it */
+  protected NameDictionary newEntityDictionary() {
+    if (setting != null && setting.packedNames) return (new PackedNameDictionary());
+    return (new NameDictionary());
+  }
+
   public static LiteralFormatter[] getArgs(boolean normalizeStrings, boolean normalizeDatesToYears) {
     Collection<LiteralFormatter> formis = new LinkedList<LiteralFormatter>();
     formis.add(LiteralFormatter.CUT_DATATYPE);
@@ -123,21 +144,483 @@ public class FactStore {
     }
   }
 
-  /** Maps a subject to a list of predicates and objects */
-  protected ArrayList<ArrayList<PredicateAndObject>> facts = new ArrayList<ArrayList<PredicateAndObject>>();
+  /**
+   * The facts about each subject in compressed sparse rows, built by prepare():
+   * the predicates and objects of the facts about subject s are at the
+   * positions factOffsets[s] to factOffsets[s+1]-1 of factPredicates and
+   * factObjects, sorted by predicate and then by object. The arrays are
+   * indexed by int, so that a fact store holds at most MAX_FACTS facts
+   */
+  protected int[] factOffsets = new int[1];
+
+  /**
+   * Maximum number of facts of a fact store, counting inverse facts, i.e. about
+   * 1.07 billion triples whose objects are entities
+   */
+  public static final int MAX_FACTS = Integer.MAX_VALUE - 8;
+
+  /** The predicates of the facts, ordered by subject */
+  protected int[] factPredicates = new int[0];
 
-  /** Adds a fact */
+  /** The objects of the facts, ordered by subject */
+  protected int[] factObjects = new int[0];
+
+  /** Facts added by the loading threads, as subject, predicate, object, until prepare() */
+  protected final List<IntArrayList> loadBuffers = new ArrayList<IntArrayList>();
+
+  /** The load buffer of each loading thread */
+  protected final ThreadLocal<IntArrayList> loadBuffer = new ThreadLocal<IntArrayList>() {
+
+    @Override
+    protected IntArrayList initialValue() {
+      IntArrayList buffer = new IntArrayList(3 * 1024);
+      synchronized (loadBuffers) {
+        loadBuffers.add(buffer);
+      }
+      return (buffer);
+    }
+  };
+
+  /** Adds a fact. The fact is visible in factsAbout() after prepare() */
   public void add(int subject, int predicate, int object) {
-    synchronized (facts) {
-      facts.ensureCapacity(subject);
-      while (facts.size() <= subject)
-        facts.add(null);
-      PredicateAndObject predAndObj = new PredicateAndObject(predicate, object);
-      ArrayList<PredicateAndObject> factsAboutSubject = facts.get(subject);
-      if (factsAboutSubject == null) facts.set(subject, factsAboutSubject = new ArrayList<PredicateAndObject>());
-      factsAboutSubject.add(predAndObj);
+    IntArrayList buffer = loadBuffer.get();
+    buffer.add(subject);
+    buffer.add(predicate);
+    buffer.add(object);
+  }
+
+  /**
+   * Makes room for the given number of facts in the load buffer of this
+   * thread. The number is scaled by the fraction of the triples that the
+   * filter keeps, and nothing is reserved if that fraction is unknown. The
+   * buffers of all loading threads together reserve at most a quarter of the
+   * heap, beyond that they grow as the facts come
+   */
+  public void reserveFacts(long numFacts) {
+    if (filter != null) numFacts = (long) (numFacts * filter.expectedFraction());
+    if (numFacts <= 0) return;
+    long maxFacts = Runtime.getRuntime().maxMemory() / 4 / 12 / Math.max(1, setting.loadThreads);
+    IntArrayList buffer = loadBuffer.get();
+    buffer.ensureCapacity((int) Math.min(MAX_FACTS, buffer.size() + 3 * Math.min(numFacts, maxFacts)));
+  }
+
+  /** Work on a range of entities */
+  protected interface EntityRange {
+
+    void run(int from, int to);
+  }
+
+  /** Number of entities below which a range is not split further */
+  protected static final int MIN_RANGE = 1024;
+
+  /** Runs the work on the entities from start to end-1, in loadThreads ranges in parallel, and rethrows the first failure of a range */
+  protected void inParallel(int start, int end, final EntityRange work) {
+    inParallel(start, end, MIN_RANGE, work);
+  }
+
+  /** Runs the work on the numbers from start to end-1, in loadThreads ranges of at least minRange numbers in parallel */
+  protected void inParallel(int start, int end, int minRange, final EntityRange work) {
+    int nThreads = Math.max(1, Math.min(setting.loadThreads, (end - start) / minRange));
+    if (nThreads == 1) {
+      work.run(start, end);
+      return;
+    }
+    final Throwable[] failure = new Throwable[1];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < nThreads; t++) {
+      final int from = start + (int) ((long) (end - start) * t / nThreads);
+      final int to = start + (int) ((long) (end - start) * (t + 1) / nThreads);
+      Thread thread = new Thread() {
+
+        public void run() {
+          try {
+            work.run(from, to);
+          } catch (Throwable e) {
+            synchronized (failure) {
+              if (failure[0] == null) failure[0] = e;
+            }
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    try {
+      for (Thread thread : threads)
+        thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for the worker threads", e);
+    }
+    // A failed range leaves the arrays half-filled, so the failure must not go unnoticed
+    if (failure[0] instanceof RuntimeException) throw (RuntimeException) failure[0];
+    if (failure[0] instanceof Error) throw (Error) failure[0];
+    if (failure[0] != null) throw new RuntimeException(failure[0]);
+  }
+
+  /** Moves the facts of the load buffers to the facts about each subject, in parallel */
+  protected void mergeLoadBuffers() {
+    Announce.doing("Merging facts of", loadBuffers.size(), "loading threads");
+    final IntArrayList[] buffers = loadBuffers.toArray(new IntArrayList[loadBuffers.size()]);
+    final int numEntities = numEntities();
+    final int[] offsets = new int[numEntities + 1];
+    // The facts are numbered through all buffers, one after the other
+    final int[] bufferStarts = new int[buffers.length + 1];
+    long numBufferFacts = 0;
+    for (int b = 0; b < buffers.length; b++) {
+      numBufferFacts += buffers[b].size() / 3;
+      checkNumFacts(numBufferFacts);
+      bufferStarts[b + 1] = (int) numBufferFacts;
+    }
+    // Every thread takes the facts about one range of subjects
+    final int numRanges = Math.max(1, Math.min(setting.loadThreads, numEntities / MIN_RANGE));
+    final int[] rangeStarts = new int[numRanges + 1];
+    for (int range = 0; range <= numRanges; range++)
+      rangeStarts[range] = (int) ((long) numEntities * range / numRanges);
+    // A single range takes every fact and its inverse
+    final int[][] rangeFacts = numRanges == 1 ? new int[1][] : partitionFacts(buffers, bufferStarts, rangeStarts);
+    // Count the facts about each subject at offsets[subject+1]
+    inParallel(0, numRanges, 1, new EntityRange() {
+
+      public void run(int from, int to) {
+        for (int range = from; range < to; range++) {
+          if (rangeFacts[range] == null) {
+            for (IntArrayList buffer : buffers) {
+              for (int i = 0; i < buffer.size(); i += 3) {
+                count(buffer, i, false);
+                count(buffer, i, true);
+              }
+            }
+            continue;
+          }
+          // The facts of a range are in the order of the buffers
+          int b = 0;
+          for (int entry : rangeFacts[range]) {
+            int fact = entry < 0 ? ~entry : entry;
+            while (fact >= bufferStarts[b + 1])
+              b++;
+            count(buffers[b], 3 * (fact - bufferStarts[b]), entry < 0);
+          }
+        }
+      }
+
+      /** Counts the fact at i in the buffer, or its inverse */
+      protected void count(IntArrayList buffer, int i, boolean inverse) {
+        if (!inverse) offsets[buffer.get(i) + 1]++;
+        else if (!isInverse(buffer.get(i + 1))) offsets[buffer.get(i + 2) + 1]++;
+      }
+    });
+    long numFacts = 0;
+    for (int subject = 0; subject < numEntities; subject++) {
+      numFacts += offsets[subject + 1];
+      checkNumFacts(numFacts);
+      offsets[subject + 1] = (int) numFacts;
+    }
+    final int[] predicates = new int[(int) numFacts];
+    final int[] objects = new int[(int) numFacts];
+    final int[] kept = setting.removeDuplicateFacts ? new int[numEntities] : null;
+    inParallel(0, numRanges, 1, new EntityRange() {
+
+      public void run(int rangeFrom, int rangeTo) {
+        for (int range = rangeFrom; range < rangeTo; range++)
+          fill(range, rangeStarts[range], rangeStarts[range + 1]);
+      }
+
+      /** Moves the facts of the range to their subjects, and sorts the facts about each subject */
+      protected void fill(int range, int from, int to) {
+        int[] next = Arrays.copyOfRange(offsets, from, to);
+        long[] sortBuffer = new long[16];
+        if (rangeFacts[range] == null) {
+          for (IntArrayList buffer : buffers) {
+            for (int i = 0; i < buffer.size(); i += 3) {
+              move(buffer, i, false, from, next);
+              move(buffer, i, true, from, next);
+            }
+          }
+        } else {
+          int b = 0;
+          for (int entry : rangeFacts[range]) {
+            int fact = entry < 0 ? ~entry : entry;
+            while (fact >= bufferStarts[b + 1])
+              b++;
+            move(buffers[b], 3 * (fact - bufferStarts[b]), entry < 0, from, next);
+          }
+          rangeFacts[range] = null;
+        }
+        for (int subject = from; subject < to; subject++) {
+          if (offsets[subject + 1] - offsets[subject] > sortBuffer.length) sortBuffer = new long[offsets[subject + 1] - offsets[subject]];
+          sort(predicates, objects, offsets[subject], offsets[subject + 1], sortBuffer);
+          if (kept != null) kept[subject] = removeDuplicates(predicates, objects, offsets[subject], offsets[subject + 1]);
+        }
+      }
+
+      /** Moves the fact at i in the buffer, or its inverse, to the next position of its subject */
+      protected void move(IntArrayList buffer, int i, boolean inverse, int from, int[] next) {
+        int subject = buffer.get(i);
+        int predicate = buffer.get(i + 1);
+        int object = buffer.get(i + 2);
+        if (!inverse) {
+          int pos = next[subject - from]++;
+          predicates[pos] = predicate;
+          objects[pos] = object;
+        } else if (!isInverse(predicate)) {
+          int pos = next[object - from]++;
+          predicates[pos] = inverse(predicate);
+          objects[pos] = subject;
+        }
+      }
+    });
+    loadBuffers.clear();
+    loadBuffer.remove();
+    factOffsets = offsets;
+    factPredicates = predicates;
+    factObjects = objects;
+    if (kept != null) {
+      long removed = compact(kept);
+      Announce.message("Removed", removed, "duplicate facts, counting inverse facts");
     }
-    if (!isInverse(predicate)) add(object, inverse(predicate), subject);
+    Announce.done();
+  }
+
+  /**
+   * Returns the facts of the load buffers that go to each range of subjects of
+   * mergeLoadBuffers(): the number of each fact among the facts of all
+   * buffers, and the complement of that number for the inverse fact, which
+   * goes to the range of the object. The facts are cut into parts, and every
+   * part is read once in parallel, so that no range reads the facts of other
+   * ranges
+   */
+  protected int[][] partitionFacts(final IntArrayList[] buffers, final int[] bufferStarts, final int[] rangeStarts) {
+    final int numRanges = rangeStarts.length - 1;
+    int numBufferFacts = bufferStarts[buffers.length];
+    final int numParts = Math.max(1, Math.min(setting.loadThreads, numBufferFacts / MIN_RANGE));
+    final int[] partStarts = new int[numParts + 1];
+    for (int part = 0; part <= numParts; part++)
+      partStarts[part] = (int) ((long) numBufferFacts * part / numParts);
+    // Count the facts of each part that go to each range
+    final int[][] counts = new int[numParts][numRanges];
+    inParallel(0, numParts, 1, new EntityRange() {
+
+      public void run(int from, int to) {
+        for (int part = from; part < to; part++) {
+          int b = 0;
+          for (int fact = partStarts[part]; fact < partStarts[part + 1]; fact++) {
+            while (fact >= bufferStarts[b + 1])
+              b++;
+            int i = 3 * (fact - bufferStarts[b]);
+            counts[part][rangeOf(buffers[b].get(i), rangeStarts)]++;
+            if (!isInverse(buffers[b].get(i + 1))) counts[part][rangeOf(buffers[b].get(i + 2), rangeStarts)]++;
+          }
+        }
+      }
+    });
+    // Every part writes the facts of a range from counts[part][range] on
+    final int[][] result = new int[numRanges][];
+    long numFacts = 0;
+    for (int range = 0; range < numRanges; range++) {
+      long size = 0;
+      for (int part = 0; part < numParts; part++) {
+        int n = counts[part][range];
+        counts[part][range] = (int) size;
+        size += n;
+      }
+      numFacts += size;
+      checkNumFacts(numFacts);
+      result[range] = new int[(int) size];
+    }
+    inParallel(0, numParts, 1, new EntityRange() {
+
+      public void run(int from, int to) {
+        for (int part = from; part < to; part++) {
+          int[] next = counts[part];
+          int b = 0;
+          for (int fact = partStarts[part]; fact < partStarts[part + 1]; fact++) {
+            while (fact >= bufferStarts[b + 1])
+              b++;
+            int i = 3 * (fact - bufferStarts[b]);
+            int range = rangeOf(buffers[b].get(i), rangeStarts);
+            result[range][next[range]++] = fact;
+            if (isInverse(buffers[b].get(i + 1))) continue;
+            range = rangeOf(buffers[b].get(i + 2), rangeStarts);
+            result[range][next[range]++] = ~fact;
+          }
+        }
+      }
+    });
+    return (result);
+  }
+
+  /** Throws an exception if the number of facts exceeds MAX_FACTS */
+  protected void checkNumFacts(long numFacts) {
+    if (numFacts > MAX_FACTS) throw new IllegalStateException("More than " + MAX_FACTS + " facts in " + uri + ", counting inverse facts");
+  }
+
+  /** Returns the range of the entity, given the first entity of each range */
+  protected static int rangeOf(int entity, int[] rangeStarts) {
+    int numRanges = rangeStarts.length - 1;
+    int range = (int) ((long) entity * numRanges / rangeStarts[numRanges]);
+    while (entity < rangeStarts[range])
+      range--;
+    while (entity >= rangeStarts[range + 1])
+      range++;
+    return (range);
+  }
+
+  /**
+   * Gives the entities new ids in the order of a breadth-first search over the
+   * facts, so that the entities of neighboring facts are close to each other in
+   * the arrays that are indexed by entity ids. Entity 0 keeps its id.
+   */
+  protected void renumberEntities() {
+    Announce.doing("Renumbering entities");
+    final int numEntities = numEntities();
+    // order[n] is the old id of the entity with the new id n. The entities
+    // found so far serve as the queue
+    final int[] order = new int[numEntities];
+    final int[] newIds = new int[numEntities];
+    Arrays.fill(newIds, -1);
+    int found = 0;
+    for (int seed = 0; seed < numEntities; seed++) {
+      if (newIds[seed] != -1) continue;
+      newIds[seed] = found;
+      order[found++] = seed;
+      for (int next = found - 1; next < found; next++) {
+        int entity = order[next];
+        for (int i = factOffsets[entity]; i < factOffsets[entity + 1]; i++) {
+          int object = factObjects[i];
+          if (newIds[object] != -1) continue;
+          newIds[object] = found;
+          order[found++] = object;
+        }
+      }
+    }
+    final int[] offsets = new int[numEntities + 1];
+    for (int n = 0; n < numEntities; n++)
+      offsets[n + 1] = offsets[n] + degree(order[n]);
+    final int[] predicates = new int[factPredicates.length];
+    final int[] objects = new int[factObjects.length];
+    inParallel(0, numEntities, new EntityRange() {
+
+      public void run(int from, int to) {
+        long[] sortBuffer = new long[16];
+        for (int n = from; n < to; n++) {
+          int start = factOffsets[order[n]];
+          int degree = offsets[n + 1] - offsets[n];
+          for (int i = 0; i < degree; i++) {
+            predicates[offsets[n] + i] = factPredicates[start + i];
+            objects[offsets[n] + i] = newIds[factObjects[start + i]];
+          }
+          if (degree > sortBuffer.length) sortBuffer = new long[degree];
+          sort(predicates, objects, offsets[n], offsets[n + 1], sortBuffer);
+        }
+      }
+    });
+    factOffsets = offsets;
+    factPredicates = predicates;
+    factObjects = objects;
+    NameDictionary names = newEntityDictionary();
+    names.ensureCapacity(numEntities);
+    for (int n = 0; n < numEntities; n++)
+      names.add(entities.name(order[n]));
+    entities = names;
+    Announce.done();
+  }
+
+  /** Sorts the facts at the positions from to to-1 by predicate and then by object, using the buffer */
+  protected static void sort(int[] predicates, int[] objects, int from, int to, long[] buffer) {
+    if (to - from < 2) return;
+    for (int i = from; i < to; i++)
+      buffer[i - from] = ((long) predicates[i] << 32) | (objects[i] & 0xFFFFFFFFL);
+    Arrays.sort(buffer, 0, to - from);
+    for (int i = from; i < to; i++) {
+      predicates[i] = (int) (buffer[i - from] >>> 32);
+      objects[i] = (int) buffer[i - from];
+    }
+  }
+
+  /**
+   * Removes repeated facts from the sorted facts at the positions from to
+   * to-1, so that the remaining ones are at the start. Returns their number
+   */
+  protected static int removeDuplicates(int[] predicates, int[] objects, int from, int to) {
+    if (to - from < 2) return (to - from);
+    int kept = from + 1;
+    for (int i = from + 1; i < to; i++) {
+      if (predicates[i] == predicates[kept - 1] && objects[i] == objects[kept - 1]) continue;
+      predicates[kept] = predicates[i];
+      objects[kept] = objects[i];
+      kept++;
+    }
+    return (kept - from);
+  }
+
+  /** Keeps only the given number of first facts about each subject, returns the number of removed facts */
+  protected long compact(int[] kept) {
+    int numEntities = kept.length;
+    int end = 0;
+    for (int subject = 0; subject < numEntities; subject++) {
+      int start = factOffsets[subject];
+      factOffsets[subject] = end;
+      if (start != end) {
+        System.arraycopy(factPredicates, start, factPredicates, end, kept[subject]);
+        System.arraycopy(factObjects, start, factObjects, end, kept[subject]);
+      }
+      end += kept[subject];
+    }
+    long removed = factOffsets[numEntities] - end;
+    factOffsets[numEntities] = end;
+    if (removed > 0) {
+      factPredicates = Arrays.copyOf(factPredicates, end);
+      factObjects = Arrays.copyOf(factObjects, end);
+    }
+    return (removed);
+  }
+
+  /** Returns the number of facts about the subject */
+  public int degree(int subject) {
+    return (factOffsets[subject + 1] - factOffsets[subject]);
+  }
+
+  /** Returns the predicate of the i-th fact about the subject */
+  public int predicateAt(int subject, int i) {
+    return (factPredicates[factOffsets[subject] + i]);
+  }
+
+  /** Returns the object of the i-th fact about the subject */
+  public int objectAt(int subject, int i) {
+    return (factObjects[factOffsets[subject] + i]);
+  }
+
+  /** Returns the position of the first fact about the subject with a predicate that is not smaller than the given one */
+  protected int lowerBound(int subject, int predicate) {
+    int low = factOffsets[subject];
+    int high = factOffsets[subject + 1];
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (factPredicates[middle] < predicate) low = middle + 1;
+      else high = middle;
+    }
+    return (low);
+  }
+
+  /** Returns the index of the first fact about the subject with the predicate, for predicateAt() and objectAt() */
+  public int firstFact(int subject, int predicate) {
+    return (lowerBound(subject, predicate) - factOffsets[subject]);
+  }
+
+  /** Returns the index after the last fact about the subject with the predicate, for predicateAt() and objectAt() */
+  public int endFact(int subject, int predicate) {
+    return (lowerBound(subject, predicate + 1) - factOffsets[subject]);
+  }
+
+  /** Returns the number of facts about the subject with the predicate */
+  public int degree(int subject, int predicate) {
+    return (lowerBound(subject, predicate + 1) - lowerBound(subject, predicate));
+  }
+
+  /** Returns the number of facts, counting inverse facts */
+  public int numFacts() {
+    return (factOffsets[factOffsets.length - 1]);
   }
 
   /** Returns number of entities */
@@ -198,31 +681,23 @@ public class FactStore {
 
   /** Check if entity is a class */
   public boolean isClass(int e) {
-    if (this.finalized) {
+    if (isClass != null) {
       // cache is ready
       return isClass[e];
     }
     if (isLiteral(e)) return false;
-    ArrayList<PredicateAndObject> myFacts = facts.get(e);
-    if (myFacts == null) return (false);
     int type = relation("rdf:type");
     int subClass = relation("rdfs:subclassOf");
-    for (int i = 0; i < myFacts.size(); i++) {
-      PredicateAndObject po = myFacts.get(i);
-      if (po.predicate == inverse(type)) return true;
-      if (po.predicate == subClass || po.predicate == inverse(subClass))
-      	return true;
-    }
-    return false;
+    return degree(e, inverse(type)) > 0 || degree(e, subClass) > 0 || degree(e, inverse(subClass)) > 0;
   }
 
   /** Check if an entity is a literal */
   public boolean isLiteral(int e) {
-    if (this.finalized) {
+    if (isLiteral != null) {
       // cache is ready
       return isLiteral[e];
     }
-    return isLiteral(entities.get(e));
+    return isLiteral(entity(e));
   }
 
   /** Check if an entity is a literal */
@@ -232,69 +707,114 @@ public class FactStore {
 
   /** Populate caches */
   protected void populateCaches() {
-  	isClass = new boolean[numEntities()];
-  	isLiteral = new boolean[numEntities()];
-    for (int i = 0; i < numEntities(); i++) {
-      isClass[i] = isClass(i);
-    }
-    for (int i = 0; i < numEntities(); i++) {
-      isLiteral[i] = isLiteral(i);
-    }
-    // System.out.println(numEntities());
+    final boolean[] classes = new boolean[numEntities()];
+    final boolean[] literals = new boolean[numEntities()];
+    inParallel(0, numEntities(), new EntityRange() {
+
+      public void run(int from, int to) {
+        for (int i = from; i < to; i++) {
+          classes[i] = isClass(i);
+          literals[i] = isLiteral(i);
+        }
+      }
+    });
+    // The caches are used as soon as they are set
+    isClass = classes;
+    isLiteral = literals;
   }
 
   /** Computes the functionalities */
   protected void computeFunctionalities() {
-    int[] numOccurrences = new int[numRelations()];
-    functionalities = new double[numRelations()];
-    int[] numSubjectsPerRelation = new int[numRelations()];
-    Announce.progressStart("Computing functionalities in " + uri, numEntities());
-    int[] lastSubject = new int[numRelations()];
-    for (int subject = 0; subject < facts.size(); subject++) {
-      Announce.progressStep();
-      ArrayList<PredicateAndObject> myFacts = facts.get(subject);
-      if (myFacts == null) continue;
-      for (int fact = 0; fact < myFacts.size(); fact++) {
-        PredicateAndObject po = myFacts.get(fact);
-        numOccurrences[po.predicate]++;
-        if (lastSubject[po.predicate] != subject) {
-        	lastSubject[po.predicate] = subject;
-        	numSubjectsPerRelation[po.predicate]++;
+    final int numRelations = numRelations();
+    final List<int[]> partialCounts = new ArrayList<int[]>();
+    Announce.doing("Computing functionalities in " + uri);
+    // Every thread counts the facts and subjects of each relation in its range of subjects
+    inParallel(0, numEntities(), new EntityRange() {
+
+      public void run(int from, int to) {
+        int[] numOccurrences = new int[numRelations];
+        int[] numSubjectsPerRelation = new int[numRelations];
+        int[] lastSubject = new int[numRelations];
+        for (int subject = from; subject < to; subject++) {
+          for (int fact = factOffsets[subject]; fact < factOffsets[subject + 1]; fact++) {
+            int predicate = factPredicates[fact];
+            numOccurrences[predicate]++;
+            if (lastSubject[predicate] != subject) {
+            	lastSubject[predicate] = subject;
+            	numSubjectsPerRelation[predicate]++;
+            }
+          }
+        }
+        synchronized (partialCounts) {
+          partialCounts.add(numOccurrences);
+          partialCounts.add(numSubjectsPerRelation);
         }
       }
+    });
+    int[] numOccurrences = new int[numRelations];
+    int[] numSubjectsPerRelation = new int[numRelations];
+    for (int i = 0; i < partialCounts.size(); i += 2) {
+      for (int relation = 0; relation < numRelations; relation++) {
+        numOccurrences[relation] += partialCounts.get(i)[relation];
+        numSubjectsPerRelation[relation] += partialCounts.get(i + 1)[relation];
+      }
     }
-    Announce.progressDone();
+    Announce.done();
     Announce.doing("Functionalities");
-    for (int relation = 0; relation < numRelations(); relation++) {
+    functionalities = new double[numRelations];
+    for (int relation = 0; relation < numRelations; relation++) {
       functionalities[relation] = ((double) numSubjectsPerRelation[relation]) / numOccurrences[relation];
-      Announce.message("functionality:", relations.get(relation), functionalities[relation]);
+      Announce.message("functionality:", relation(relation), functionalities[relation]);
     }
     Announce.message("Number of literals:", numLiterals());
     Announce.done();
   }
 
-  /** Returns the instances of a class */
+  /** Returns the index of the rdf:type facts, which allocates nothing on lookups */
+  public TypeIndex typeIndex() {
+    return (types);
+  }
+
+  /**
+   * Returns, for each entity, the literal of the other fact store with the same
+   * name, or 0 if the entity is not a literal or the other fact store does not
+   * have it. Looks up the literals in parallel
+   */
+  public int[] sameLiterals(final FactStore other) {
+    final int[] result = new int[numEntities()];
+    inParallel(0, numEntities(), new EntityRange() {
+
+      public void run(int from, int to) {
+        for (int e = from; e < to; e++)
+          if (isLiteral(e)) result[e] = Math.max(0, other.entities.indexOf(entity(e)));
+      }
+    });
+    return (result);
+  }
+
+  /** Returns the values of the literals. Call only after prepare() */
+  public LiteralValues literalValues() {
+    return (literalValues);
+  }
+
+  /** Returns the numbers and dates among the literals, NULL if the setting does not match them */
+  public NumberAndDateIndex numbersAndDates() {
+    return (numbersAndDates);
+  }
+
+  /** Returns the instances of a class as a new set, prefer typeIndex() */
   public IntSet instancesOf(int clss) {
     IntSet result = new IntOpenHashSet();
-    ArrayList<PredicateAndObject> myFacts = facts.get(clss);
-    if (myFacts == null) return (result);
-    int type = inverse(TYPE);
-    for (int i = 0; i < myFacts.size(); i++) {
-      PredicateAndObject po = myFacts.get(i);
-      if (po.predicate == type) result.add(po.object);
-    }
+    for (int i = 0; i < types.numInstances(clss); i++)
+      result.add(types.instanceAt(clss, i));
     return (result);
   }
 
-  /** Returns the classes of an instance */
+  /** Returns the classes of an instance as a new set, prefer typeIndex() */
   public IntSet classesOf(int instance) {
     IntSet result = new IntOpenHashSet();
-    ArrayList<PredicateAndObject> myFacts = facts.get(instance);
-    if (myFacts == null) return (result);
-    for (int i = 0; i < myFacts.size(); i++) {
-      PredicateAndObject po = myFacts.get(i);
-      if (po.predicate == TYPE) result.add(po.object);
-    }
+    for (int i = 0; i < types.numTypes(instance); i++)
+      result.add(types.typeAt(instance, i));
     return (result);
   }
 
@@ -311,25 +831,17 @@ public class FactStore {
   /** returns the classes and superclasses of an entity */
   public IntSet classesAndSuperClassesOf(int instance) {
     IntSet result = new IntOpenHashSet();
-    IntIterator it=classesOf(instance).iterator();
-    while(it.hasNext()) {
-      addSuperClassesOf(it.next(), result);
+    for (int i = 0; i < types.numTypes(instance); i++) {
+      int c = types.typeAt(instance, i);
+      for (int j = 0; j < types.numAncestors(c); j++)
+        result.add(types.ancestorAt(c, j));
     }
     return (result);
   }
 
-  /** Adds the superclasses of a class*/
-  protected void addSuperClassesOf(int c, IntSet result) {
-    if(result.contains(c)) return;
-    result.add(c);
-    ArrayList<PredicateAndObject> myFacts = facts.get(c);
-    if (myFacts == null) return;
-    for (int i = 0; i < myFacts.size(); i++) {
-      PredicateAndObject po = myFacts.get(i);
-      if (po.predicate == SUBCLASSOF && !result.contains(po.object)) {
-        addSuperClassesOf(po.object, result);
-      }
-    }
+  /** TRUE if the class is the superclass or one of its direct or indirect subclasses */
+  public boolean isSubclassOf(int clss, int superclass) {
+    return (types.isSubclassOf(clss, superclass));
   }
 
   /** returns the instances of an entity */
@@ -339,22 +851,22 @@ public class FactStore {
 
   /** Returns the relation id of a relation name */
   public int relation(String relation) {
-    return relationNames.get(relation);
+    return Math.max(0, relations.indexOf(relation));
   }
 
   /** Returns the entity id of an entity name */
   public int entity(String entity) {
-    return entityNames.get(entity);
+    return Math.max(0, entities.indexOf(entity));
   }
 
   /** Returns the relation of a relation id */
   public String relation(int relation) {
-    return relations.get(relation);
+    return relations.name(relation);
   }
 
   /** Returns the entity an entity id */
   public String entity(int entity) {
-    return entities.get(entity);
+    return entities.name(entity);
   }
 
   /** Trims everything to size, computes functionalities */
@@ -362,32 +874,23 @@ public class FactStore {
     Announce.doing("Preparing", uri);
     TYPE = relation("rdf:type");
     SUBCLASSOF = relation("rdfs:subClassOf");
+    loadEstimate = null;
+    mergeLoadBuffers();
+    if (setting.renumberEntities) renumberEntities();
     Announce.doing("Trimming to size");
     this.entities.trimToSize();
     this.relations.trimToSize();
-    this.entityNames.trimToSize();
-    this.relationNames.trimToSize();
-    assert (numEntities() == facts.size());
-    Announce.message("done loading", entities.size(), "entities");
+    assert (numEntities() + 1 == factOffsets.length);
+    Announce.message("done loading", entities.size(), "entities and", numFacts(), "facts");
     populateCaches();
-    for (int i = 0; i < facts.size(); i++) {
-      if (facts.get(i) != null) facts.get(i).trimToSize();
-    }
+    types = new TypeIndex(this);
+    Announce.message(types.numClasses(), "classes");
+    literalValues = new LiteralValues(this);
+    if (setting.matchNumbersAndDates) numbersAndDates = new NumberAndDateIndex(this);
     Announce.done();
     computeFunctionalities();
     Announce.done();
-    if (setting.literalDistance == Setting.LiteralDistance.SHINGLING || setting.literalDistance == Setting.LiteralDistance.SHINGLINGLEVENSHTEIN) {
-      Announce.doing("indexing literals...");
-      this.literalIndex = new ShinglingTable(setting.shinglingSize, setting.shinglingFunctions, setting.shinglingTableSize);
-      Set<String> indexed = new HashSet<String>();
-      for (int i = 0; i < numEntities(); i++) {
-        if (!isLiteral(i)) continue;
-        if (indexed.contains(entity(i))) continue;
-        indexed.add(entity(i));
-        this.literalIndex.index(entity(i));
-      }
-      Announce.done();
-    }
+    if (needsLiteralIndex()) indexLiterals();
     if (setting.debugEntity != null) {
     	for (int i = 0 ; i < numEntities(); i++) {
     		if (entity(i).contains(setting.debugEntity)) {
@@ -399,6 +902,39 @@ public class FactStore {
     this.finalized = true;
   }
 
+  /** TRUE if the setting needs the approximate string index */
+  public boolean needsLiteralIndex() {
+    return (setting.literalDistance == Setting.LiteralDistance.SHINGLING || setting.literalDistance == Setting.LiteralDistance.SHINGLINGLEVENSHTEIN);
+  }
+
+  /** Number of entities whose literals are indexed in one parallel step */
+  protected static final int LITERAL_CHUNK = 64 * 1024;
+
+  /** Builds the approximate string index */
+  protected void indexLiterals() {
+    Announce.doing("indexing literals...");
+    this.literalIndex = new ShinglingTable(setting.shinglingSize, setting.shinglingFunctions, setting.shinglingTableSize);
+    // The names are distinct, so that every literal is indexed once. The threads
+    // compute the signatures of a chunk of entities, which are then added in order
+    final int[][] signatures = new int[LITERAL_CHUNK][];
+    for (int start = 0; start < numEntities(); start += LITERAL_CHUNK) {
+      final int chunk = start;
+      int end = Math.min(numEntities(), start + LITERAL_CHUNK);
+      inParallel(start, end, new EntityRange() {
+
+        public void run(int from, int to) {
+          for (int i = from; i < to; i++)
+            signatures[i - chunk] = isLiteral(i) ? literalIndex.signature(entity(i)) : null;
+        }
+      });
+      for (int i = start; i < end; i++) {
+        if (signatures[i - start] != null) this.literalIndex.index(entity(i), signatures[i - start]);
+        signatures[i - start] = null;
+      }
+    }
+    Announce.done();
+  }
+
   /** returns the inverse of a relation */
   public static String inverse(String relation) {
     if (relation.endsWith("-")) return (relation.substring(0, relation.length() - 1));
@@ -418,50 +954,46 @@ public class FactStore {
 
   /** add a relation */
   public synchronized int addRelation(String relation) {
-    int id = relationNames.size();
-    relationNames.put(relation, id);
-    relations.add(relation);
-    relationNames.put(inverse(relation), inverse(id));
+    int id = relations.add(relation);
     relations.add(inverse(relation));
     return (id);
   }
 
   /** returns a relation id (or adds it) */
-  public synchronized int getOrAddRelation(String relation) {
-    // Don't use lget() here, it's not thread-safe
-    if (finalized || relationNames.containsKey(relation)) return (relationNames.get(relation));
-    // synchronized (relationNames) {
-    return addRelation(relation);
-    // }
+  public int getOrAddRelation(CharSequence relation) {
+    int id = relations.indexOf(relation);
+    if (id != -1 || finalized) return (Math.max(0, id));
+    // Relations are added one by one, so that every relation is followed by its inverse
+    synchronized (this) {
+      id = relations.indexOf(relation);
+      if (id != -1) return (id);
+      return addRelation(relation.toString());
+    }
   }
 
   /** add an entity */
-  public synchronized int addEntity(String entity) {
-    int id = entityNames.size();
-    entityNames.put(entity, id);
-    entities.add(entity);
-    return (id);
+  public int addEntity(String entity) {
+    return (entities.add(entity));
   }
 
   /** returns an entity id (or adds it) */
-  public synchronized int getOrAddEntity(String entity) {
-    // Don't use lget() here, it's not thread-safe
-    if (entityNames.containsKey(entity))
-    	return (entityNames.get(entity));
-    // synchronized (entityNames) {
-    assert(!finalized);
-    return addEntity(entity);
-    // }
+  public int getOrAddEntity(CharSequence entity) {
+    assert (!finalized || entities.indexOf(entity) != -1);
+    return (entities.getOrAdd(entity));
   }
 
-  /** returns facts about the subject */
+  /** returns facts about the subject, NULL if there are none. Creates the list, prefer degree(), predicateAt() and objectAt() */
   public List<PredicateAndObject> factsAbout(int subject) {
-    return (facts.get(subject));
+    if (degree(subject) == 0) return (null);
+    List<PredicateAndObject> result = new ArrayList<PredicateAndObject>(degree(subject));
+    for (int i = 0; i < degree(subject); i++)
+      result.add(new PredicateAndObject(predicateAt(subject, i), objectAt(subject, i)));
+    return (result);
   }
 
   /** returns facts about the subject */
   public List<PredicateAndObject> factsAbout(String subject) {
-    return (facts.get(getOrAddEntity(subject)));
+    return (factsAbout(getOrAddEntity(subject)));
   }
 
   /** Pattern for prefix*/
@@ -475,19 +1007,77 @@ public class FactStore {
     return (prefix + uri);
   }
 
+  /** Adds the standard prefix if necessary. Returns the uri itself if nothing changes, else the buffer */
+  public CharSequence addPrefix(CharSequence uri, StringBuilder buffer) {
+    if (uri.length() > 0 && uri.charAt(0) == '"') return (uri);
+    buffer.setLength(0);
+    if (Parser.regionMatches(uri, 0, uri.length(), this.uri)) {
+      if (prefix.isEmpty() && this.uri.isEmpty()) return (uri);
+      return (buffer.append(prefix).append(uri, this.uri.length(), uri.length()));
+    }
+    if (hasPrefix(uri)) return (uri);
+    return (buffer.append(prefix).append(uri));
+  }
+
+  /** TRUE if the uri matches prefixPattern */
+  protected static boolean hasPrefix(CharSequence uri) {
+    int colon = 0;
+    while (colon < uri.length() && colon <= 5) {
+      char c = uri.charAt(colon);
+      if (c == ':') break;
+      if ((c < 'a' || c > 'z') && (c < '0' || c > '9')) return (false);
+      colon++;
+    }
+    if (colon == 0 || colon > 5 || colon == uri.length()) return (false);
+    for (int i = colon + 1; i < uri.length(); i++)
+      if (Parser.isLineTerminator(uri.charAt(i))) return (false);
+    return (true);
+  }
+
+  /** Buffers for formatting terms (two) and predicates (one) in each loading thread */
+  protected static final ThreadLocal<StringBuilder[]> buffers = new ThreadLocal<StringBuilder[]>() {
+
+    @Override
+    protected StringBuilder[] initialValue() {
+      StringBuilder[] result = new StringBuilder[3];
+      for (int i = 0; i < result.length; i++)
+        result[i] = new StringBuilder();
+      return (result);
+    }
+  };
+
+  /** Returns the id of a subject or object as triple() encodes it, adds it if necessary */
+  public int getOrAddTerm(CharSequence term) {
+    return (getOrAddTerm(term, FactStore.buffers.get()));
+  }
+
+  /** Returns the id of a subject or object, formats it in the first two buffers */
+  protected int getOrAddTerm(CharSequence term, StringBuilder[] buffers) {
+    return (getOrAddEntity(addPrefix(LiteralFormatter.format(term, buffers[0], formatters), buffers[1])));
+  }
+
+  /** Returns the id of a predicate as triple() encodes it, adds it if necessary */
+  public int getOrAddPredicate(CharSequence predicate) {
+    return (getOrAddRelation(addPrefix(predicate, FactStore.buffers.get()[2])));
+  }
+
   /** Adds a fact. removes data types. Adds quotes for numbers */
   public void add(String subject, String predicate, String object) {
-    object = addPrefix(LiteralFormatter.format(object, formatters));
-    // For old YAGO files that can have a literal as the subject
-    subject = addPrefix(LiteralFormatter.format(subject, formatters));
-    predicate = addPrefix(predicate);
+    triple(subject, predicate, object);
+  }
+
+  /** Adds a fact. removes data types. Adds quotes for numbers. Creates Strings only for new names */
+  @Override
+  public void triple(CharSequence subject, CharSequence predicate, CharSequence object) {
+    StringBuilder[] buffers = FactStore.buffers.get();
+    predicate = addPrefix(predicate, buffers[2]);
+    if (filter != null && !filter.accepts(subject, predicate)) return;
     int predicateId = getOrAddRelation(predicate);
     assert (!isInverse(predicateId));
-    int objectId = getOrAddEntity(object);
-    int subjectId = getOrAddEntity(subject);
+    int objectId = getOrAddTerm(object, buffers);
+    // For old YAGO files that can have a literal as the subject
+    int subjectId = getOrAddTerm(subject, buffers);
     add(subjectId, predicateId, objectId);
-    assert (facts.size() >= subjectId);
-    assert (facts.size() >= objectId);
     assert (subjectId <= numEntities());
     assert (objectId <= numEntities());
   }
@@ -505,17 +1095,31 @@ public class FactStore {
         Announce.warning("First load files, then call prepare()!");
         System.exit(2);
       }
-      for (String[] fact : Parser.forFile(f)) {
-      	try {
-//      		Announce.message(fact);
-      		add(fact[0], fact[1], fact[2]);
-      	} catch (ArrayIndexOutOfBoundsException e) {
-      		Announce.message("bad fact:");
-      		for (int i = 0; i < fact.length; i++)
-      			Announce.message(fact[i]);
-      		System.exit(2);
-      	}
+      long expectedFacts = loadEstimate == null ? 0 : loadEstimate.facts(f);
+      if (HdtReader.accepts(f)) {
+        new HdtReader(f, setting.loadThreads).load(this);
+        return;
+      }
+      if (JdbcTripleReader.accepts(f)) {
+        new JdbcTripleReader(f, setting.loadThreads).load(this);
+        return;
       }
+      // Files with directives go to the TurtleParser
+      if (setting.mappedFileLoad && MappedNTriplesReader.accepts(f) && new MappedNTriplesReader(f, setting.loadThreads).load(this, expectedFacts)) return;
+      Parser parser = Parser.forFile(f, setting.loadThreads);
+      if (parser == null) {
+        Announce.warning("Unsupported file type:", f);
+        return;
+      }
+      parser.usePrefixes(prefixes);
+      if (setting.graphs != null && parser instanceof StreamingTurtleParser) ((StreamingTurtleParser) parser).keepGraphs(setting.graphs);
+      if (setting.pipelinedParsing && setting.loadThreads > 1 && parser instanceof Parser.LineParser) {
+        new ParserPipeline((Parser.LineParser) parser, setting.loadThreads).load(this, expectedFacts);
+        return;
+      }
+      // The parser adds all facts of the file from this thread
+      reserveFacts(expectedFacts);
+      parser.parse(this);
     }
   }
 
@@ -538,6 +1142,7 @@ public class FactStore {
     long time = System.currentTimeMillis();
     long memory = Runtime.getRuntime().freeMemory();
     Announce.doing("Loading files");
+    if (setting.prescanFiles && loadEstimate == null) prescan(files);
     final int[] running = new int[1];
     if (setting.parallelFileLoad) {
 	    for (final File file : files) {
@@ -579,6 +1184,18 @@ public class FactStore {
         + ((Runtime.getRuntime().freeMemory() - memory) / 1000000) + " MB");
   }
 
+  /** Estimates the size of the files and makes room for their names in the dictionary */
+  protected void prescan(List<File> files) throws IOException {
+    Announce.doing("Scanning files");
+    loadEstimate = LoadEstimate.scan(files, setting.loadThreads);
+    Announce.message("Found", loadEstimate);
+    long expectedNames = loadEstimate.names();
+    // Sampled subjects take their objects with them, so that names shrink with the sample
+    if (filter != null) expectedNames = (long) (expectedNames * Math.min(1, setting.subjectSample));
+    entities.ensureCapacity((int) Math.min(Integer.MAX_VALUE / 2, numEntities() + expectedNames));
+    Announce.done();
+  }
+
   /** Return a number larger than the largest join relation code allocated */
   public int maxJoinRelationCode() {
     return (int) Math.pow(maxRelationId() * 2, joinLengthLimit);
@@ -0,0 +1,487 @@
+package paris.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import paris.Setting;
+import paris.shingling.ShinglingTable;
+
+import javatools.administrative.Announce;
+import javatools.filehandlers.FileSet;
+
+/**
+ * Saves a prepared fact store to a binary file, and loads it back by
+ * memory-mapping the file. This saves parsing the knowledge base and computing
+ * the functionalities when the same knowledge base is aligned many times.
+ *
+ * The file holds a header, the entity and relation names, the facts about each
+ * subject in compressed sparse row form (sorted by predicate), the
+ * functionalities, the class and literal caches, the type index, the literal
+ * values and, if present, the literal index. The names are stored with their
+ * positions and a hash table, so that the facts, the entity names, the caches,
+ * the type index and the literal values can also be used directly from the
+ * mapped file, as a MappedFactStore, instead of being read into memory.
+ */
+public class FactStoreSnapshot {
+
+  /** Extension of snapshot files */
+  public static final String EXTENSION = ".snapshot";
+
+  /** Marks snapshot files */
+  public static final byte[] MAGIC = "PARIS-FS".getBytes(StandardCharsets.US_ASCII);
+
+  /** Version of the file format, increase for every change */
+  public static final int VERSION = 6;
+
+  /** Size of the mapped window when reading */
+  protected static final int WINDOW = 256 * 1024 * 1024;
+
+  /** TRUE if the file is a snapshot */
+  public static boolean accepts(File f) {
+    return (f.isFile() && FileSet.extension(f).equalsIgnoreCase(EXTENSION));
+  }
+
+  /** Returns the snapshot file for a knowledge base in the folder */
+  public static File snapshotFor(File folder, File kb) {
+    return (new File(folder, kb.getName() + EXTENSION));
+  }
+
+  /** Identifies the state of the files of a knowledge base by their modification times and sizes */
+  public static long sourceStamp(File kb) {
+    if (!kb.isDirectory()) return (kb.lastModified() * 31 + kb.length());
+    long stamp = kb.lastModified();
+    File[] files = kb.listFiles();
+    Arrays.sort(files);
+    for (File f : files)
+      stamp = stamp * 31 + sourceStamp(f);
+    return (stamp);
+  }
+
+  /** Writes a prepared fact store to a file */
+  public static void save(FactStore fs, File file, long sourceStamp) throws IOException {
+    if (!fs.finalized) {
+      Announce.warning("Call prepare() before saving a fact store");
+      System.exit(2);
+    }
+    Announce.doing("Saving fact store to", file);
+    File tmp = new File(file.getPath() + ".tmp");
+    try (FileOutputStream fileOut = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 20))) {
+      out.write(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(sourceStamp);
+      writeName(out, fs.prefix);
+      writeName(out, fs.uri);
+      out.writeInt(fs.formatters.length);
+      for (LiteralFormatter formatter : fs.formatters)
+        writeName(out, formatter.name());
+      out.writeBoolean(fs.setting.removeDuplicateFacts);
+      writeName(out, loadFilter(fs.setting));
+      out.writeInt(fs.TYPE);
+      out.writeInt(fs.SUBCLASSOF);
+      writeNames(out, fs.entities);
+      writeNames(out, fs.relations);
+      // Facts
+      int numEntities = fs.numEntities();
+      out.writeInt(numEntities);
+      int offset = 0;
+      out.writeInt(offset);
+      for (int subject = 0; subject < numEntities; subject++) {
+        offset += fs.degree(subject);
+        out.writeInt(offset);
+      }
+      for (int subject = 0; subject < numEntities; subject++)
+        for (int i = 0; i < fs.degree(subject); i++)
+          out.writeInt(fs.predicateAt(subject, i));
+      for (int subject = 0; subject < numEntities; subject++)
+        for (int i = 0; i < fs.degree(subject); i++)
+          out.writeInt(fs.objectAt(subject, i));
+      // Caches
+      out.writeInt(fs.functionalities.length);
+      for (double functionality : fs.functionalities)
+        out.writeDouble(functionality);
+      writeBits(out, fs.isClass);
+      writeBits(out, fs.isLiteral);
+      TypeIndex types = fs.typeIndex();
+      writeInts(out, types.classes);
+      writeInts(out, types.classNumbers);
+      writeInts(out, types.instanceOffsets);
+      writeInts(out, types.instances);
+      writeInts(out, types.typeOffsets);
+      writeInts(out, types.types);
+      writeInts(out, types.superclassOffsets);
+      writeInts(out, types.superclasses);
+      writeInts(out, fs.literalValues().ends);
+      writeInts(out, fs.literalValues().hashes);
+      // Literal index
+      out.writeBoolean(fs.literalIndex != null);
+      if (fs.literalIndex != null) {
+        out.writeInt(fs.setting.shinglingSize);
+        out.writeInt(fs.setting.shinglingFunctions);
+        out.writeInt(fs.setting.shinglingTableSize);
+        out.flush();
+        ObjectOutputStream objects = new ObjectOutputStream(new BufferedOutputStream(fileOut, 1 << 20));
+        objects.writeObject(fs.literalIndex);
+        objects.flush();
+      }
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    Announce.done();
+  }
+
+  /** Writes a name as length and UTF-8 bytes */
+  protected static void writeName(DataOutputStream out, String name) throws IOException {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Writes the names of a dictionary: the number of names, the position of
+   * each name in the UTF-8 bytes of all names (as longs, with the end as last
+   * position), these bytes, and the hash table of the ids as in NameDictionary
+   */
+  protected static void writeNames(DataOutputStream out, NameDictionary names) throws IOException {
+    int size = names.size();
+    out.writeInt(size);
+    long offset = 0;
+    out.writeLong(offset);
+    for (int i = 0; i < size; i++) {
+      offset += names.name(i).getBytes(StandardCharsets.UTF_8).length;
+      out.writeLong(offset);
+    }
+    for (int i = 0; i < size; i++)
+      out.write(names.name(i).getBytes(StandardCharsets.UTF_8));
+    int[] table = NameDictionary.newTable(size);
+    for (int i = 0; i < size; i++)
+      NameDictionary.insert(table, names.name(i).hashCode(), i);
+    out.writeInt(table.length);
+    for (int id : table)
+      out.writeInt(id);
+  }
+
+  /** Writes an array of ints with its length */
+  protected static void writeInts(DataOutputStream out, int[] ints) throws IOException {
+    out.writeInt(ints.length);
+    for (int i : ints)
+      out.writeInt(i);
+  }
+
+  /** Writes a boolean array as bits */
+  protected static void writeBits(DataOutputStream out, boolean[] bits) throws IOException {
+    out.writeInt(bits.length);
+    for (int i = 0; i < bits.length; i += 8) {
+      int b = 0;
+      for (int j = 0; j < 8 && i + j < bits.length; j++)
+        if (bits[i + j]) b |= 1 << j;
+      out.writeByte(b);
+    }
+  }
+
+  /** Reads a file through a memory-mapped window that moves along */
+  protected static class MappedInput implements AutoCloseable {
+
+    protected final RandomAccessFile file;
+
+    protected final FileChannel channel;
+
+    /** File position of the window */
+    protected long windowStart;
+
+    protected MappedByteBuffer window;
+
+    /** Buffer for names */
+    protected byte[] bytes = new byte[1024];
+
+    public MappedInput(File f) throws IOException {
+      file = new RandomAccessFile(f, "r");
+      channel = file.getChannel();
+      map(0);
+    }
+
+    /** Maps the window at a file position */
+    protected void map(long position) throws IOException {
+      windowStart = position;
+      window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, channel.size() - position));
+    }
+
+    /** Makes sure that the window holds the next bytes */
+    protected void require(int n) throws IOException {
+      if (window.remaining() < n) map(position());
+      if (window.remaining() < n) throw new IOException("Unexpected end of snapshot");
+    }
+
+    /** Returns the current file position */
+    public long position() {
+      return (windowStart + window.position());
+    }
+
+    public byte get() throws IOException {
+      require(1);
+      return (window.get());
+    }
+
+    public int getInt() throws IOException {
+      require(4);
+      return (window.getInt());
+    }
+
+    public long getLong() throws IOException {
+      require(8);
+      return (window.getLong());
+    }
+
+    public double getDouble() throws IOException {
+      require(8);
+      return (window.getDouble());
+    }
+
+    /** Skips the given number of bytes */
+    public void skip(long n) throws IOException {
+      map(position() + n);
+    }
+
+    /** Maps the next bytes as a region that stays valid after closing, and skips them */
+    public MappedRegion region(long n) throws IOException {
+      MappedRegion result = new MappedRegion(channel, position(), n);
+      skip(n);
+      return (result);
+    }
+
+    /** Reads a name written by writeName */
+    public String getName() throws IOException {
+      return (getString(getInt()));
+    }
+
+    /** Reads a string of the given number of UTF-8 bytes */
+    public String getString(int length) throws IOException {
+      require(length);
+      if (bytes.length < length) bytes = new byte[Math.max(length, bytes.length * 2)];
+      window.get(bytes, 0, length);
+      return (new String(bytes, 0, length, StandardCharsets.UTF_8));
+    }
+
+    /** Reads an array of ints */
+    public int[] getInts(int n) throws IOException {
+      int[] result = new int[n];
+      int done = 0;
+      while (done < n) {
+        if (window.remaining() < 4) require(4);
+        int count = Math.min(n - done, window.remaining() / 4);
+        window.asIntBuffer().get(result, done, count);
+        window.position(window.position() + 4 * count);
+        done += count;
+      }
+      return (result);
+    }
+
+    /** Reads an array of ints written by writeInts */
+    public int[] getInts() throws IOException {
+      return (getInts(getInt()));
+    }
+
+    /** Maps an array of ints written by writeInts */
+    public MappedRegion intRegion() throws IOException {
+      return (region(4L * getInt()));
+    }
+
+    /** Maps bits written by writeBits */
+    public MappedRegion bitRegion() throws IOException {
+      return (region((getInt() + 7L) / 8));
+    }
+
+    /** Reads bits written by writeBits */
+    public boolean[] getBits() throws IOException {
+      boolean[] result = new boolean[getInt()];
+      for (int i = 0; i < result.length; i += 8) {
+        int b = get();
+        for (int j = 0; j < 8 && i + j < result.length; j++)
+          result[i + j] = (b & (1 << j)) != 0;
+      }
+      return (result);
+    }
+
+    /** Returns a stream of the rest of the file */
+    public InputStream rest() throws IOException {
+      return (Channels.newInputStream(channel.position(position())));
+    }
+
+    @Override
+    public void close() throws IOException {
+      file.close();
+    }
+  }
+
+  /** Reads the header of a snapshot. Returns NULL if it is not a snapshot of the current version */
+  protected static Header readHeader(MappedInput in) throws IOException {
+    for (int i = 0; i < MAGIC.length; i++)
+      if (in.get() != MAGIC[i]) return (null);
+    if (in.getInt() != VERSION) return (null);
+    Header header = new Header();
+    header.sourceStamp = in.getLong();
+    header.prefix = in.getName();
+    header.uri = in.getName();
+    header.formatters = new LiteralFormatter[in.getInt()];
+    for (int i = 0; i < header.formatters.length; i++)
+      header.formatters[i] = LiteralFormatter.valueOf(in.getName());
+    header.duplicatesRemoved = in.get() != 0;
+    header.filter = in.getName();
+    return (header);
+  }
+
+  /** What a snapshot was made from */
+  protected static class Header {
+
+    long sourceStamp;
+
+    String prefix;
+
+    String uri;
+
+    LiteralFormatter[] formatters;
+
+    boolean duplicatesRemoved;
+
+    /** Description of the triple filter and the graphs, as by loadFilter() */
+    String filter;
+  }
+
+  /** Describes which triples of the files the setting loads */
+  protected static String loadFilter(Setting setting) {
+    return (TripleFilter.forSetting(setting) + (setting.graphs == null ? "" : " graphs=" + setting.graphs));
+  }
+
+  /**
+   * Loads a snapshot, as a MappedFactStore if the setting asks for mapped
+   * snapshots. Exits if the file is not a snapshot of the current version
+   */
+  public static FactStore load(Setting setting, File file) throws IOException {
+    try (MappedInput in = new MappedInput(file)) {
+      Header header = readHeader(in);
+      if (header == null) {
+        Announce.warning("Not a fact store snapshot of version", VERSION, ":", file);
+        System.exit(2);
+      }
+      return (load(setting, file, header, in));
+    }
+  }
+
+  /**
+   * Loads the snapshot of a knowledge base if it exists and was made from the
+   * current files with the same prefix, uri, formatters, duplicate removal and
+   * triple filter. Returns NULL otherwise
+   */
+  public static FactStore loadIfCurrent(Setting setting, File file, File kb, String prefix, String uri, LiteralFormatter... formatters)
+      throws IOException {
+    if (!file.exists()) return (null);
+    try (MappedInput in = new MappedInput(file)) {
+      Header header = readHeader(in);
+      if (header == null || header.sourceStamp != sourceStamp(kb) || !header.prefix.equals(prefix) || !header.uri.equals(uri)
+          || !Arrays.equals(header.formatters, formatters) || header.duplicatesRemoved != setting.removeDuplicateFacts
+          || !header.filter.equals(loadFilter(setting))) {
+        Announce.message("Snapshot", file, "is outdated");
+        return (null);
+      }
+      return (load(setting, file, header, in));
+    }
+  }
+
+  /** Loads the body of a snapshot */
+  protected static FactStore load(Setting setting, File file, Header header, MappedInput in) throws IOException {
+    Announce.doing("Loading fact store snapshot", file);
+    FactStore fs;
+    if (setting.mappedSnapshots) fs = new MappedFactStore(setting, header.prefix, header.uri, setting.joinLengthLimit, header.formatters);
+    else fs = new FactStore(setting, header.prefix, header.uri, setting.joinLengthLimit, header.formatters);
+    fs.TYPE = in.getInt();
+    fs.SUBCLASSOF = in.getInt();
+    fs.entities = setting.mappedSnapshots ? mapNames(in) : readNames(in, fs.newEntityDictionary());
+    fs.relations = readNames(in, new NameDictionary());
+    int numEntities = in.getInt();
+    if (fs instanceof MappedFactStore) {
+      MappedFactStore mapped = (MappedFactStore) fs;
+      mapped.offsets = in.region(4L * (numEntities + 1));
+      long numFacts = mapped.offsets.getInt(numEntities);
+      mapped.predicates = in.region(4 * numFacts);
+      mapped.objects = in.region(4 * numFacts);
+    } else {
+      fs.factOffsets = in.getInts(numEntities + 1);
+      fs.factPredicates = in.getInts(fs.factOffsets[numEntities]);
+      fs.factObjects = in.getInts(fs.factOffsets[numEntities]);
+    }
+    fs.functionalities = new double[in.getInt()];
+    for (int i = 0; i < fs.functionalities.length; i++)
+      fs.functionalities[i] = in.getDouble();
+    if (fs instanceof MappedFactStore) {
+      MappedFactStore mapped = (MappedFactStore) fs;
+      mapped.classBits = in.bitRegion();
+      mapped.literalBits = in.bitRegion();
+      int[] classes = in.getInts();
+      MappedRegion classNumbers = in.intRegion();
+      int[] instanceOffsets = in.getInts();
+      MappedRegion instances = in.intRegion();
+      MappedRegion typeOffsets = in.intRegion();
+      MappedRegion types = in.intRegion();
+      fs.types = new MappedTypeIndex(classes, classNumbers, instanceOffsets, instances, typeOffsets, types, in.getInts(), in.getInts());
+      MappedRegion ends = in.intRegion();
+      fs.literalValues = new MappedLiteralValues(fs, ends, in.intRegion());
+    } else {
+      fs.isClass = in.getBits();
+      fs.isLiteral = in.getBits();
+      fs.types = new TypeIndex(in.getInts(), in.getInts(), in.getInts(), in.getInts(), in.getInts(), in.getInts(), in.getInts(), in.getInts());
+      fs.literalValues = new LiteralValues(fs, in.getInts(), in.getInts());
+    }
+    if (setting.matchNumbersAndDates) fs.numbersAndDates = new NumberAndDateIndex(fs);
+    fs.finalized = true;
+    if (in.get() != 0) {
+      int shinglingSize = in.getInt();
+      int shinglingFunctions = in.getInt();
+      int shinglingTableSize = in.getInt();
+      if (fs.needsLiteralIndex() && shinglingSize == setting.shinglingSize && shinglingFunctions == setting.shinglingFunctions
+          && shinglingTableSize == setting.shinglingTableSize) {
+        try (ObjectInputStream stream = new ObjectInputStream(new BufferedInputStream(in.rest(), 1 << 20))) {
+          fs.literalIndex = (ShinglingTable) stream.readObject();
+        } catch (ClassNotFoundException e) {
+          throw new IOException(e);
+        }
+      }
+    }
+    if (fs.needsLiteralIndex() && fs.literalIndex == null) fs.indexLiterals();
+    Announce.done("Loaded facts about " + fs.numEntities() + " entities");
+    return (fs);
+  }
+
+  /** Reads the names of a dictionary into the given empty dictionary */
+  protected static NameDictionary readNames(MappedInput in, NameDictionary names) throws IOException {
+    int size = in.getInt();
+    names.ensureCapacity(size);
+    MappedRegion offsets = in.region(8L * (size + 1));
+    for (int i = 0; i < size; i++)
+      names.add(in.getString((int) (offsets.getLong(i + 1) - offsets.getLong(i))));
+    in.skip(4L * in.getInt());
+    return (names);
+  }
+
+  /** Maps the names of a dictionary */
+  protected static NameDictionary mapNames(MappedInput in) throws IOException {
+    int size = in.getInt();
+    MappedRegion offsets = in.region(8L * (size + 1));
+    MappedRegion bytes = in.region(offsets.getLong(size));
+    MappedRegion table = in.region(4L * in.getInt());
+    return (new MappedNameDictionary(size, offsets, bytes, table));
+  }
+}
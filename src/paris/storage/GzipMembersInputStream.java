@@ -0,0 +1,325 @@
+package paris.storage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses a gzip file that consists of several members (e.g., gzip files
+ * that were concatenated, or dumps that were compressed in parts) in several
+ * threads. The file is cut at the bytes that look like the header of a member,
+ * and each piece is inflated member by member. A piece that did not start at a
+ * member (because the bytes only looked like a header) is left out, and the
+ * members that cover it are inflated by the reader, as are members that are
+ * too large to be kept in memory. A file of one member is thus inflated by the
+ * reader alone, as by the GZIPInputStream.
+ */
+public class GzipMembersInputStream extends ParallelDecompressor {
+
+  /** Pieces are cut at the first header after this number of bytes */
+  public static final int PIECE_SIZE = 1 << 20;
+
+  /** Pieces without a header in this number of bytes are inflated by the reader */
+  public static final int MAX_PIECE_SIZE = 16 << 20;
+
+  /** Length of the file */
+  protected final long length;
+
+  /** Where the contents so far end, always the start of a member */
+  protected long next;
+
+  /** Reads the members for the reader */
+  protected MemberReader serialReader;
+
+  /** The members that the reader inflates, NULL for none */
+  protected InputStream serialContents;
+
+  public GzipMembersInputStream(File f, int nThreads) throws IOException {
+    super(f, nThreads);
+    length = f.length();
+    try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+      if (length < 2 || raf.read() != 0x1f || raf.read() != 0x8b) throw new IOException("Not in gzip format: " + f);
+    }
+    start();
+  }
+
+  /** TRUE if a gzip member header may start at b[i], with at least 10 bytes */
+  protected static boolean isHeader(byte[] b, int i) {
+    if (b[i] != 0x1f || (b[i + 1] & 0xFF) != 0x8b || b[i + 2] != 8 || (b[i + 3] & 0xE0) != 0) return (false);
+    int xfl = b[i + 8];
+    int os = b[i + 9] & 0xFF;
+    return ((xfl == 0 || xfl == 2 || xfl == 4) && (os <= 13 || os == 255));
+  }
+
+  @Override
+  protected void cut() throws IOException, InterruptedException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      FileChannel channel = raf.getChannel();
+      byte[] bytes = new byte[1 << 20];
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      long start = 0;
+      // File position of bytes[0]
+      long position = 0;
+      int n = 0;
+      while (true) {
+        buffer.position(n);
+        int read = channel.read(buffer, position + n);
+        if (read <= 0) break;
+        n += read;
+        int i = 0;
+        for (; i + 10 <= n; i++) {
+          long at = position + i;
+          if (at - start >= MAX_PIECE_SIZE) {
+            Piece piece = new Piece();
+            piece.start = start;
+            piece.end = at;
+            piece.serial = true;
+            emit(piece);
+            start = at;
+          }
+          if (at - start >= PIECE_SIZE && isHeader(bytes, i)) {
+            emit(start, at);
+            start = at;
+          }
+        }
+        // Keep the bytes that may start a header
+        System.arraycopy(bytes, i, bytes, 0, n - i);
+        position += i;
+        n -= i;
+      }
+      if (start < length) emit(start, length);
+    }
+  }
+
+  @Override
+  protected Decoder newDecoder() throws IOException {
+    final MemberReader reader = new MemberReader(file);
+    return (new Decoder() {
+
+      @Override
+      public void decode(Piece piece) {
+        byte[] out = new byte[PIECE_SIZE * 4];
+        int size = 0;
+        try {
+          reader.seek(piece.start);
+          while (reader.position() < piece.end && reader.startMember()) {
+            int read;
+            while ((read = reader.inflate(out, size, out.length - size)) != -1) {
+              size += read;
+              if (size < out.length) continue;
+              if (out.length >= MAX_PIECE_OUTPUT) return;
+              out = Arrays.copyOf(out, out.length * 2);
+            }
+          }
+          piece.decodedEnd = reader.position();
+          piece.data = Arrays.copyOf(out, size);
+        } catch (IOException e) {
+          piece.failure = e;
+        }
+      }
+
+      @Override
+      public void close() {
+        reader.close();
+      }
+    });
+  }
+
+  @Override
+  protected InputStream contents(Piece piece) throws IOException {
+    if (piece.end <= next) return (null);
+    if (piece.start == next && piece.data != null) {
+      next = piece.decodedEnd;
+      return (data(piece));
+    }
+    if (piece.start == next && piece.failure != null) throw piece.failure;
+    // The piece is too large, or starts inside a member that ends inside it
+    return (serial(piece.end));
+  }
+
+  /** Inflates the members from the end of the contents so far up to the first member that starts at or after the position */
+  protected InputStream serial(final long until) throws IOException {
+    if (serialReader == null) serialReader = new MemberReader(file);
+    serialReader.seek(next);
+    return (serialContents = new InputStream() {
+
+      /** TRUE if a member is being inflated */
+      protected boolean inMember;
+
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        return (read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF);
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        while (true) {
+          if (!inMember) {
+            if (next >= until) return (-1);
+            if (!serialReader.startMember()) {
+              next = length;
+              return (-1);
+            }
+            inMember = true;
+          }
+          int read = serialReader.inflate(b, off, len);
+          if (read != -1) return (read);
+          inMember = false;
+          next = serialReader.position();
+        }
+      }
+    });
+  }
+
+  @Override
+  public long position() {
+    if (current != null && current == serialContents) return (Math.max(super.position(), serialReader.position()));
+    return (super.position());
+  }
+
+  @Override
+  public void close() throws IOException {
+    super.close();
+    if (serialReader != null) serialReader.close();
+  }
+
+  /** Reads the gzip members of a file from a position */
+  protected static class MemberReader {
+
+    protected final RandomAccessFile raf;
+
+    protected final FileChannel channel;
+
+    protected final Inflater inflater = new Inflater(true);
+
+    protected final CRC32 crc = new CRC32();
+
+    protected final byte[] input = new byte[1 << 16];
+
+    /** Next byte and end of the bytes in the input */
+    protected int inputPos, inputEnd;
+
+    /** File position of the end of the bytes in the input */
+    protected long filePos;
+
+    /** Number of bytes inflated in the current member */
+    protected long size;
+
+    public MemberReader(File file) throws IOException {
+      raf = new RandomAccessFile(file, "r");
+      channel = raf.getChannel();
+    }
+
+    /** Moves to a position of the file, outside of a member */
+    public void seek(long position) {
+      filePos = position;
+      inputPos = inputEnd = 0;
+      inflater.reset();
+    }
+
+    /** Returns the position of the next byte that was not inflated */
+    public long position() {
+      return (filePos - (inputEnd - inputPos) - inflater.getRemaining());
+    }
+
+    /** Reads more input. Returns FALSE at the end of the file */
+    protected boolean fill() throws IOException {
+      int read = channel.read(ByteBuffer.wrap(input), filePos);
+      if (read <= 0) return (false);
+      inputPos = 0;
+      inputEnd = read;
+      filePos += read;
+      return (true);
+    }
+
+    /** Returns the next byte of input */
+    protected int readByte() throws IOException {
+      if (inputPos == inputEnd && !fill()) throw new EOFException("Unexpected end of gzip member");
+      return (input[inputPos++] & 0xFF);
+    }
+
+    /** Returns the next 2 bytes of input, little-endian */
+    protected int readShort() throws IOException {
+      return (readByte() | (readByte() << 8));
+    }
+
+    /** Returns the next 4 bytes of input, little-endian */
+    protected long readInt() throws IOException {
+      return (readShort() | ((long) readShort() << 16));
+    }
+
+    /**
+     * Reads the header of the member at the position. Returns FALSE at the
+     * end of the file, or if the bytes are not a member, as gzip ignores
+     * trailing garbage
+     */
+    public boolean startMember() throws IOException {
+      if (inputPos == inputEnd && !fill()) return (false);
+      if ((input[inputPos] & 0xFF) != 0x1f) return (false);
+      inputPos++;
+      if (readByte() != 0x8b) return (false);
+      if (readByte() != 8) throw new IOException("Unsupported gzip compression method");
+      int flags = readByte();
+      for (int i = 0; i < 6; i++)
+        readByte();
+      if ((flags & 4) != 0) {
+        for (int n = readShort(); n > 0; n--)
+          readByte();
+      }
+      if ((flags & 8) != 0) while (readByte() != 0);
+      if ((flags & 16) != 0) while (readByte() != 0);
+      if ((flags & 2) != 0) readShort();
+      inflater.reset();
+      inflater.setInput(input, inputPos, inputEnd - inputPos);
+      inputPos = inputEnd;
+      crc.reset();
+      size = 0;
+      return (true);
+    }
+
+    /** Inflates the member into b[off, off+len). Returns -1 at the end of the member, after checking its trailer */
+    public int inflate(byte[] b, int off, int len) throws IOException {
+      if (len == 0) return (0);
+      try {
+        while (true) {
+          int n = inflater.inflate(b, off, len);
+          if (n > 0) {
+            crc.update(b, off, n);
+            size += n;
+            return (n);
+          }
+          if (inflater.finished()) break;
+          if (inflater.needsDictionary()) throw new IOException("Corrupt gzip member");
+          if (inflater.needsInput()) {
+            if (!fill()) throw new EOFException("Unexpected end of gzip member");
+            inflater.setInput(input, 0, inputEnd);
+            inputPos = inputEnd;
+          }
+        }
+      } catch (DataFormatException e) {
+        throw new IOException(e);
+      }
+      inputPos = inputEnd - inflater.getRemaining();
+      inflater.setInput(input, 0, 0);
+      if (readInt() != crc.getValue() || readInt() != (size & 0xFFFFFFFFL)) throw new IOException("Corrupt gzip member");
+      return (-1);
+    }
+
+    public void close() {
+      inflater.end();
+      try {
+        raf.close();
+      } catch (IOException e) {
+      }
+    }
+  }
+}
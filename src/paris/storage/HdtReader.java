@@ -0,0 +1,803 @@
+package paris.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import paris.Setting;
+
+import javatools.administrative.Announce;
+import javatools.filehandlers.FileSet;
+
+/**
+ * Loads an RDF-HDT file into a fact store without parsing text. HDT stores a
+ * dictionary of all terms (shared subjects and objects, subjects, predicates,
+ * objects, each front-coded in blocks) and the triples as ids in bitmap form.
+ * This reader decodes every term of the dictionary once, compresses it as the
+ * parsers do and maps it to its fact store id. Then it translates the id
+ * triples into facts. Both steps run in parallel on ranges of blocks and
+ * triples. The file is memory-mapped, so that large files cost no heap.
+ *
+ * Only the standard "four section" dictionary with plain front coding and
+ * bitmap triples are supported, which is what the HDT tools write by default.
+ */
+public class HdtReader {
+
+  /** Size of the mapped windows */
+  protected static final int WINDOW = 64 * 1024 * 1024;
+
+  /** Types of control information */
+  protected static final int GLOBAL = 1, HEADER = 2, DICTIONARY = 3, TRIPLES = 4;
+
+  /** Component orders of the triples, as ids of HDT */
+  protected static final String[] ORDERS = { null, "SPO", "SOP", "PSO", "POS", "OSP", "OPS" };
+
+  /** The file */
+  protected final File file;
+
+  /** Number of threads */
+  protected final int nThreads;
+
+  /** The channel of the file while reading */
+  protected FileChannel channel;
+
+  /** The prefixes of the fact store, which compress the terms */
+  protected UriPrefixes prefixes;
+
+  /** Constructor */
+  public HdtReader(File f, int nThreads) {
+    this.file = f;
+    this.nThreads = Math.max(1, nThreads);
+  }
+
+  /** TRUE if this reader can load the file */
+  public static boolean accepts(File f) {
+    return (f.isFile() && FileSet.extension(f).equalsIgnoreCase(".hdt"));
+  }
+
+  // ----------------------------------------------------------------------------
+  // Reading
+  // ----------------------------------------------------------------------------
+
+  /** Reads little-endian values at any position of the file through a mapped window. Not thread-safe */
+  protected class Window {
+
+    protected MappedByteBuffer buffer;
+
+    protected long start = -1;
+
+    protected long end = -1;
+
+    /** Maps the window so that it contains the bytes at pos, pos+n */
+    protected void map(long pos, int n) throws IOException {
+      if (pos >= start && pos + n <= end) return;
+      long size = channel.size();
+      start = pos;
+      end = Math.min(size, pos + Math.max(n, WINDOW));
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int getByte(long pos) throws IOException {
+      if (pos < start || pos >= end) map(pos, 1);
+      return (buffer.get((int) (pos - start)) & 0xFF);
+    }
+
+    /** Reads 8 bytes, bytes after the end of the file count as 0 */
+    public long getLong(long pos) throws IOException {
+      if (pos >= start && pos + 8 <= end) return (buffer.getLong((int) (pos - start)));
+      if (pos + 8 <= channel.size()) {
+        map(pos, 8);
+        return (buffer.getLong((int) (pos - start)));
+      }
+      long result = 0;
+      for (int i = 0; pos + i < channel.size() && i < 8; i++)
+        result |= (long) getByte(pos + i) << (8 * i);
+      return (result);
+    }
+  }
+
+  /** Reads the file from front to back */
+  protected class Cursor {
+
+    protected final Window window = new Window();
+
+    protected long pos;
+
+    public int get() throws IOException {
+      return (window.getByte(pos++));
+    }
+
+    /** Reads a variable-length number: 7 bits per byte, the last byte has the highest bit set */
+    public long vbyte() throws IOException {
+      long result = 0;
+      int shift = 0;
+      int b;
+      while (((b = get()) & 0x80) == 0) {
+        result |= (long) b << shift;
+        shift += 7;
+      }
+      return (result | (long) (b & 0x7F) << shift);
+    }
+
+    /** Reads a 0-terminated string */
+    public String string() throws IOException {
+      List<Byte> bytes = new ArrayList<Byte>();
+      int b;
+      while ((b = get()) != 0)
+        bytes.add((byte) b);
+      byte[] array = new byte[bytes.size()];
+      for (int i = 0; i < array.length; i++)
+        array[i] = bytes.get(i);
+      return (new String(array, StandardCharsets.UTF_8));
+    }
+
+    /** Reads control information of the given type, returns the format and the properties */
+    public Map<String, String> controlInformation(int type) throws IOException {
+      for (char c : "$HDT".toCharArray())
+        if (get() != c) throw new IOException("Not an HDT file: " + file);
+      int actual = get();
+      if (actual != type) throw new IOException("Expected HDT section " + type + " but found " + actual + " in " + file);
+      Map<String, String> result = new HashMap<String, String>();
+      result.put("format", string());
+      for (String property : string().split(";")) {
+        int eq = property.indexOf('=');
+        if (eq > 0) result.put(property.substring(0, eq), property.substring(eq + 1));
+      }
+      // CRC16
+      pos += 2;
+      return (result);
+    }
+
+    /** Reads the header of a sequence of numbers */
+    public LogSequence logSequence() throws IOException {
+      if (get() != 1) throw new IOException("Unsupported sequence type in " + file);
+      LogSequence result = new LogSequence();
+      result.numBits = get();
+      result.numEntries = vbyte();
+      // CRC8
+      pos++;
+      result.start = pos;
+      pos += (result.numBits * result.numEntries + 7) / 8;
+      // CRC32
+      pos += 4;
+      return (result);
+    }
+
+    /** Reads the header of a bitmap */
+    public Bitmap bitmap() throws IOException {
+      if (get() != 1) throw new IOException("Unsupported bitmap type in " + file);
+      Bitmap result = new Bitmap();
+      result.numBits = vbyte();
+      // CRC8
+      pos++;
+      result.start = pos;
+      pos += (result.numBits + 7) / 8;
+      // CRC32
+      pos += 4;
+      return (result);
+    }
+
+    /** Reads the header of a dictionary section */
+    public Section section() throws IOException {
+      if (get() != 2) throw new IOException("Unsupported dictionary section type in " + file);
+      Section result = new Section();
+      result.numStrings = vbyte();
+      long bytes = vbyte();
+      result.blockSize = (int) vbyte();
+      // CRC8
+      pos++;
+      result.blocks = logSequence();
+      result.start = pos;
+      pos += bytes;
+      // CRC32
+      pos += 4;
+      if (result.numStrings >= Integer.MAX_VALUE) throw new IOException("Too many terms in " + file);
+      return (result);
+    }
+  }
+
+  /** Numbers of a fixed number of bits, packed into little-endian 64 bit words */
+  protected static class LogSequence {
+
+    protected long start;
+
+    protected int numBits;
+
+    protected long numEntries;
+
+    public long get(Window window, long i) throws IOException {
+      if (numBits == 0) return (0);
+      long bit = i * numBits;
+      long word = window.getLong(start + (bit >>> 6) * 8);
+      int offset = (int) (bit & 63);
+      long result = word >>> offset;
+      if (offset + numBits > 64) result |= window.getLong(start + ((bit >>> 6) + 1) * 8) << (64 - offset);
+      return (numBits == 64 ? result : result & ((1L << numBits) - 1));
+    }
+  }
+
+  /** Bits, packed into little-endian 64 bit words */
+  protected static class Bitmap {
+
+    /** Number of words per block of the rank index */
+    protected static final int BLOCK_WORDS = 64;
+
+    protected long start;
+
+    protected long numBits;
+
+    /** The number of 1 bits before each block of BLOCK_WORDS words, as by index() */
+    protected long[] ranks;
+
+    /** Returns the number of words */
+    public long numWords() {
+      return ((numBits + 63) >>> 6);
+    }
+
+    /** Returns the number of blocks of the rank index */
+    public int numBlocks() {
+      return ((int) ((numWords() + BLOCK_WORDS - 1) / BLOCK_WORDS));
+    }
+
+    public long word(Window window, long w) throws IOException {
+      return (window.getLong(start + w * 8));
+    }
+
+    public boolean get(Window window, long i) throws IOException {
+      return ((word(window, i >>> 6) >>> (i & 63) & 1) != 0);
+    }
+
+    /** Returns the number of 1 bits before position i. Needs the rank index */
+    public long rank(Window window, long i) throws IOException {
+      int block = (int) ((i >>> 6) / BLOCK_WORDS);
+      long result = ranks[block];
+      for (long w = (long) block * BLOCK_WORDS; w < i >>> 6; w++)
+        result += Long.bitCount(word(window, w));
+      if ((i & 63) != 0) result += Long.bitCount(word(window, i >>> 6) & ((1L << (i & 63)) - 1));
+      return (result);
+    }
+
+    /** Returns the position after the n-th 1 bit (0 for n=0). Needs the rank index */
+    public long afterOnes(Window window, long n) throws IOException {
+      if (n == 0) return (0);
+      // The last block with less than n 1 bits before it
+      int low = 0;
+      int high = ranks.length - 1;
+      while (low < high) {
+        int middle = (low + high + 1) >>> 1;
+        if (ranks[middle] < n) low = middle;
+        else high = middle - 1;
+      }
+      n -= ranks[low];
+      long w = (long) low * BLOCK_WORDS;
+      long word;
+      while (true) {
+        word = word(window, w);
+        int count = Long.bitCount(word);
+        if (count >= n) break;
+        n -= count;
+        w++;
+      }
+      for (int i = 0; i < 64; i++)
+        if ((word >>> i & 1) != 0 && --n == 0) return (w * 64 + i + 1);
+      throw new IllegalStateException();
+    }
+  }
+
+  /** A front-coded dictionary section */
+  protected static class Section {
+
+    protected long numStrings;
+
+    protected int blockSize;
+
+    /** Offset of each block in the text */
+    protected LogSequence blocks;
+
+    /** Start of the text */
+    protected long start;
+
+    /** Number of blocks */
+    public int numBlocks() {
+      return ((int) ((numStrings + blockSize - 1) / blockSize));
+    }
+  }
+
+  // ----------------------------------------------------------------------------
+  // Loading
+  // ----------------------------------------------------------------------------
+
+  /** Dictionary sections */
+  protected Section shared, subjects, predicates, objects;
+
+  /** TRUE if object ids count after the subjects, FALSE if they count after the shared terms */
+  protected boolean objectsAfterSubjects;
+
+  /** Triples */
+  protected Bitmap bitmapY, bitmapZ;
+
+  protected LogSequence seqY, seqZ;
+
+  /** Positions of subject, predicate and object in the x, y, z components of the triples */
+  protected int sPos, pPos, oPos;
+
+  /** Fact store id of each shared and subject term, 0 for unused ones */
+  protected int[] subjectIds;
+
+  /** Fact store id of each object term that is not shared, 0 for unused ones */
+  protected int[] objectIds;
+
+  /** Fact store id of each predicate */
+  protected int[] predicateIds;
+
+  /** TRUE for predicates whose facts are loaded */
+  protected boolean[] predicateAccepted;
+
+  /** TRUE for predicates whose facts are loaded only for the sampled subjects */
+  protected boolean[] predicateSampled;
+
+  /** TRUE for subjects in the sample, NULL if all are */
+  protected boolean[] subjectAccepted;
+
+  /** TRUE for used terms, NULL if all are */
+  protected boolean[] subjectUsed, objectUsed;
+
+  /** Reads the structure of the file */
+  protected void readStructure() throws IOException {
+    Cursor in = new Cursor();
+    in.controlInformation(GLOBAL);
+    Map<String, String> header = in.controlInformation(HEADER);
+    in.pos += Long.parseLong(header.get("length"));
+    Map<String, String> dictionary = in.controlInformation(DICTIONARY);
+    if (!dictionary.get("format").contains("dictionaryFour")) throw new IOException("Unsupported HDT dictionary " + dictionary.get("format"));
+    objectsAfterSubjects = "1".equals(dictionary.get("mapping"));
+    shared = in.section();
+    subjects = in.section();
+    predicates = in.section();
+    objects = in.section();
+    Map<String, String> triples = in.controlInformation(TRIPLES);
+    if (!triples.get("format").contains("triplesBitmap")) throw new IOException("Unsupported HDT triples " + triples.get("format"));
+    int order = triples.containsKey("order") ? Integer.parseInt(triples.get("order")) : 1;
+    if (order < 1 || order >= ORDERS.length) throw new IOException("Unsupported HDT triple order " + order);
+    sPos = ORDERS[order].indexOf('S');
+    pPos = ORDERS[order].indexOf('P');
+    oPos = ORDERS[order].indexOf('O');
+    bitmapY = in.bitmap();
+    bitmapZ = in.bitmap();
+    seqY = in.logSequence();
+    seqZ = in.logSequence();
+    if (shared.numStrings + subjects.numStrings + objects.numStrings >= Integer.MAX_VALUE) throw new IOException("Too many terms in " + file);
+  }
+
+  /** Returns the number of triples and the number of subject and object terms, without loading the file */
+  public long[] sizes() throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      channel = raf.getChannel();
+      readStructure();
+      return (new long[] { seqZ.numEntries, shared.numStrings + subjects.numStrings + objects.numStrings });
+    } finally {
+      channel = null;
+    }
+  }
+
+  /** Loads the file into the fact store */
+  public void load(FactStore fs) throws IOException {
+    prefixes = fs.prefixes();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      channel = raf.getChannel();
+      readStructure();
+      index(bitmapY);
+      index(bitmapZ);
+      Announce.message("HDT file with", shared.numStrings, "shared terms,", subjects.numStrings, "subjects,", predicates.numStrings,
+          "predicates,", objects.numStrings, "objects and", seqZ.numEntries, "triples");
+      readPredicates(fs);
+      if (fs.filter != null) markUsedTerms(fs);
+      encodeTerms(fs);
+      subjectUsed = objectUsed = null;
+      addFacts(fs);
+    } finally {
+      channel = null;
+      subjectIds = objectIds = null;
+      subjectAccepted = null;
+    }
+  }
+
+  /** Builds the rank index of a bitmap, counting the blocks in parallel */
+  protected void index(final Bitmap bitmap) throws IOException {
+    final int numBlocks = bitmap.numBlocks();
+    bitmap.ranks = new long[numBlocks + 1];
+    parallel(new Parts() {
+
+      @Override
+      public List<Task> tasks(int n) {
+        List<Task> result = new ArrayList<Task>();
+        for (int t = 0; t < n; t++) {
+          final int fromBlock = (int) ((long) numBlocks * t / n);
+          final int toBlock = (int) ((long) numBlocks * (t + 1) / n);
+          result.add(new Task() {
+
+            @Override
+            public void run() throws IOException {
+              Window window = new Window();
+              for (int block = fromBlock; block < toBlock; block++) {
+                long end = Math.min(bitmap.numWords(), (long) (block + 1) * Bitmap.BLOCK_WORDS);
+                for (long w = (long) block * Bitmap.BLOCK_WORDS; w < end; w++)
+                  bitmap.ranks[block + 1] += Long.bitCount(bitmap.word(window, w));
+              }
+            }
+          });
+        }
+        return (result);
+      }
+    });
+    for (int block = 0; block < numBlocks; block++)
+      bitmap.ranks[block + 1] += bitmap.ranks[block];
+  }
+
+  /** Maps the predicates to relation ids and decides which are loaded */
+  protected void readPredicates(final FactStore fs) throws IOException {
+    predicateIds = new int[(int) predicates.numStrings + 1];
+    predicateAccepted = new boolean[predicateIds.length];
+    predicateSampled = new boolean[predicateIds.length];
+    final StringBuilder buffer = new StringBuilder();
+    new TermDecoder(predicates, 0, predicates.numBlocks()) {
+
+      @Override
+      protected void term(int id, StringBuilder term) {
+        CharSequence predicate = fs.addPrefix(term, buffer);
+        predicateIds[id] = fs.getOrAddRelation(predicate);
+        predicateAccepted[id] = fs.filter == null || fs.filter.acceptsRelation(predicate);
+        predicateSampled[id] = fs.filter != null && fs.filter.samples(predicate);
+      }
+    }.run();
+  }
+
+  /** Marks the terms that occur in triples that the filter of the fact store accepts */
+  protected void markUsedTerms(final FactStore fs) throws IOException {
+    Announce.doing("Marking the terms of the filtered facts");
+    boolean sampled = false;
+    for (boolean b : predicateSampled)
+      sampled |= b;
+    if (sampled) {
+      subjectAccepted = new boolean[(int) (shared.numStrings + subjects.numStrings) + 1];
+      parallel(new TermDecoders(shared, subjects) {
+
+        @Override
+        protected void term(int id, StringBuilder term) {
+          subjectAccepted[id] = fs.filter.acceptsSubject(term);
+        }
+      });
+    }
+    subjectUsed = new boolean[(int) (shared.numStrings + subjects.numStrings) + 1];
+    objectUsed = new boolean[(int) objects.numStrings + 1];
+    parallel(new TripleRanges() {
+
+      @Override
+      protected void triple(int s, int p, int o) {
+        if (!accepted(s, p)) return;
+        subjectUsed[s] = true;
+        if (o <= shared.numStrings) subjectUsed[o] = true;
+        else objectUsed[objectIndex(o)] = true;
+      }
+    });
+    Announce.done();
+  }
+
+  /** TRUE if the facts of the subject with the predicate are loaded */
+  protected boolean accepted(int s, int p) {
+    return (predicateAccepted[p] && (subjectAccepted == null || !predicateSampled[p] || subjectAccepted[s]));
+  }
+
+  /** Returns the index of a non-shared object id in objectIds */
+  protected int objectIndex(int o) {
+    return ((int) (o - shared.numStrings - (objectsAfterSubjects ? subjects.numStrings : 0)));
+  }
+
+  /** Maps the used terms to entity ids */
+  protected void encodeTerms(final FactStore fs) throws IOException {
+    Announce.doing("Encoding the dictionary");
+    subjectIds = new int[(int) (shared.numStrings + subjects.numStrings) + 1];
+    objectIds = new int[(int) objects.numStrings + 1];
+    parallel(new TermDecoders(shared, subjects, objects) {
+
+      @Override
+      protected void term(int id, StringBuilder term) {
+        if (subjectUsed == null || subjectUsed[id]) subjectIds[id] = fs.getOrAddTerm(term);
+      }
+
+      @Override
+      protected void object(int id, StringBuilder term) {
+        if (objectUsed == null || objectUsed[id]) objectIds[id] = fs.getOrAddTerm(term);
+      }
+    });
+    Announce.done();
+  }
+
+  /** Adds the facts to the fact store */
+  protected void addFacts(final FactStore fs) throws IOException {
+    Announce.doing("Adding", seqZ.numEntries, "facts");
+    parallel(new TripleRanges() {
+
+      @Override
+      protected void triple(int s, int p, int o) {
+        if (fs.filter != null && !accepted(s, p)) return;
+        fs.add(subjectIds[s], predicateIds[p], o <= shared.numStrings ? subjectIds[o] : objectIds[objectIndex(o)]);
+      }
+    });
+    Announce.done();
+  }
+
+  // ----------------------------------------------------------------------------
+  // Parallel work
+  // ----------------------------------------------------------------------------
+
+  /** Work that is cut into parts for the threads */
+  protected interface Parts {
+
+    /** Returns the tasks of the threads */
+    List<Task> tasks(int n) throws IOException;
+  }
+
+  /** The part of one thread */
+  protected interface Task {
+
+    void run() throws IOException;
+  }
+
+  /** Runs the parts in parallel. Rethrows the first failure of a thread */
+  protected void parallel(Parts parts) throws IOException {
+    final Exception[] failure = new Exception[1];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (final Task task : parts.tasks(nThreads)) {
+      Thread thread = new Thread() {
+
+        public void run() {
+          try {
+            task.run();
+          } catch (IOException | RuntimeException e) {
+            synchronized (failure) {
+              if (failure[0] == null) failure[0] = e;
+            }
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    try {
+      for (Thread thread : threads)
+        thread.join();
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+    MappedNTriplesReader.rethrow(failure[0]);
+  }
+
+  /** Decodes the terms of a range of blocks of a section */
+  protected abstract class TermDecoder implements Task {
+
+    protected final Section section;
+
+    protected final int fromBlock, toBlock;
+
+    protected final Window window = new Window();
+
+    protected byte[] bytes = new byte[256];
+
+    protected final StringBuilder chars = new StringBuilder();
+
+    protected final StringBuilder term = new StringBuilder();
+
+    /** Length of the current term in bytes */
+    protected int length;
+
+    public TermDecoder(Section section, int fromBlock, int toBlock) {
+      this.section = section;
+      this.fromBlock = fromBlock;
+      this.toBlock = toBlock;
+    }
+
+    /** Receives a term (1-based id in the section), compressed as by the parsers */
+    protected abstract void term(int id, StringBuilder term);
+
+    /** Reads bytes up to the next 0 into the buffer from position len on. Returns the position after the 0 */
+    protected long readString(long pos, int len) throws IOException {
+      int b;
+      while ((b = window.getByte(pos++)) != 0) {
+        if (len == bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        bytes[len++] = (byte) b;
+      }
+      length = len;
+      return (pos);
+    }
+
+    /** Decodes the bytes, compresses the term and passes it on */
+    protected void emit(int id) {
+      if (!MappedNTriplesReader.decode(bytes, length, chars)) {
+        chars.setLength(0);
+        chars.append(new String(bytes, 0, length, StandardCharsets.UTF_8));
+      }
+      prefixes.compress(chars, 0, chars.length(), term);
+      term(id, term);
+    }
+
+    @Override
+    public void run() throws IOException {
+      for (int block = fromBlock; block < toBlock; block++) {
+        long pos = section.start + section.blocks.get(window, block);
+        long first = (long) block * section.blockSize;
+        int n = (int) Math.min(section.blockSize, section.numStrings - first);
+        pos = readString(pos, 0);
+        emit((int) first + 1);
+        for (int i = 1; i < n; i++) {
+          // Length of the prefix shared with the previous term, as vbyte
+          long prefix = 0;
+          int shift = 0;
+          int b;
+          while (((b = window.getByte(pos++)) & 0x80) == 0) {
+            prefix |= (long) b << shift;
+            shift += 7;
+          }
+          prefix |= (long) (b & 0x7F) << shift;
+          pos = readString(pos, (int) prefix);
+          emit((int) (first + i) + 1);
+        }
+      }
+    }
+  }
+
+  /** Decodes the shared terms and the subjects (ids as subjects), and optionally the objects (ids in objectIds) */
+  protected abstract class TermDecoders implements Parts {
+
+    /** Shared terms, subjects and possibly objects */
+    protected final Section[] sections;
+
+    public TermDecoders(Section... sections) {
+      this.sections = sections;
+    }
+
+    /** Receives a shared term or a subject with its subject id */
+    protected abstract void term(int id, StringBuilder term);
+
+    /** Receives an object with its index in objectIds */
+    protected void object(int id, StringBuilder term) {
+    }
+
+    @Override
+    public List<Task> tasks(int n) {
+      // Every thread takes a share of the blocks of every section
+      List<Task> result = new ArrayList<Task>();
+      for (int t = 0; t < n; t++) {
+        final List<TermDecoder> decoders = new ArrayList<TermDecoder>();
+        for (int s = 0; s < sections.length; s++) {
+          final Section section = sections[s];
+          final int offset = s == 1 ? (int) shared.numStrings : 0;
+          final boolean isObject = s == 2;
+          int blocks = section.numBlocks();
+          decoders.add(new TermDecoder(section, (int) ((long) blocks * t / n), (int) ((long) blocks * (t + 1) / n)) {
+
+            @Override
+            protected void term(int id, StringBuilder term) {
+              if (isObject) object(id, term);
+              else TermDecoders.this.term(id + offset, term);
+            }
+          });
+        }
+        result.add(new Task() {
+
+          @Override
+          public void run() throws IOException {
+            for (TermDecoder decoder : decoders)
+              decoder.run();
+          }
+        });
+      }
+      return (result);
+    }
+  }
+
+  /** Goes through ranges of the triples in parallel */
+  protected abstract class TripleRanges implements Parts {
+
+    /** Receives a triple as subject, predicate and object ids of HDT */
+    protected abstract void triple(int s, int p, int o);
+
+    @Override
+    public List<Task> tasks(int n) throws IOException {
+      List<Task> result = new ArrayList<Task>();
+      Window window = new Window();
+      long numY = seqY.numEntries;
+      for (int t = 0; t < n; t++) {
+        final long fromY = numY * t / n;
+        final long toY = numY * (t + 1) / n;
+        if (fromY == toY) continue;
+        // The x of a y is one more than the number of x that end before it, the first z is behind the z lists of the y before
+        final long firstX = bitmapY.rank(window, fromY) + 1;
+        final long firstZ = bitmapZ.afterOnes(window, fromY);
+        result.add(new Task() {
+
+          @Override
+          public void run() throws IOException {
+            Window y = new Window();
+            Window bitsY = new Window();
+            Window z = new Window();
+            Window bitsZ = new Window();
+            int[] xyz = new int[3];
+            long x = firstX;
+            long k = firstZ;
+            for (long j = fromY; j < toY; j++) {
+              xyz[0] = (int) x;
+              xyz[1] = (int) seqY.get(y, j);
+              while (true) {
+                xyz[2] = (int) seqZ.get(z, k);
+                triple(xyz[sPos], xyz[pPos], xyz[oPos]);
+                if (bitmapZ.get(bitsZ, k++)) break;
+              }
+              if (bitmapY.get(bitsY, j)) x++;
+            }
+          }
+        });
+      }
+      return (result);
+    }
+  }
+
+  /** Threads of the checks */
+  protected static final int[] CHECK_THREADS = { 1, 3, 7 };
+
+  /**
+   * Checks the reader against the HDT files of a folder:
+   *
+   * <PRE>
+   * java -cp paris.jar paris.storage.HdtReader data/hdt
+   * </PRE>
+   *
+   * Every HDT file (e.g. reference.hdt, as written by rdf2hdt of hdt-java)
+   * comes with the same triples as gzipped N-Triples (reference.nt.gz). The
+   * HDT file is loaded with one and with several threads, and the fact stores
+   * have to hold the same facts as the fact store of the N-Triples file.
+   */
+  public static void main(String[] args) throws Exception {
+    File folder = new File(args.length == 0 ? "data/hdt" : args[0]);
+    File[] files = folder.listFiles();
+    Arrays.sort(files);
+    boolean ok = true;
+    for (File f : files) {
+      if (!accepts(f)) continue;
+      Set<String> expected = checkFacts(new File(folder, FileSet.newExtension(f.getName(), null) + ".nt.gz"), 1);
+      for (int threads : CHECK_THREADS) {
+        Set<String> found = checkFacts(f, threads);
+        boolean same = found.equals(expected);
+        Announce.message(f.getName(), "with", threads, "threads:", found.size(), "of", expected.size(), "facts", same ? "OK" : "WRONG");
+        ok &= same;
+      }
+    }
+    if (!ok) System.exit(1);
+  }
+
+  /** Loads a file into a new fact store, and returns its facts as strings */
+  protected static Set<String> checkFacts(File f, int threads) throws IOException {
+    Setting setting = new Setting("check", ".", "", "", null, "", null);
+    setting.loadThreads = threads;
+    FactStore fs = new FactStore(setting, "check:", "http://example.org/", 1, FactStore.getArgs(false, false));
+    fs.load(f);
+    fs.prepare();
+    Set<String> result = new HashSet<String>();
+    for (int subject = 0; subject < fs.numEntities(); subject++)
+      for (int i = 0; i < fs.degree(subject); i++)
+        result.add(fs.entity(subject) + " " + fs.relation(fs.predicateAt(subject, i)) + " " + fs.entity(fs.objectAt(subject, i)));
+    return (result);
+  }
+}
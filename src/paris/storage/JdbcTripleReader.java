@@ -0,0 +1,335 @@
+package paris.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javatools.administrative.Announce;
+import javatools.database.Database;
+import javatools.filehandlers.FileSet;
+
+/**
+ * Loads a knowledge base from a relational table of triples over JDBC, without
+ * dumping it to a file first. The table is described by a file with the
+ * extension ".jdbc" in Java properties format:
+ *
+ * <PRE>
+ * url = jdbc:postgresql://dbhost/kbs
+ * user = paris
+ * password = secret
+ * table = yago_facts
+ * subject = s
+ * predicate = p
+ * object = o
+ * key = id
+ * </PRE>
+ *
+ * "driver" names a JDBC driver class to load, for drivers that do not register
+ * themselves. "where" adds an SQL condition on the rows. If "key" names a
+ * numeric column, the table is split into ranges of the key, which several
+ * threads read in parallel over their own connections. Every thread reads its
+ * rows with a cursor on the server ("fetchSize" rows at a time), so that the
+ * table is never held in memory. The subjects, predicates and objects have the
+ * same form as in TSV files. Rows with a NULL column are skipped.
+ */
+public class JdbcTripleReader {
+
+  /** Extension of the files that describe a table */
+  public static final String EXTENSION = ".jdbc";
+
+  /** Default number of rows per round trip */
+  public static final int FETCH_SIZE = 10000;
+
+  /** Number of key ranges per thread, so that threads that finish early take over */
+  public static final int RANGES_PER_THREAD = 4;
+
+  /** Connection properties (user, password, ...) */
+  protected final Properties connection = new Properties();
+
+  /** JDBC url */
+  protected final String url;
+
+  /** Table and columns */
+  protected final String table, subject, predicate, object, key;
+
+  /** SQL condition on the rows, NULL for none */
+  protected final String where;
+
+  /** Number of rows per round trip */
+  protected final int fetchSize;
+
+  /** Number of threads */
+  protected final int nThreads;
+
+  /** Constructor, reads the description of the table */
+  public JdbcTripleReader(File f, int nThreads) throws IOException {
+    Properties p = new Properties();
+    try (InputStream in = new FileInputStream(f)) {
+      p.load(in);
+    }
+    url = p.getProperty("url");
+    table = p.getProperty("table");
+    if (url == null || table == null) throw new IOException("No url or no table in " + f);
+    subject = p.getProperty("subject", "subject");
+    predicate = p.getProperty("predicate", "predicate");
+    object = p.getProperty("object", "object");
+    key = p.getProperty("key");
+    where = p.getProperty("where");
+    fetchSize = Integer.parseInt(p.getProperty("fetchSize", "" + FETCH_SIZE));
+    String driver = p.getProperty("driver");
+    if (driver != null) {
+      try {
+        Class.forName(driver);
+      } catch (ClassNotFoundException e) {
+        throw new IOException("JDBC driver " + driver + " is not in the classpath");
+      }
+    }
+    if (p.getProperty("user") != null) connection.setProperty("user", p.getProperty("user"));
+    if (p.getProperty("password") != null) connection.setProperty("password", p.getProperty("password"));
+    this.nThreads = key == null ? 1 : Math.max(1, nThreads);
+  }
+
+  /** TRUE if the file describes a table */
+  public static boolean accepts(File f) {
+    return (f.isFile() && FileSet.extension(f).equalsIgnoreCase(EXTENSION));
+  }
+
+  /** A range of the key, from and to inclusive, so that it can end at Long.MAX_VALUE */
+  protected static class Range {
+
+    protected final long from, to;
+
+    protected Range(long from, long to) {
+      this.from = from;
+      this.to = to;
+    }
+  }
+
+  /** Opens a connection for reading with a cursor */
+  protected Connection connect() throws SQLException {
+    Connection c = DriverManager.getConnection(url, connection);
+    // Drivers such as Postgres use a cursor only within a transaction
+    c.setAutoCommit(false);
+    c.setReadOnly(true);
+    return (c);
+  }
+
+  /** Returns the fetch size for the driver */
+  protected int fetchSize() {
+    // MySQL streams rows only with this value, unless it is told to use cursors
+    if (url.startsWith("jdbc:mysql:") && !url.contains("useCursorFetch=true")) return (Integer.MIN_VALUE);
+    return (fetchSize);
+  }
+
+  /** Returns the query for the rows, with two parameters for the key range if there is a key */
+  protected String query() {
+    StringBuilder sql = new StringBuilder();
+    sql.append("SELECT ").append(subject).append(", ").append(predicate).append(", ").append(object).append(" FROM ").append(table);
+    if (where != null) sql.append(" WHERE (").append(where).append(')');
+    if (key != null) sql.append(where == null ? " WHERE " : " AND ").append(key).append(" >= ? AND ").append(key).append(" <= ?");
+    return (sql.toString());
+  }
+
+  /** Splits the key into ranges, returns NULL if the table has no key */
+  protected Queue<Range> ranges() throws SQLException {
+    if (key == null) return (null);
+    Queue<Range> result = new ConcurrentLinkedQueue<Range>();
+    Connection c = connect();
+    Statement s = null;
+    ResultSet r = null;
+    try {
+      s = c.createStatement();
+      r = s.executeQuery("SELECT MIN(" + key + "), MAX(" + key + ") FROM " + table + (where == null ? "" : " WHERE (" + where + ")"));
+      if (!r.next()) return (result);
+      long min = r.getLong(1);
+      if (r.wasNull()) return (result);
+      long max = r.getLong(2);
+      int n = nThreads * RANGES_PER_THREAD;
+      // Does not overflow for n > 1, even if max - min does
+      long size = max / n - min / n + 1;
+      // Ranges up to the last one end before max - (size - 1), so that from + size does not overflow
+      long from = min;
+      for (; from < max - (size - 1); from += size)
+        result.add(new Range(from, from + size - 1));
+      result.add(new Range(from, max));
+      c.commit();
+    } finally {
+      if (r != null) Database.close(r);
+      Database.close(s);
+      Database.close(c);
+    }
+    return (result);
+  }
+
+  /** Loads the rows into the fact store, or into any other sink that can take triples from several threads */
+  public void load(final TripleSink fs) throws IOException {
+    final Queue<Range> ranges;
+    try {
+      ranges = ranges();
+    } catch (SQLException e) {
+      throw new IOException("Cannot read " + table + " from " + url, e);
+    }
+    Announce.message("Reading", table, ranges == null ? "with one query" : "in " + ranges.size() + " key ranges");
+    final Exception[] failure = new Exception[1];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < nThreads; i++) {
+      Thread thread = new Thread() {
+
+        public void run() {
+          try {
+            read(fs, ranges);
+          } catch (SQLException | RuntimeException e) {
+            synchronized (failure) {
+              if (failure[0] == null) failure[0] = e;
+            }
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    try {
+      for (Thread thread : threads)
+        thread.join();
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+    if (failure[0] instanceof RuntimeException) throw (RuntimeException) failure[0];
+    if (failure[0] != null) throw new IOException("Cannot read " + table + " from " + url, failure[0]);
+  }
+
+  /** Reads the ranges over one connection until none is left, or the whole table if there are no ranges */
+  protected void read(TripleSink fs, Queue<Range> ranges) throws SQLException {
+    Connection c = connect();
+    PreparedStatement s = null;
+    try {
+      s = c.prepareStatement(query(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      s.setFetchSize(fetchSize());
+      if (ranges == null) {
+        read(fs, s);
+      } else {
+        Range range;
+        while ((range = ranges.poll()) != null) {
+          s.setLong(1, range.from);
+          s.setLong(2, range.to);
+          read(fs, s);
+        }
+      }
+      c.commit();
+    } finally {
+      Database.close(s);
+      Database.close(c);
+    }
+  }
+
+  /** Executes the query and adds the rows to the fact store */
+  protected void read(TripleSink fs, PreparedStatement s) throws SQLException {
+    // Not Database.close(), which closes the statement as well, but the statement is reused for the next range
+    try (ResultSet r = s.executeQuery()) {
+      while (r.next()) {
+        String sub = r.getString(1);
+        String pred = r.getString(2);
+        String obj = r.getString(3);
+        if (sub == null || pred == null || obj == null) continue;
+        fs.triple(sub, pred, obj);
+      }
+    }
+  }
+
+  /** Number of threads of the check */
+  protected static final int CHECK_THREADS = 3;
+
+  /**
+   * Checks the reader against an empty database, e.g. an embedded one:
+   *
+   * <PRE>
+   * java -cp paris.jar:h2.jar paris.storage.JdbcTripleReader jdbc:h2:mem:check
+   * java -cp paris.jar:derby.jar paris.storage.JdbcTripleReader "jdbc:derby:memory:check;create=true"
+   * </PRE>
+   *
+   * Creates a table whose keys reach both ends of the range of long, and
+   * checks that the table is read completely without the key, with the key,
+   * and with the key and a condition.
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      Announce.message("Usage: JdbcTripleReader <url of an empty database>");
+      return;
+    }
+    String url = args[0];
+    long[] keys = { Long.MIN_VALUE, Long.MIN_VALUE + 1, -5, -1, 0, 1, 42, Long.MAX_VALUE - 1, Long.MAX_VALUE };
+    // Keeps an in-memory database open during the check
+    Connection c = DriverManager.getConnection(url);
+    boolean ok = true;
+    try {
+      Statement s = c.createStatement();
+      s.execute("CREATE TABLE paris_check (id BIGINT, subject VARCHAR(100), predicate VARCHAR(100), object VARCHAR(100))");
+      Database.close(s);
+      PreparedStatement insert = c.prepareStatement("INSERT INTO paris_check VALUES (?, ?, ?, ?)");
+      for (int i = 0; i < keys.length; i++) {
+        insert.setLong(1, keys[i]);
+        insert.setString(2, "e" + i);
+        insert.setString(3, "p");
+        insert.setString(4, "o" + i);
+        insert.executeUpdate();
+      }
+      // Is skipped
+      insert.setLong(1, 7);
+      insert.setString(2, "e");
+      insert.setString(3, "p");
+      insert.setNull(4, Types.VARCHAR);
+      insert.executeUpdate();
+      Database.close(insert);
+      if (!c.getAutoCommit()) c.commit();
+      String[][] checks = { { null, null }, { "id", null }, { "id", "id >= 0" } };
+      for (String[] check : checks) {
+        Properties p = new Properties();
+        p.setProperty("url", url);
+        p.setProperty("table", "paris_check");
+        if (check[0] != null) p.setProperty("key", check[0]);
+        if (check[1] != null) p.setProperty("where", check[1]);
+        Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < keys.length; i++)
+          if (check[1] == null || keys[i] >= 0) expected.add("e" + i + " p o" + i);
+        File f = File.createTempFile("paris_check", EXTENSION);
+        f.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(f)) {
+          p.store(out, null);
+        }
+        final Set<String> found = Collections.synchronizedSet(new HashSet<String>());
+        new JdbcTripleReader(f, CHECK_THREADS).load(new TripleSink() {
+
+          @Override
+          public void triple(CharSequence subject, CharSequence predicate, CharSequence object) {
+            found.add(subject + " " + predicate + " " + object);
+          }
+        });
+        boolean same = found.equals(expected);
+        Announce.message(check[0] == null ? "Without key:" : "With key" + (check[1] == null ? ":" : " and condition:"), found.size(), "of", expected.size(),
+            "rows", same ? "OK" : "WRONG");
+        ok &= same;
+      }
+    } finally {
+      Database.close(c);
+    }
+    if (!ok) System.exit(1);
+  }
+}
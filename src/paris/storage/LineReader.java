@@ -0,0 +1,73 @@
+package paris.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads lines into a reusable buffer, so that reading a line does not create a
+ * String. Lines end at "\n", "\r" or "\r\n", as for BufferedReader.
+ */
+public class LineReader implements Closeable {
+
+  /** The input */
+  protected final Reader in;
+
+  /** Read buffer */
+  protected final char[] buffer = new char[64 * 1024];
+
+  /** Current position in the buffer */
+  protected int pos;
+
+  /** End of the valid data in the buffer */
+  protected int limit;
+
+  /** TRUE if the last line ended with "\r", so that a following "\n" is skipped */
+  protected boolean skipLF;
+
+  /** Constructor */
+  public LineReader(Reader in) {
+    this.in = in;
+  }
+
+  /** Reads the next line into the buffer. Returns FALSE at the end of the input */
+  public boolean next(StringBuilder line) throws IOException {
+    line.setLength(0);
+    boolean any = false;
+    while (true) {
+      if (pos == limit) {
+        limit = in.read(buffer);
+        pos = 0;
+        if (limit <= 0) {
+          limit = 0;
+          return (any);
+        }
+      }
+      if (skipLF) {
+        skipLF = false;
+        if (buffer[pos] == '\n') {
+          pos++;
+          continue;
+        }
+      }
+      any = true;
+      int start = pos;
+      while (pos < limit) {
+        char c = buffer[pos];
+        if (c == '\n' || c == '\r') {
+          line.append(buffer, start, pos - start);
+          pos++;
+          skipLF = (c == '\r');
+          return (true);
+        }
+        pos++;
+      }
+      line.append(buffer, start, pos - start);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
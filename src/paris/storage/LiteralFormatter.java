@@ -1,8 +1,6 @@
 package paris.storage;
 
 import javatools.parsers.Char;
-import javatools.parsers.DateParser;
-import javatools.parsers.NumberParser;
 
 /** Formats a literal*/
 public enum LiteralFormatter {
@@ -12,6 +10,11 @@ public enum LiteralFormatter {
 		public String format(String literal) {
 			return getString(literal);
 		}
+
+		@Override
+		public void format(StringBuilder literal) {
+			literal.setLength(stringLength(literal));
+		}
 	},	
 	
 	NORMALIZE {
@@ -25,17 +28,45 @@ public enum LiteralFormatter {
 
 		@Override
 		public String format(String literal) {
-			return(literal.replaceAll("-[#\\d][#\\d]-[#\\d][#\\d]", ""));
+			for (int i = 0; i < literal.length(); i++) {
+				if (isMonthAndDay(literal, i)) {
+					StringBuilder result = new StringBuilder(literal);
+					format(result);
+					return (result.toString());
+				}
+			}
+			return (literal);
+		}
+
+		/** Removes all "-MM-DD" in one pass, as replaceAll("-[#\\d][#\\d]-[#\\d][#\\d]", "")*/
+		@Override
+		public void format(StringBuilder literal) {
+			int write = 0;
+			int read = 0;
+			while (read < literal.length()) {
+				if (isMonthAndDay(literal, read)) {
+					read += 6;
+					continue;
+				}
+				literal.setCharAt(write++, literal.charAt(read++));
+			}
+			literal.setLength(write);
 		}
-		
 	}
 	;
 	/** Formats a string*/
 	public abstract String format(String literal);
+
+	/** Formats a literal in place*/
+	public void format(StringBuilder literal) {
+		String result = format(literal.toString());
+		literal.setLength(0);
+		literal.append(result);
+	}
 	
 	/** Formats a string with the formatters*/
 	public static String format(String object, LiteralFormatter... formatters) {
-		if (NumberParser.isNumberAndUnit(object) || DateParser.isDate(object))
+		if (isNumberAndUnit(object) || isDate(object))
 			object = '"' + object + '"';
 		else
 			if(!object.startsWith("\"")) return(object);
@@ -43,6 +74,131 @@ public enum LiteralFormatter {
 			object=formatters[i].format(object);
 		return object;
 	}
+
+	/**
+	 * Formats a string with the formatters as format(String, LiteralFormatter...)
+	 * does. Returns the object itself if nothing changes, else the buffer
+	 */
+	public static CharSequence format(CharSequence object, StringBuilder buffer, LiteralFormatter... formatters) {
+		buffer.setLength(0);
+		if (isNumberAndUnit(object) || isDate(object)) {
+			buffer.append('"').append(object).append('"');
+		} else {
+			if (object.length() == 0 || object.charAt(0) != '"') return (object);
+			buffer.append(object);
+		}
+		for (int i = 0; i < formatters.length; i++)
+			formatters[i].format(buffer);
+		return (buffer);
+	}
+
+  /** TRUE if the string is a number with an optional unit, as NumberParser.isNumberAndUnit, e.g. "-1.5e3#km^2"*/
+  public static boolean isNumberAndUnit(CharSequence s) {
+    int pos = numberEnd(s);
+    if (pos == -1) return (false);
+    if (pos == s.length()) return (true);
+    if (s.charAt(pos++) != '#') return (false);
+    int start = pos;
+    while (pos < s.length() && isUnitChar(s.charAt(pos)))
+      pos++;
+    if (pos == start) return (false);
+    return (pos == s.length() || pos + 2 == s.length() && s.charAt(pos) == '^' && isDigit(s.charAt(pos + 1)));
+  }
+
+  /** TRUE if the string is a number, as NumberParser.isFloat*/
+  public static boolean isFloat(CharSequence s) {
+    return (numberEnd(s) == s.length());
+  }
+
+  /** TRUE if the string is an integer, as NumberParser.isInt*/
+  public static boolean isInt(CharSequence s) {
+    int pos = digitsEnd(s, signEnd(s, 0));
+    return (pos != -1 && pos == s.length());
+  }
+
+  /** Returns the end of the number at the start of the string, or -1*/
+  protected static int numberEnd(CharSequence s) {
+    int pos = digitsEnd(s, signEnd(s, 0));
+    if (pos == -1) return (-1);
+    if (pos < s.length() && s.charAt(pos) == '.') {
+      int end = digitsEnd(s, pos + 1);
+      if (end != -1) pos = end;
+    }
+    if (pos < s.length() && (s.charAt(pos) == 'e' || s.charAt(pos) == 'E')) {
+      int exponent = pos + 1;
+      if (exponent < s.length() && s.charAt(exponent) == '-') exponent++;
+      int end = digitsEnd(s, exponent);
+      if (end != -1) pos = end;
+    }
+    return (pos);
+  }
+
+  /** Skips an optional sign*/
+  protected static int signEnd(CharSequence s, int pos) {
+    if (pos < s.length() && (s.charAt(pos) == '-' || s.charAt(pos) == '+')) return (pos + 1);
+    return (pos);
+  }
+
+  /** Returns the end of the digits at pos, or -1 if there are none*/
+  protected static int digitsEnd(CharSequence s, int pos) {
+    int start = pos;
+    while (pos < s.length() && isDigit(s.charAt(pos)))
+      pos++;
+    return (pos == start ? -1 : pos);
+  }
+
+  protected static boolean isDigit(char c) {
+    return (c >= '0' && c <= '9');
+  }
+
+  protected static boolean isUnitChar(char c) {
+    return ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '/' || c == '%');
+  }
+
+  /**
+   * TRUE if the string is a date, as DateParser.isDate: a boundary character
+   * followed by year, month and day, e.g. "1990-01-##" with the boundary "1"
+   */
+  public static boolean isDate(CharSequence s) {
+    if (s.length() < 6 || !isDateBoundary(s.charAt(0))) return (false);
+    int pos = 1;
+    if (s.charAt(pos) == '-') pos++;
+    int start = pos;
+    while (pos < s.length() && isDateDigit(s.charAt(pos)))
+      pos++;
+    if (pos == start || pos == s.length() || s.charAt(pos) != '-') return (false);
+    pos = dateFieldEnd(s, pos + 1);
+    if (pos == -1 || pos == s.length() || s.charAt(pos) != '-') return (false);
+    return (dateFieldEnd(s, pos + 1) == s.length());
+  }
+
+  /** Returns the end of a month or day of 1 or 2 digits at pos, or -1*/
+  protected static int dateFieldEnd(CharSequence s, int pos) {
+    if (pos >= s.length() || !isDateDigit(s.charAt(pos))) return (-1);
+    if (pos + 1 < s.length() && isDateDigit(s.charAt(pos + 1))) return (pos + 2);
+    return (pos + 1);
+  }
+
+  /** Characters that DateParser.DATEPATTERN accepts before a date*/
+  protected static boolean isDateBoundary(char c) {
+    return ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-' || c == '!' || c == ':'
+        || c == '<' || c == '=' || c == '?');
+  }
+
+  protected static boolean isDateDigit(char c) {
+    return ((c >= '0' && c <= '9') || c == '#' || c == 'X');
+  }
+
+  /** TRUE if "-MM-DD" (with digits or '#') starts at pos*/
+  protected static boolean isMonthAndDay(CharSequence s, int pos) {
+    if (pos + 6 > s.length() || s.charAt(pos) != '-' || s.charAt(pos + 3) != '-') return (false);
+    return (isDigitOrHash(s.charAt(pos + 1)) && isDigitOrHash(s.charAt(pos + 2)) && isDigitOrHash(s.charAt(pos + 4))
+        && isDigitOrHash(s.charAt(pos + 5)));
+  }
+
+  protected static boolean isDigitOrHash(char c) {
+    return (c == '#' || isDigit(c));
+  }
 	
 	/** returns the string part of a literal (with quotes)*/
   public static String getString(String stringLiteral) {
@@ -51,6 +207,28 @@ public enum LiteralFormatter {
     return (split[0]);
   }
   
+  /** returns the length of the string part of a literal (with quotes)*/
+  public static int stringLength(CharSequence s) {
+    // Get the language tag
+    int at = lastIndexOf(s, '@', s.length() - 1);
+    if (at > 0 && lastIndexOf(s, '"', s.length() - 1) < at) return (at);
+    // Get the data type
+    for (int dta = lastIndexOf(s, '"', s.length() - 1); dta > 0; dta = lastIndexOf(s, '"', dta - 1)) {
+      if (dta + 2 < s.length() && s.charAt(dta + 1) == '^' && s.charAt(dta + 2) == '^') {
+        if (lastIndexOf(s, '"', s.length() - 1) == dta) return (dta + 1);
+        break;
+      }
+    }
+    return (s.length());
+  }
+
+  /** Returns the last position of c at or before from, or -1*/
+  protected static int lastIndexOf(CharSequence s, char c, int from) {
+    for (int i = from; i >= 0; i--)
+      if (s.charAt(i) == c) return (i);
+    return (-1);
+  }
+
   /** Splits a literal into literal (with quotes) and datatype, followed by the language. Non-existent components are NULL*/
   public static String[] literalAndDatatypeAndLanguage(String s) {
     if (s == null || !s.startsWith("\"")) return (null);
@@ -0,0 +1,86 @@
+package paris.storage;
+
+/**
+ * The values of the literals of a prepared fact store, as Config.stripQuotes()
+ * returns them: the text without the quotes, the datatype and the language
+ * tag. The value of a literal is always a part of its name, which starts after
+ * the opening quote, so that the index keeps only where the value ends and the
+ * hash code of the value. Values of two fact stores can then be compared
+ * without stripping the names on every comparison.
+ *
+ * FactStoreSnapshot saves the ends and the hash codes with the facts. A
+ * MappedLiteralValues reads them from the mapped snapshot.
+ */
+public class LiteralValues {
+
+  /** The fact store */
+  protected final FactStore fs;
+
+  /** The value of literal l is at 1 to ends[l]-1 of its name, 0 for entities that are not literals. NULL in a MappedLiteralValues */
+  protected final int[] ends;
+
+  /** The hash code of the value of each literal, as String.hashCode(). NULL in a MappedLiteralValues */
+  protected final int[] hashes;
+
+  /** Computes the values of the literals of the fact store, in parallel */
+  public LiteralValues(final FactStore fs) {
+    this.fs = fs;
+    ends = new int[fs.numEntities()];
+    hashes = new int[fs.numEntities()];
+    fs.inParallel(0, fs.numEntities(), new FactStore.EntityRange() {
+
+      public void run(int from, int to) {
+        for (int e = from; e < to; e++) {
+          if (!fs.isLiteral(e)) continue;
+          String name = fs.entity(e);
+          int end = valueEnd(name);
+          int hash = 0;
+          for (int i = 1; i < end; i++)
+            hash = 31 * hash + name.charAt(i);
+          ends[e] = end;
+          hashes[e] = hash;
+        }
+      }
+    });
+  }
+
+  /** Constructor for values read from a snapshot */
+  protected LiteralValues(FactStore fs, int[] ends, int[] hashes) {
+    this.fs = fs;
+    this.ends = ends;
+    this.hashes = hashes;
+  }
+
+  /** Returns the end of the value of a literal, as Config.stripQuotes() cuts it */
+  protected static int valueEnd(String literal) {
+    int end = literal.length();
+    int datatype = literal.indexOf("^^", 1);
+    if (datatype != -1) end = datatype;
+    int language = literal.indexOf("\"@", 1);
+    if (language != -1 && language + 2 <= end) end = language;
+    if (end > 1 && literal.charAt(end - 1) == '"') end--;
+    return (end);
+  }
+
+  /** Returns the value of a literal */
+  public String value(int literal) {
+    return (fs.entity(literal).substring(1, end(literal)));
+  }
+
+  /** Returns the end of the value of a literal in its name */
+  protected int end(int literal) {
+    return (ends[literal]);
+  }
+
+  /** Returns the hash code of the value of a literal */
+  public int hash(int literal) {
+    return (hashes[literal]);
+  }
+
+  /** TRUE if the literal has the same value as the literal of the other index */
+  public boolean sameValue(int literal, LiteralValues other, int otherLiteral) {
+    int length = end(literal) - 1;
+    if (length != other.end(otherLiteral) - 1 || hash(literal) != other.hash(otherLiteral)) return (false);
+    return (fs.entity(literal).regionMatches(1, other.fs.entity(otherLiteral), 1, length));
+  }
+}
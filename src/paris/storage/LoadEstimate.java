@@ -0,0 +1,362 @@
+package paris.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javatools.administrative.Announce;
+
+/**
+ * Estimates how many facts and names the files of a knowledge base contain, by
+ * a fast pass over their bytes. The facts are counted by the lines, the
+ * distinct names (subjects and objects) by a HyperLogLog sketch of their
+ * bytes. Names are not decoded or compressed, so a name that occurs in
+ * different spellings is counted more than once. HDT files are not scanned:
+ * their facts and names are counted in their dictionary and triples.
+ * Compressed files are scanned only up to SAMPLE_SIZE compressed bytes, and
+ * the counts of the sample are scaled to the size of the file (which rather
+ * overestimates the names, as names recur across the file). The fact store
+ * uses the estimate to size its dictionaries and load buffers before loading.
+ */
+public class LoadEstimate {
+
+  /** Uncompressed files larger than this are scanned by several threads */
+  public static final long MIN_SPLIT_SIZE = 64L * 1024 * 1024;
+
+  /** Number of bytes of a compressed file that are decompressed and scanned */
+  public static final long SAMPLE_SIZE = 8L * 1024 * 1024;
+
+  /** Estimated number of facts per file */
+  protected final Map<File, Long> facts = new HashMap<File, Long>();
+
+  /** Sketch of the names of all scanned files */
+  protected final Sketch names = new Sketch();
+
+  /** Number of names that are not in the sketch: the names of the HDT files, and the names of compressed files beyond their samples */
+  protected long countedNames;
+
+  /** Returns the estimated number of facts in a file, 0 if the file was not scanned */
+  public long facts(File f) {
+    Long result = facts.get(f);
+    return (result == null ? 0 : result);
+  }
+
+  /** Returns the estimated number of facts in all files */
+  public long facts() {
+    long result = 0;
+    for (long n : facts.values())
+      result += n;
+    return (result);
+  }
+
+  /** Returns the estimated number of distinct names in all files */
+  public long names() {
+    return (names.estimate() + countedNames);
+  }
+
+  /** Scans the files and the files in the folders, using the threads */
+  public static LoadEstimate scan(List<File> files, int threads) throws IOException {
+    LoadEstimate result = new LoadEstimate();
+    List<File> all = new ArrayList<File>();
+    addFiles(files, all);
+    for (File f : all) {
+      if (HdtReader.accepts(f)) {
+        long[] sizes = new HdtReader(f, 1).sizes();
+        result.facts.put(f, sizes[0]);
+        result.countedNames += sizes[1];
+        continue;
+      }
+      List<Range> ranges = ranges(f, threads);
+      List<Thread> running = new ArrayList<Thread>();
+      for (Range range : ranges) {
+        Thread thread = new Thread(range);
+        running.add(thread);
+        thread.start();
+      }
+      try {
+        for (Thread thread : running)
+          thread.join();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      long n = 0;
+      for (Range range : ranges) {
+        if (range.failure != null) throw range.failure;
+        n += (long) (range.facts * range.scale);
+        result.names.addAll(range.names);
+        result.countedNames += (long) (range.names.estimate() * (range.scale - 1));
+      }
+      result.facts.put(f, n);
+    }
+    return (result);
+  }
+
+  /** Adds the files that are loaded from text or HDT, and the files in the folders */
+  protected static void addFiles(List<File> files, List<File> result) {
+    for (File f : files) {
+      if (f.isDirectory()) addFiles(Arrays.asList(f.listFiles()), result);
+      else if (Parser.accepts(f) || HdtReader.accepts(f)) result.add(f);
+    }
+  }
+
+  /** Returns the ranges in which a file is scanned, one per thread */
+  protected static List<Range> ranges(File f, int threads) {
+    List<Range> result = new ArrayList<Range>();
+    long size = f.length();
+    boolean compressed = CompressedInput.compression(f) != null;
+    int n = compressed ? 1 : (int) Math.max(1, Math.min(threads, size / MIN_SPLIT_SIZE));
+    for (int i = 0; i < n; i++)
+      result.add(new Range(f, size * i / n, size * (i + 1) / n, compressed ? threads : 0));
+    return (result);
+  }
+
+  /** The lines that start in a range of bytes of a file */
+  protected static class Range implements Runnable {
+
+    protected final File file;
+
+    protected final long from;
+
+    protected final long to;
+
+    /** Number of threads that decompress the file, 0 if the file is not compressed */
+    protected final int threads;
+
+    /** Sketch of the names in the range */
+    protected final Sketch names = new Sketch();
+
+    /** Number of facts in the range */
+    protected long facts;
+
+    /** Factor from the counts of the range to the counts of the file */
+    protected double scale = 1;
+
+    /** Error while reading, NULL for none */
+    protected IOException failure;
+
+    /** Bytes of the current line */
+    protected byte[] line = new byte[1024];
+
+    protected int len;
+
+    public Range(File file, long from, long to, int threads) {
+      this.file = file;
+      this.from = from;
+      this.to = to;
+      this.threads = threads;
+    }
+
+    /** Scans the range */
+    @Override
+    public void run() {
+      try {
+        if (threads > 0) scanStream();
+        else scanChannel();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+
+    /** Scans the first SAMPLE_SIZE bytes of a compressed file, and sets the scale from their compression ratio */
+    protected void scanStream() throws IOException {
+      try (ParallelDecompressor in = CompressedInput.decoder(file, threads)) {
+        byte[] buffer = new byte[1 << 16];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+          bytes(buffer, 0, read);
+          if (in.position() >= SAMPLE_SIZE) {
+            scale = (double) file.length() / in.position();
+            return;
+          }
+        }
+        endLine();
+      }
+    }
+
+    /** Scans the lines that start in the range of an uncompressed file */
+    protected void scanChannel() throws IOException {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        long pos = from;
+        // A line that starts before the range belongs to the previous range
+        boolean skip = from > 0;
+        if (skip) pos--;
+        while (true) {
+          buffer.clear();
+          int read = channel.read(buffer, pos);
+          if (read <= 0) break;
+          byte[] bytes = buffer.array();
+          int start = 0;
+          if (skip) {
+            while (start < read && bytes[start] != '\n')
+              start++;
+            if (start == read) {
+              pos += read;
+              continue;
+            }
+            skip = false;
+            start++;
+          }
+          // Stop at the first line end behind the range
+          int end = read;
+          boolean done = false;
+          if (pos + read >= to) {
+            for (int i = (int) Math.max(start, to - 1 - pos); i < read; i++) {
+              if (bytes[i] == '\n') {
+                end = i;
+                done = true;
+                break;
+              }
+            }
+          }
+          bytes(bytes, start, end);
+          pos += read;
+          if (done) break;
+        }
+        endLine();
+      }
+    }
+
+    /** Feeds bytes into the current line */
+    protected void bytes(byte[] bytes, int start, int end) {
+      for (int i = start; i < end; i++) {
+        byte b = bytes[i];
+        if (b == '\n' || b == '\r') {
+          endLine();
+          continue;
+        }
+        if (len == line.length) line = Arrays.copyOf(line, line.length * 2);
+        line[len++] = b;
+      }
+    }
+
+    /** Counts the current line and adds its names to the sketch */
+    protected void endLine() {
+      int start = 0;
+      int end = len;
+      len = 0;
+      while (start < end && (line[start] & 0xFF) <= ' ')
+        start++;
+      while (end > start && (line[end - 1] & 0xFF) <= ' ')
+        end--;
+      if (start == end) return;
+      for (int i = start; i < end; i++) {
+        if (line[i] == '\t') {
+          // Old YAGO TSV files start lines with "#id"
+          facts++;
+          tsvNames(start, end);
+          return;
+        }
+      }
+      if (line[start] == '#' || line[start] == '@') return;
+      facts++;
+      tripleNames(start, end);
+    }
+
+    /** Adds subject and object of a triple line "subject predicate object ." */
+    protected void tripleNames(int start, int end) {
+      int subjectEnd = start;
+      while (subjectEnd < end && !isSpace(line[subjectEnd]))
+        subjectEnd++;
+      names.add(line, start, subjectEnd);
+      int i = subjectEnd;
+      while (i < end && isSpace(line[i]))
+        i++;
+      while (i < end && !isSpace(line[i]))
+        i++;
+      while (i < end && isSpace(line[i]))
+        i++;
+      if (end > i && line[end - 1] == '.') end--;
+      while (end > i && isSpace(line[end - 1]))
+        end--;
+      if (i < end) names.add(line, i, end);
+    }
+
+    /** Adds subject and object of a TSV line, with the columns that the TsvParser uses */
+    protected void tsvNames(int start, int end) {
+      int[] columns = new int[10];
+      int n = 0;
+      int columnStart = start;
+      for (int i = start; i <= end && n < 5; i++) {
+        if (i < end && line[i] != '\t') continue;
+        columns[2 * n] = columnStart;
+        columns[2 * n + 1] = i;
+        n++;
+        columnStart = i + 1;
+      }
+      boolean id = line[columns[0]] == '#';
+      int subject = n == 2 || (n == 3 && !id) ? 0 : 1;
+      int object = n == 2 ? 1 : n == 3 || id ? 2 : 3;
+      if (object >= n) return;
+      names.add(line, columns[2 * subject], columns[2 * subject + 1]);
+      names.add(line, columns[2 * object], columns[2 * object + 1]);
+    }
+
+    protected static boolean isSpace(byte b) {
+      return (b == ' ' || b == '\t');
+    }
+  }
+
+  /** HyperLogLog sketch of byte strings, with an error of about 1% */
+  protected static class Sketch {
+
+    /** Number of bits that choose a register */
+    protected static final int BITS = 14;
+
+    protected final byte[] registers = new byte[1 << BITS];
+
+    /** Adds the bytes s[start,end) */
+    public void add(byte[] s, int start, int end) {
+      long h = 0xCBF29CE484222325L;
+      for (int i = start; i < end; i++)
+        h = (h ^ s[i]) * 0x100000001B3L;
+      h ^= h >>> 33;
+      h *= 0xFF51AFD7ED558CCDL;
+      h ^= h >>> 33;
+      int register = (int) (h >>> (64 - BITS));
+      byte rank = (byte) (Long.numberOfLeadingZeros((h << BITS) | (1L << (BITS - 1))) + 1);
+      if (rank > registers[register]) registers[register] = rank;
+    }
+
+    /** Adds the names of another sketch */
+    public void addAll(Sketch other) {
+      for (int i = 0; i < registers.length; i++)
+        if (other.registers[i] > registers[i]) registers[i] = other.registers[i];
+    }
+
+    /** Returns the estimated number of distinct byte strings */
+    public long estimate() {
+      int m = registers.length;
+      double sum = 0;
+      int zeros = 0;
+      for (byte r : registers) {
+        sum += Math.scalb(1.0, -r);
+        if (r == 0) zeros++;
+      }
+      double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+      // Linear counting for small sets
+      if (estimate <= 2.5 * m && zeros > 0) estimate = m * Math.log((double) m / zeros);
+      return ((long) estimate);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return ("about " + facts() + " facts and " + names() + " names in " + facts.size() + " files");
+  }
+
+  /** Prints the estimate for the files */
+  public static void main(String[] args) throws Exception {
+    List<File> files = new ArrayList<File>();
+    for (String arg : args)
+      files.add(new File(arg));
+    Announce.message(scan(files, Runtime.getRuntime().availableProcessors()));
+  }
+}
@@ -0,0 +1,87 @@
+package paris.storage;
+
+import paris.Setting;
+
+/**
+ * A prepared fact store whose facts, entity names, caches, type index and
+ * literal values stay in a memory-mapped snapshot instead of on the heap, so
+ * that the operating system pages in only the parts that the alignment reads. It answers the same queries as a fact
+ * store that was loaded into memory, but no facts or names can be added. It is
+ * created by FactStoreSnapshot if the setting asks for mapped snapshots.
+ */
+public class MappedFactStore extends FactStore {
+
+  /** The facts about subject s are at offsets[s] to offsets[s+1]-1 of predicates and objects, as ints */
+  protected MappedRegion offsets;
+
+  protected MappedRegion predicates;
+
+  protected MappedRegion objects;
+
+  /** The caches of isClass() and isLiteral(), as bits written by FactStoreSnapshot.writeBits() */
+  protected MappedRegion classBits;
+
+  protected MappedRegion literalBits;
+
+  /** Constructor */
+  public MappedFactStore(Setting setting, String prefix, String uri, int joinLengthLimit, LiteralFormatter... formis) {
+    super(setting, prefix, uri, joinLengthLimit, formis);
+  }
+
+  @Override
+  public int degree(int subject) {
+    return (offsets.getInt(subject + 1) - offsets.getInt(subject));
+  }
+
+  @Override
+  public int predicateAt(int subject, int i) {
+    return (predicates.getInt(offsets.getInt(subject) + i));
+  }
+
+  @Override
+  public int objectAt(int subject, int i) {
+    return (objects.getInt(offsets.getInt(subject) + i));
+  }
+
+  @Override
+  protected int lowerBound(int subject, int predicate) {
+    int low = offsets.getInt(subject);
+    int high = offsets.getInt(subject + 1);
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (predicates.getInt(middle) < predicate) low = middle + 1;
+      else high = middle;
+    }
+    return (low);
+  }
+
+  @Override
+  public int firstFact(int subject, int predicate) {
+    return (lowerBound(subject, predicate) - offsets.getInt(subject));
+  }
+
+  @Override
+  public int endFact(int subject, int predicate) {
+    return (lowerBound(subject, predicate + 1) - offsets.getInt(subject));
+  }
+
+  @Override
+  public int numFacts() {
+    return (offsets.getInt(numEntities()));
+  }
+
+  @Override
+  public boolean isClass(int e) {
+    return ((classBits.getByte(e >>> 3) & (1 << (e & 7))) != 0);
+  }
+
+  @Override
+  public boolean isLiteral(int e) {
+    return ((literalBits.getByte(e >>> 3) & (1 << (e & 7))) != 0);
+  }
+
+  @Override
+  public void add(int subject, int predicate, int object) {
+    throw new UnsupportedOperationException("Cannot add facts to a mapped fact store");
+  }
+}
@@ -0,0 +1,32 @@
+package paris.storage;
+
+/**
+ * Literal values whose ends and hash codes stay in a memory-mapped snapshot
+ * instead of on the heap. It is created by FactStoreSnapshot for a
+ * MappedFactStore.
+ */
+public class MappedLiteralValues extends LiteralValues {
+
+  /** The ends of the values, as ints */
+  protected final MappedRegion mappedEnds;
+
+  /** The hash codes of the values, as ints */
+  protected final MappedRegion mappedHashes;
+
+  /** Constructor */
+  public MappedLiteralValues(FactStore fs, MappedRegion ends, MappedRegion hashes) {
+    super(fs, null, null);
+    mappedEnds = ends;
+    mappedHashes = hashes;
+  }
+
+  @Override
+  protected int end(int literal) {
+    return (mappedEnds.getInt(literal));
+  }
+
+  @Override
+  public int hash(int literal) {
+    return (mappedHashes.getInt(literal));
+  }
+}
@@ -0,0 +1,295 @@
+package paris.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javatools.administrative.Announce;
+import javatools.filehandlers.FileSet;
+
+/**
+ * Loads one N-Triples file into a fact store by memory-mapping it, cutting it
+ * into newline-aligned chunks and parsing the chunks in parallel. FactStore.load
+ * parallelizes only across files, so this is what makes a single huge dump
+ * scale with the number of cores. Lines are parsed as the TurtleParser parses
+ * them, but directly from the mapped bytes. Files with "@prefix" or "@base"
+ * lines are left to the TurtleParser, because these lines apply only to the
+ * lines after them, whereas the chunks are parsed in any order.
+ */
+public class MappedNTriplesReader {
+
+  /** Largest chunk that we map at once */
+  public static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+  /** Smallest chunk that is worth a thread */
+  public static final int MIN_CHUNK_SIZE = 1024 * 1024;
+
+  /** The file */
+  protected final File file;
+
+  /** Number of parsing threads */
+  protected final int nThreads;
+
+  /** Constructor */
+  public MappedNTriplesReader(File f, int nThreads) {
+    this.file = f;
+    this.nThreads = Math.max(1, nThreads);
+  }
+
+  /** TRUE if this reader can load the file */
+  public static boolean accepts(File f) {
+    return (f.isFile() && FileSet.extension(f).equalsIgnoreCase(".nt"));
+  }
+
+  /** Returns the start offsets of the chunks, followed by the file size */
+  protected long[] chunkBoundaries(FileChannel channel) throws IOException {
+    long size = channel.size();
+    // Several chunks per thread, so that threads that are done early can help
+    long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size / (nThreads * 4L)));
+    List<Long> boundaries = new ArrayList<>();
+    boundaries.add(0L);
+    ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    long pos = chunkSize;
+    while (pos < size) {
+      // Move the boundary behind the next line end
+      long next = -1;
+      long readPos = pos - 1;
+      while (next == -1 && readPos < size) {
+        buffer.clear();
+        int read = channel.read(buffer, readPos);
+        if (read <= 0) break;
+        for (int i = 0; i < read; i++) {
+          if (buffer.get(i) == '\n') {
+            next = readPos + i + 1;
+            break;
+          }
+        }
+        readPos += read;
+      }
+      if (next == -1 || next >= size) break;
+      boundaries.add(next);
+      pos = next + chunkSize;
+    }
+    boundaries.add(size);
+    long[] result = new long[boundaries.size()];
+    for (int i = 0; i < result.length; i++)
+      result[i] = boundaries.get(i);
+    return (result);
+  }
+
+  /** Loads the file into the fact store. Returns FALSE if the file has directives and was not loaded */
+  public boolean load(final FactStore fs) throws IOException {
+    return (load(fs, 0));
+  }
+
+  /**
+   * Loads the file into the fact store, which makes room for the expected
+   * number of facts in advance. Returns FALSE if the file has directives and
+   * was not loaded
+   */
+  public boolean load(final FactStore fs, long expectedFacts) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); final FileChannel channel = raf.getChannel()) {
+      final long[] boundaries = chunkBoundaries(channel);
+      if (hasDirectives(channel, boundaries)) {
+        Announce.message("Parsing", file.getName(), "line by line, because it has directives");
+        return (false);
+      }
+      final AtomicInteger nextChunk = new AtomicInteger();
+      final Exception[] failure = new Exception[1];
+      List<Thread> threads = new ArrayList<>();
+      final int numThreads = Math.min(nThreads, boundaries.length - 1);
+      // Every thread takes about the same number of chunks
+      final long factsPerThread = expectedFacts / Math.max(1, numThreads);
+      for (int t = 0; t < numThreads; t++) {
+        Thread thread = new Thread() {
+
+          public void run() {
+            if (factsPerThread > 0) fs.reserveFacts(factsPerThread);
+            byte[] line = new byte[1024];
+            StringBuilder chars = new StringBuilder();
+            StringBuilder[] terms = Parser.newTermBuffers();
+            int chunk;
+            while (failure[0] == null && (chunk = nextChunk.getAndIncrement()) < boundaries.length - 1) {
+              try {
+                long length = boundaries[chunk + 1] - boundaries[chunk];
+                if (length > Integer.MAX_VALUE) throw new IOException("Line too long in " + file + " at " + boundaries[chunk]);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, boundaries[chunk], length);
+                line = parseChunk(buffer, line, chars, terms, fs);
+              } catch (IOException | RuntimeException e) {
+                synchronized (failure) {
+                  if (failure[0] == null) failure[0] = e;
+                }
+                return;
+              }
+            }
+          }
+        };
+        threads.add(thread);
+        thread.start();
+      }
+      try {
+        for (Thread thread : threads)
+          thread.join();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      // A failed chunk must not leave the knowledge base partially loaded without an error
+      rethrow(failure[0]);
+    }
+    return (true);
+  }
+
+  /** Rethrows the failure of a thread, if any */
+  protected static void rethrow(Exception failure) throws IOException {
+    if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+    if (failure != null) throw (IOException) failure;
+  }
+
+  /** TRUE if a line of a chunk starts with "@", after characters up to space */
+  protected static boolean hasDirective(MappedByteBuffer buffer) {
+    int limit = buffer.limit();
+    boolean lineStart = true;
+    for (int i = 0; i < limit; i++) {
+      byte b = buffer.get(i);
+      if (b == '\n' || b == '\r') {
+        lineStart = true;
+        continue;
+      }
+      if (!lineStart || (b & 0xFF) <= ' ') continue;
+      if (b == '@') return (true);
+      lineStart = false;
+    }
+    return (false);
+  }
+
+  /** TRUE if a line of the file is a directive. Scans the chunks in parallel */
+  protected boolean hasDirectives(final FileChannel channel, final long[] boundaries) throws IOException {
+    final AtomicInteger nextChunk = new AtomicInteger();
+    final boolean[] found = new boolean[1];
+    final Exception[] failure = new Exception[1];
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < Math.min(nThreads, boundaries.length - 1); t++) {
+      Thread thread = new Thread() {
+
+        public void run() {
+          int chunk;
+          while (!found[0] && failure[0] == null && (chunk = nextChunk.getAndIncrement()) < boundaries.length - 1) {
+            try {
+              long length = boundaries[chunk + 1] - boundaries[chunk];
+              if (length > Integer.MAX_VALUE) throw new IOException("Line too long in " + file + " at " + boundaries[chunk]);
+              if (hasDirective(channel.map(FileChannel.MapMode.READ_ONLY, boundaries[chunk], length))) found[0] = true;
+            } catch (IOException | RuntimeException e) {
+              synchronized (failure) {
+                if (failure[0] == null) failure[0] = e;
+              }
+              return;
+            }
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    try {
+      for (Thread thread : threads)
+        thread.join();
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+    rethrow(failure[0]);
+    return (found[0]);
+  }
+
+  /** Parses all lines of a chunk. Returns the (possibly enlarged) line buffer */
+  protected byte[] parseChunk(MappedByteBuffer buffer, byte[] line, StringBuilder chars, StringBuilder[] terms, FactStore fs) {
+    int limit = buffer.limit();
+    int len = 0;
+    for (int i = 0; i < limit; i++) {
+      byte b = buffer.get(i);
+      if (b == '\n' || b == '\r') {
+        parseLine(line, len, chars, terms, fs);
+        len = 0;
+        continue;
+      }
+      if (len == line.length) line = Arrays.copyOf(line, line.length * 2);
+      line[len++] = b;
+    }
+    parseLine(line, len, chars, terms, fs);
+    return (line);
+  }
+
+  /** Smallest code points of UTF-8 sequences by number of continuation bytes */
+  protected static final int[] MIN_CODE_POINT = { 0, 0x80, 0x800, 0x10000 };
+
+  /** Decodes UTF-8 into the buffer without creating a String. Returns FALSE for malformed input */
+  protected static boolean decode(byte[] bytes, int len, StringBuilder out) {
+    out.setLength(0);
+    int i = 0;
+    while (i < len) {
+      int b = bytes[i];
+      if (b >= 0) {
+        out.append((char) b);
+        i++;
+        continue;
+      }
+      int n;
+      int codePoint;
+      if ((b & 0xE0) == 0xC0) {
+        n = 1;
+        codePoint = b & 0x1F;
+      } else if ((b & 0xF0) == 0xE0) {
+        n = 2;
+        codePoint = b & 0x0F;
+      } else if ((b & 0xF8) == 0xF0) {
+        n = 3;
+        codePoint = b & 0x07;
+      } else return (false);
+      if (i + n >= len) return (false);
+      for (int k = 1; k <= n; k++) {
+        int c = bytes[i + k];
+        if ((c & 0xC0) != 0x80) return (false);
+        codePoint = (codePoint << 6) | (c & 0x3F);
+      }
+      if (codePoint < MIN_CODE_POINT[n] || codePoint > Character.MAX_CODE_POINT || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) return (false);
+      out.appendCodePoint(codePoint);
+      i += n + 1;
+    }
+    return (true);
+  }
+
+  /** Parses one line and adds its fact to the fact store */
+  protected void parseLine(byte[] bytes, int len, StringBuilder line, StringBuilder[] terms, FactStore fs) {
+    if (!decode(bytes, len, line)) {
+      // Let the standard decoder deal with malformed input
+      line.setLength(0);
+      line.append(new String(bytes, 0, len, StandardCharsets.UTF_8));
+    }
+    int start = 0;
+    int end = line.length();
+    while (start < end && line.charAt(start) <= ' ')
+      start++;
+    while (end > start && line.charAt(end - 1) <= ' ')
+      end--;
+    if (start == end || line.charAt(start) == '#') return;
+    if (end - start < 2 || line.charAt(end - 1) != '.' || line.charAt(end - 2) != ' ') {
+      warning("Line does not end with dot:", line.substring(start, end));
+      return;
+    }
+    if (!Parser.TurtleParser.parseTriple(line, start, end - 2, "", fs.prefixes(), terms, fs)) warning("Cannot parse line:", line.substring(start, end - 2));
+  }
+
+  /** Prints a warning from a parsing thread */
+  protected static void warning(Object... o) {
+    synchronized (Announce.blanks) {
+      Announce.warning(o);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package paris.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A read-only name dictionary that lives in a memory-mapped snapshot instead
+ * of on the heap. The snapshot holds the UTF-8 bytes of all names, the
+ * position of each name in these bytes, and an open-addressing hash table of
+ * the ids, as written by FactStoreSnapshot. Names are decoded on every
+ * lookup, so that only the names in use are in memory.
+ */
+public class MappedNameDictionary extends NameDictionary {
+
+  /** Number of names */
+  protected final int numNames;
+
+  /** The name of id i is at offsets[i] to offsets[i+1]-1 of the bytes, as longs */
+  protected final MappedRegion offsets;
+
+  /** The UTF-8 bytes of the names */
+  protected final MappedRegion bytes;
+
+  /** Hash table of the ids, -1 for free slots, as ints */
+  protected final MappedRegion table;
+
+  /** Mask of the slots of the hash table */
+  protected final int mask;
+
+  /** Constructor */
+  public MappedNameDictionary(int numNames, MappedRegion offsets, MappedRegion bytes, MappedRegion table) {
+    this.numNames = numNames;
+    this.offsets = offsets;
+    this.bytes = bytes;
+    this.table = table;
+    mask = (int) (table.length() / 4) - 1;
+  }
+
+  @Override
+  public int size() {
+    return (numNames);
+  }
+
+  /** Returns the UTF-8 bytes of the name of an id */
+  protected byte[] bytes(int id) {
+    long position = offsets.getLong(id);
+    byte[] result = new byte[(int) (offsets.getLong(id + 1) - position)];
+    bytes.get(position, result, 0, result.length);
+    return (result);
+  }
+
+  @Override
+  public String name(int id) {
+    if (id >= numNames) throw new ArrayIndexOutOfBoundsException(id);
+    return (new String(bytes(id), StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public int indexOf(CharSequence name) {
+    int hash = hash(name);
+    byte[] utf8 = name.toString().getBytes(StandardCharsets.UTF_8);
+    for (int i = slot(hash, mask);; i = (i + 1) & mask) {
+      int id = table.getInt(i);
+      if (id == -1) return (-1);
+      if (offsets.getLong(id + 1) - offsets.getLong(id) == utf8.length && Arrays.equals(bytes(id), utf8)) return (id);
+    }
+  }
+
+  @Override
+  public int getOrAdd(CharSequence name) {
+    int id = indexOf(name);
+    if (id == -1) throw new UnsupportedOperationException("Cannot add " + name + " to a mapped dictionary");
+    return (id);
+  }
+
+  @Override
+  public int add(String name) {
+    throw new UnsupportedOperationException("Cannot add " + name + " to a mapped dictionary");
+  }
+
+  @Override
+  public void ensureCapacity(int names) {
+  }
+
+  @Override
+  public void trimToSize() {
+  }
+}
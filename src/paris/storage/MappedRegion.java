@@ -0,0 +1,71 @@
+package paris.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only region of a file, memory-mapped in segments so that it can be
+ * larger than 2 GB. The region is read as an array of ints, an array of longs
+ * or as bytes. The mapping stays valid after the file is closed.
+ */
+public class MappedRegion {
+
+  /** Size of the segments, a multiple of 8 so that no int or long spans two segments */
+  protected static final int SEGMENT_BITS = 30;
+
+  protected static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+
+  protected final MappedByteBuffer[] segments;
+
+  /** Length of the region in bytes */
+  protected final long length;
+
+  /** Maps the given number of bytes of the file from the position on */
+  public MappedRegion(FileChannel channel, long position, long length) throws IOException {
+    this.length = length;
+    segments = new MappedByteBuffer[(int) ((length + SEGMENT_MASK) >>> SEGMENT_BITS)];
+    for (int i = 0; i < segments.length; i++) {
+      long start = (long) i << SEGMENT_BITS;
+      segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + start, Math.min(1L << SEGMENT_BITS, length - start));
+    }
+  }
+
+  /** Returns the length of the region in bytes */
+  public long length() {
+    return (length);
+  }
+
+  /** Returns the i-th int of the region */
+  public int getInt(long i) {
+    long position = i << 2;
+    return (segments[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & SEGMENT_MASK)));
+  }
+
+  /** Returns the i-th long of the region */
+  public long getLong(long i) {
+    long position = i << 3;
+    return (segments[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & SEGMENT_MASK)));
+  }
+
+  /** Returns the byte at the position of the region */
+  public byte getByte(long position) {
+    return (segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK)));
+  }
+
+  /** Copies n bytes from the position of the region to the target */
+  public void get(long position, byte[] target, int offset, int n) {
+    while (n > 0) {
+      MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+      int start = (int) (position & SEGMENT_MASK);
+      int count = Math.min(n, segment.capacity() - start);
+      ByteBuffer view = segment.duplicate();
+      view.position(start);
+      view.get(target, offset, count);
+      position += count;
+      offset += count;
+      n -= count;
+    }
+  }
+}
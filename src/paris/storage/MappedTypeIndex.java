@@ -0,0 +1,52 @@
+package paris.storage;
+
+/**
+ * A type index whose arrays about entities and instances stay in a
+ * memory-mapped snapshot instead of on the heap: the class number and the
+ * classes of each entity, and the instances of each class. The arrays about
+ * classes are read into memory, because there are much fewer classes than
+ * entities. It is created by FactStoreSnapshot for a MappedFactStore.
+ */
+public class MappedTypeIndex extends TypeIndex {
+
+  /** Maps entity ids to class numbers, as ints */
+  protected final MappedRegion mappedClassNumbers;
+
+  /** The instances of all classes, as ints */
+  protected final MappedRegion mappedInstances;
+
+  /** The classes of entity e are at mappedTypeOffsets[e] to mappedTypeOffsets[e+1]-1 of mappedTypes, as ints */
+  protected final MappedRegion mappedTypeOffsets;
+
+  protected final MappedRegion mappedTypes;
+
+  /** Constructor */
+  public MappedTypeIndex(int[] classes, MappedRegion classNumbers, int[] instanceOffsets, MappedRegion instances, MappedRegion typeOffsets,
+      MappedRegion types, int[] superclassOffsets, int[] superclasses) {
+    super(classes, null, instanceOffsets, null, null, null, superclassOffsets, superclasses);
+    mappedClassNumbers = classNumbers;
+    mappedInstances = instances;
+    mappedTypeOffsets = typeOffsets;
+    mappedTypes = types;
+  }
+
+  @Override
+  public int classNumber(int entity) {
+    return (mappedClassNumbers.getInt(entity));
+  }
+
+  @Override
+  public int instanceAt(int clss, int i) {
+    return (mappedInstances.getInt(instanceOffsets[classNumber(clss)] + i));
+  }
+
+  @Override
+  public int numTypes(int entity) {
+    return (mappedTypeOffsets.getInt(entity + 1) - mappedTypeOffsets.getInt(entity));
+  }
+
+  @Override
+  public int typeAt(int entity, int i) {
+    return (mappedTypes.getInt(mappedTypeOffsets.getInt(entity) + i));
+  }
+}
@@ -0,0 +1,203 @@
+package paris.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maps names to consecutive ids and back. Names can be looked up as any
+ * CharSequence, so that parsers that work on reusable buffers have to create a
+ * String only for names that are not yet in the dictionary. The names are
+ * spread over lock-striped shards, so that loading threads rarely wait for each
+ * other.
+ */
+public class NameDictionary {
+
+  /** Number of shards, a power of 2 */
+  public static final int SHARDS = 64;
+
+  /** Number of ids per segment of the name array */
+  protected static final int SEGMENT_BITS = 14;
+
+  /** Open-addressing hash table of ids, -1 for free slots */
+  protected static class Shard {
+
+    protected int[] table = newTable(16);
+
+    protected int size;
+  }
+
+  /** The shards, chosen by the hash of a name */
+  protected final Shard[] shards = new Shard[SHARDS];
+
+  /** Maps ids to names, in segments so that growing does not block readers */
+  protected volatile String[][] segments = new String[1][];
+
+  /** Number of names */
+  protected final AtomicInteger size = new AtomicInteger();
+
+  /** Constructor */
+  public NameDictionary() {
+    for (int i = 0; i < shards.length; i++)
+      shards[i] = new Shard();
+    segments[0] = new String[1 << SEGMENT_BITS];
+  }
+
+  /** Returns an empty table for the given number of names */
+  protected static int[] newTable(int capacity) {
+    int length = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) * 2;
+    int[] result = new int[length];
+    Arrays.fill(result, -1);
+    return (result);
+  }
+
+  /** Computes String.hashCode() for any CharSequence */
+  public static int hash(CharSequence s) {
+    if (s instanceof String) return (s.hashCode());
+    int h = 0;
+    for (int i = 0; i < s.length(); i++)
+      h = 31 * h + s.charAt(i);
+    return (h);
+  }
+
+  /** Mixes the bits of a hash code */
+  protected static int mix(int hash) {
+    return ((hash ^ (hash >>> 16)) * 0x9E3779B9);
+  }
+
+  /** Returns the shard of a hash code */
+  protected Shard shard(int hash) {
+    return (shards[mix(hash) & (SHARDS - 1)]);
+  }
+
+  /** Returns the first slot of a hash code in a table */
+  protected static int slot(int hash, int mask) {
+    return (mix(hash) >>> 7) & mask;
+  }
+
+  /** Returns the number of names */
+  public int size() {
+    return (size.get());
+  }
+
+  /** Returns the name of an id */
+  public String name(int id) {
+    if (id >= size.get()) throw new ArrayIndexOutOfBoundsException(id);
+    return (segments[id >>> SEGMENT_BITS][id & ((1 << SEGMENT_BITS) - 1)]);
+  }
+
+  /** Stores the name of an id */
+  protected void setName(int id, String name) {
+    int segment = id >>> SEGMENT_BITS;
+    String[][] segments = this.segments;
+    if (segment >= segments.length || segments[segment] == null) segments = addSegment(segment);
+    segments[segment][id & ((1 << SEGMENT_BITS) - 1)] = name;
+  }
+
+  /** Makes sure that a segment exists, returns the segments */
+  protected synchronized String[][] addSegment(int segment) {
+    String[][] segments = this.segments;
+    if (segment >= segments.length) segments = Arrays.copyOf(segments, Math.max(segment + 1, segments.length * 2));
+    if (segments[segment] == null) segments[segment] = new String[1 << SEGMENT_BITS];
+    this.segments = segments;
+    return (segments);
+  }
+
+  /** Returns the id of a name in a shard, or -1. Call only with the lock of the shard */
+  protected int find(Shard shard, CharSequence name, int hash) {
+    int[] table = shard.table;
+    int mask = table.length - 1;
+    for (int i = slot(hash, mask);; i = (i + 1) & mask) {
+      int id = table[i];
+      if (id == -1) return (-1);
+      String candidate = name(id);
+      if (candidate.hashCode() == hash && candidate.contentEquals(name)) return (id);
+    }
+  }
+
+  /** Returns the id of a name, or -1 */
+  public int indexOf(CharSequence name) {
+    int hash = hash(name);
+    Shard shard = shard(hash);
+    synchronized (shard) {
+      return (find(shard, name, hash));
+    }
+  }
+
+  /** Returns the id of a name, adds the name if it does not yet exist */
+  public int getOrAdd(CharSequence name) {
+    int hash = hash(name);
+    Shard shard = shard(hash);
+    synchronized (shard) {
+      int id = find(shard, name, hash);
+      if (id != -1) return (id);
+      return (add(shard, name.toString(), hash));
+    }
+  }
+
+  /**
+   * Adds a name that is not yet in the dictionary, returns its id. Names that
+   * are added in a row get consecutive ids if no other thread adds names at the
+   * same time.
+   */
+  public int add(String name) {
+    int hash = name.hashCode();
+    Shard shard = shard(hash);
+    synchronized (shard) {
+      return (add(shard, name, hash));
+    }
+  }
+
+  /** Adds a name to a shard. Call only with the lock of the shard */
+  protected int add(Shard shard, String name, int hash) {
+    if (shard.size * 2 >= shard.table.length) rehash(shard, shard.table.length * 2);
+    int id = size.getAndIncrement();
+    // The name is set before the id can be found in the shard
+    setName(id, name);
+    insert(shard.table, hash, id);
+    shard.size++;
+    return (id);
+  }
+
+  /** Puts an id into a table */
+  protected static void insert(int[] table, int hash, int id) {
+    int mask = table.length - 1;
+    int i = slot(hash, mask);
+    while (table[i] != -1)
+      i = (i + 1) & mask;
+    table[i] = id;
+  }
+
+  /** Rebuilds the hash table of a shard with a new size */
+  protected void rehash(Shard shard, int length) {
+    int[] newTable = new int[length];
+    Arrays.fill(newTable, -1);
+    for (int id : shard.table)
+      if (id != -1) insert(newTable, name(id).hashCode(), id);
+    shard.table = newTable;
+  }
+
+  /** Makes room for the given number of names, so that adding them does not rehash */
+  public void ensureCapacity(int names) {
+    int perShard = (int) Math.min(Integer.MAX_VALUE / 4, names / (long) SHARDS + names / (SHARDS * 8L) + 16);
+    for (Shard shard : shards) {
+      synchronized (shard) {
+        int length = newTable(perShard).length;
+        if (length > shard.table.length) rehash(shard, length);
+      }
+    }
+    int segment = (Math.max(names, 1) - 1) >>> SEGMENT_BITS;
+    synchronized (this) {
+      if (segment >= segments.length) segments = Arrays.copyOf(segments, segment + 1);
+    }
+  }
+
+  /** Frees unused space */
+  public void trimToSize() {
+    for (Shard shard : shards) {
+      synchronized (shard) {
+        int length = newTable(shard.size).length;
+        if (length < shard.table.length) rehash(shard, length);
+      }
+    }
+  }
+}
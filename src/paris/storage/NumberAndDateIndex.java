@@ -0,0 +1,228 @@
+package paris.storage;
+
+import java.util.Arrays;
+
+/**
+ * The literals of a prepared fact store that are numbers or dates, sorted by
+ * their numeric value and by their year, so that the literals of another fact
+ * store can find the numbers within a tolerance and the dates of the same year
+ * by binary search. Numbers may have a unit, as in "1.83#m". Dates are literals
+ * such as "1969-07-20", and also integers of 3 or 4 digits, which DateParser
+ * reads as years. A literal can be both a number and a date.
+ */
+public class NumberAndDateIndex {
+
+  /** The values of the literals */
+  protected final LiteralValues values;
+
+  /** The literals that are numbers, sorted */
+  protected final int[] numberIds;
+
+  /** The position in numbers of each literal of numberIds */
+  protected final int[] numberPositions;
+
+  /** The numeric values, sorted */
+  protected final double[] numbers;
+
+  /** The literal of each numeric value */
+  protected final int[] numberLiterals;
+
+  /** The literals that are dates, sorted */
+  protected final int[] dateIds;
+
+  /** The position in years of each literal of dateIds */
+  protected final int[] datePositions;
+
+  /** The years of the dates, sorted */
+  protected final int[] years;
+
+  /** The literal of each year */
+  protected final int[] dateLiterals;
+
+  /**
+   * Builds the index from the literal values of the fact store, parsing the
+   * literals in parallel. All temporary arrays have one entry per literal, not
+   * per entity
+   */
+  public NumberAndDateIndex(final FactStore fs) {
+    values = fs.literalValues();
+    final int[] literals = new int[fs.numLiterals()];
+    int numLiterals = 0;
+    for (int e = 0; e < fs.numEntities(); e++)
+      if (fs.isLiteral(e)) literals[numLiterals++] = e;
+    final double[] parsed = new double[numLiterals];
+    final int[] parsedYears = new int[numLiterals];
+    final boolean[] isNumber = new boolean[numLiterals];
+    final boolean[] isDate = new boolean[numLiterals];
+    fs.inParallel(0, numLiterals, new FactStore.EntityRange() {
+
+      public void run(int from, int to) {
+        for (int l = from; l < to; l++) {
+          String value = values.value(literals[l]);
+          if (LiteralFormatter.isNumberAndUnit(value)) {
+            parsed[l] = Double.parseDouble(value.substring(0, LiteralFormatter.numberEnd(value)));
+            isNumber[l] = true;
+          }
+          int yearEnd = -1;
+          if (LiteralFormatter.isDate(value)) yearEnd = value.indexOf('-', 1);
+          else if (value.length() >= 3 && value.length() <= 4 && LiteralFormatter.isInt(value) && LiteralFormatter.isDigit(value.charAt(0))) yearEnd = value.length();
+          if (isYear(value, yearEnd)) {
+            parsedYears[l] = Integer.parseInt(value.substring(0, yearEnd));
+            isDate[l] = true;
+          }
+        }
+      }
+    });
+    int numNumbers = 0;
+    int numDates = 0;
+    for (int l = 0; l < numLiterals; l++) {
+      if (isNumber[l]) numNumbers++;
+      if (isDate[l]) numDates++;
+    }
+    numberIds = new int[numNumbers];
+    final double[] numberValues = new double[numNumbers];
+    dateIds = new int[numDates];
+    long[] dateKeys = new long[numDates];
+    numNumbers = 0;
+    numDates = 0;
+    for (int l = 0; l < numLiterals; l++) {
+      if (isNumber[l]) {
+        numberValues[numNumbers] = parsed[l];
+        numberIds[numNumbers++] = literals[l];
+      }
+      // Equal years are sorted by id
+      if (isDate[l]) {
+        dateKeys[numDates] = ((long) parsedYears[l] << 32) | numDates;
+        dateIds[numDates++] = literals[l];
+      }
+    }
+    // Sort the numbers by their rank among the distinct values and by id
+    final long[] distinct = new long[numNumbers];
+    for (int i = 0; i < numNumbers; i++)
+      distinct[i] = sortable(numberValues[i]);
+    Arrays.sort(distinct);
+    final long[] numberKeys = new long[numNumbers];
+    fs.inParallel(0, numNumbers, new FactStore.EntityRange() {
+
+      public void run(int from, int to) {
+        for (int i = from; i < to; i++)
+          numberKeys[i] = ((long) Arrays.binarySearch(distinct, sortable(numberValues[i])) << 32) | i;
+      }
+    });
+    Arrays.sort(numberKeys);
+    numbers = new double[numNumbers];
+    numberLiterals = new int[numNumbers];
+    numberPositions = new int[numNumbers];
+    for (int i = 0; i < numNumbers; i++) {
+      int n = (int) numberKeys[i];
+      numberLiterals[i] = numberIds[n];
+      numbers[i] = numberValues[n];
+      numberPositions[n] = i;
+    }
+    Arrays.sort(dateKeys);
+    years = new int[numDates];
+    dateLiterals = new int[numDates];
+    datePositions = new int[numDates];
+    for (int i = 0; i < numDates; i++) {
+      int d = (int) dateKeys[i];
+      dateLiterals[i] = dateIds[d];
+      years[i] = (int) (dateKeys[i] >> 32);
+      datePositions[d] = i;
+    }
+  }
+
+  /** TRUE if the string has a year without '#' up to the end: 1 to 9 digits with an optional minus */
+  protected static boolean isYear(String s, int end) {
+    int start = s.startsWith("-") ? 1 : 0;
+    if (end - start < 1 || end - start > 9) return (false);
+    for (int i = start; i < end; i++)
+      if (!LiteralFormatter.isDigit(s.charAt(i))) return (false);
+    return (true);
+  }
+
+  /** Maps a double to a long with the same order */
+  protected static long sortable(double d) {
+    long bits = Double.doubleToLongBits(d);
+    return (bits ^ ((bits >> 63) & Long.MAX_VALUE));
+  }
+
+  /** TRUE if the literal is a number */
+  public boolean isNumber(int literal) {
+    return (Arrays.binarySearch(numberIds, literal) >= 0);
+  }
+
+  /** TRUE if the literal is a date */
+  public boolean isDate(int literal) {
+    return (Arrays.binarySearch(dateIds, literal) >= 0);
+  }
+
+  /** Returns the value of a number */
+  public double number(int literal) {
+    return (numbers[numberPositions[Arrays.binarySearch(numberIds, literal)]]);
+  }
+
+  /** Returns the year of a date */
+  public int year(int literal) {
+    return (years[datePositions[Arrays.binarySearch(dateIds, literal)]]);
+  }
+
+  /** TRUE if the number has the same unit (or no unit) as the number of the other index */
+  public boolean sameUnit(int literal, NumberAndDateIndex other, int otherLiteral) {
+    String value = values.value(literal);
+    String otherValue = other.values.value(otherLiteral);
+    int unit = LiteralFormatter.numberEnd(value);
+    int otherUnit = LiteralFormatter.numberEnd(otherValue);
+    return (value.length() - unit == otherValue.length() - otherUnit && value.regionMatches(unit, otherValue, otherUnit, value.length() - unit));
+  }
+
+  /** Returns the position of the first number that is not smaller than the minimum */
+  public int firstNumber(double min) {
+    int low = 0;
+    int high = numbers.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (numbers[middle] < min) low = middle + 1;
+      else high = middle;
+    }
+    return (low);
+  }
+
+  /** Returns the position after the last number that is not larger than the maximum */
+  public int endNumber(double max) {
+    int low = 0;
+    int high = numbers.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (numbers[middle] <= max) low = middle + 1;
+      else high = middle;
+    }
+    return (low);
+  }
+
+  /** Returns the literal of the number at the position */
+  public int numberLiteralAt(int position) {
+    return (numberLiterals[position]);
+  }
+
+  /** Returns the position of the first date of the year */
+  public int firstDate(int year) {
+    int low = 0;
+    int high = years.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (years[middle] < year) low = middle + 1;
+      else high = middle;
+    }
+    return (low);
+  }
+
+  /** Returns the position after the last date of the year */
+  public int endDate(int year) {
+    return (firstDate(year + 1));
+  }
+
+  /** Returns the literal of the date at the position */
+  public int dateLiteralAt(int position) {
+    return (dateLiterals[position]);
+  }
+}
@@ -0,0 +1,320 @@
+package paris.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A name dictionary that keeps the names as UTF-8 bytes in large byte arrays
+ * instead of as Strings. The names are front coded in blocks of 16 ids: the
+ * first name of a block is stored in full, every other name as the number of
+ * leading bytes that it shares with the previous name, followed by the rest.
+ * Names that are added in a row (such as the names of one namespace) thus
+ * store their common prefix only once. Names are found through open-addressing
+ * hash tables of 64-bit fingerprints, so that only names with the same
+ * fingerprint are decoded and compared. Decoding a name reads the names before
+ * it in its block, so that looking up names is slower than in a NameDictionary.
+ */
+public class PackedNameDictionary extends NameDictionary {
+
+  /** Number of ids per front-coded block */
+  protected static final int BLOCK_BITS = 4;
+
+  protected static final int BLOCK_MASK = (1 << BLOCK_BITS) - 1;
+
+  /** Number of bytes per chunk */
+  protected static final int CHUNK_BITS = 20;
+
+  protected static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+  /**
+   * Open-addressing hash table of the ids, -1 for free slots. Each slot holds
+   * the upper half of the fingerprint of the name and the id, so that names
+   * that do not match are told apart without decoding them, and the table
+   * can grow without decoding any names.
+   */
+  protected static class PackedShard {
+
+    protected long[] table = newPackedTable(16);
+
+    protected int size;
+  }
+
+  /** The shards, chosen by the fingerprint of a name */
+  protected final PackedShard[] packedShards = new PackedShard[SHARDS];
+
+  /** The encoded names, in chunks */
+  protected volatile byte[][] chunks = new byte[1][];
+
+  /** Position after the last encoded name. Guarded by this */
+  protected long end;
+
+  /** Position of the first name of each block, in segments */
+  protected volatile long[][] blocks = new long[1][];
+
+  /** The UTF-8 bytes of the last name that was added. Guarded by this */
+  protected byte[] previous;
+
+  /** Constructor */
+  public PackedNameDictionary() {
+    for (int i = 0; i < packedShards.length; i++)
+      packedShards[i] = new PackedShard();
+    chunks[0] = new byte[1 << CHUNK_BITS];
+    blocks[0] = new long[1 << SEGMENT_BITS];
+  }
+
+  /** Returns an empty table for the given number of names */
+  protected static long[] newPackedTable(int capacity) {
+    int length = Integer.highestOneBit(Math.max(capacity, 8) * 4 / 3) * 2;
+    long[] result = new long[length];
+    Arrays.fill(result, -1);
+    return (result);
+  }
+
+  /** Computes a 64-bit fingerprint of a name */
+  public static long fingerprint(CharSequence s) {
+    long h = 0xCBF29CE484222325L;
+    for (int i = 0; i < s.length(); i++)
+      h = (h ^ s.charAt(i)) * 0x100000001B3L;
+    h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+    h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+    return (h ^ (h >>> 33));
+  }
+
+  /** Returns the shard of a fingerprint */
+  protected PackedShard shard(long fingerprint) {
+    return (packedShards[(int) fingerprint & (SHARDS - 1)]);
+  }
+
+  /** Returns the entry of an id in a table */
+  protected static long entry(long fingerprint, int id) {
+    return ((fingerprint & 0xFFFFFFFF00000000L) | id);
+  }
+
+  /** Returns the first slot of an entry or a fingerprint in a table, from the upper half */
+  protected static int slot(long entry, int mask) {
+    return (slot((int) (entry >>> 32), mask));
+  }
+
+  @Override
+  public String name(int id) {
+    if (id >= size.get()) throw new ArrayIndexOutOfBoundsException(id);
+    int first = id & ~BLOCK_MASK;
+    long position = blocks[id >>> (BLOCK_BITS + SEGMENT_BITS)][(id >>> BLOCK_BITS) & ((1 << SEGMENT_BITS) - 1)];
+    byte[] buffer = new byte[64];
+    int length = 0;
+    for (int i = first; i <= id; i++) {
+      int shared = 0;
+      if (i != first) {
+        shared = readVarint(position);
+        position += varintLength(shared);
+      }
+      int suffix = readVarint(position);
+      position += varintLength(suffix);
+      length = shared + suffix;
+      if (length > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(length, buffer.length * 2));
+      read(position, buffer, shared, suffix);
+      position += suffix;
+    }
+    return (new String(buffer, 0, length, StandardCharsets.UTF_8));
+  }
+
+  /** Returns the byte at a position */
+  protected byte byteAt(long position) {
+    return (chunks[(int) (position >>> CHUNK_BITS)][(int) (position & CHUNK_MASK)]);
+  }
+
+  /** Reads a variable-length int from a position */
+  protected int readVarint(long position) {
+    int result = 0;
+    for (int shift = 0;; shift += 7) {
+      byte b = byteAt(position++);
+      result |= (b & 0x7F) << shift;
+      if (b >= 0) return (result);
+    }
+  }
+
+  /** Returns the number of bytes of a variable-length int */
+  protected static int varintLength(int value) {
+    int result = 1;
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      result++;
+    }
+    return (result);
+  }
+
+  /** Copies n bytes from a position to the target */
+  protected void read(long position, byte[] target, int offset, int n) {
+    byte[][] chunks = this.chunks;
+    while (n > 0) {
+      int start = (int) (position & CHUNK_MASK);
+      int count = Math.min(n, (1 << CHUNK_BITS) - start);
+      System.arraycopy(chunks[(int) (position >>> CHUNK_BITS)], start, target, offset, count);
+      position += count;
+      offset += count;
+      n -= count;
+    }
+  }
+
+  /** Writes a byte at the end. Call only with the lock of this */
+  protected void write(byte b) {
+    int chunk = (int) (end >>> CHUNK_BITS);
+    if (chunk >= chunks.length || chunks[chunk] == null) addChunk(chunk);
+    chunks[chunk][(int) (end & CHUNK_MASK)] = b;
+    end++;
+  }
+
+  /** Writes a variable-length int at the end. Call only with the lock of this */
+  protected void writeVarint(int value) {
+    while ((value & ~0x7F) != 0) {
+      write((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    write((byte) value);
+  }
+
+  /** Writes n bytes of the source at the end. Call only with the lock of this */
+  protected void write(byte[] source, int offset, int n) {
+    while (n > 0) {
+      int chunk = (int) (end >>> CHUNK_BITS);
+      if (chunk >= chunks.length || chunks[chunk] == null) addChunk(chunk);
+      int start = (int) (end & CHUNK_MASK);
+      int count = Math.min(n, (1 << CHUNK_BITS) - start);
+      System.arraycopy(source, offset, chunks[chunk], start, count);
+      end += count;
+      offset += count;
+      n -= count;
+    }
+  }
+
+  /** Makes sure that a chunk exists. Call only with the lock of this */
+  protected void addChunk(int chunk) {
+    byte[][] chunks = this.chunks;
+    if (chunk >= chunks.length) chunks = Arrays.copyOf(chunks, Math.max(chunk + 1, chunks.length * 2));
+    if (chunks[chunk] == null) chunks[chunk] = new byte[1 << CHUNK_BITS];
+    this.chunks = chunks;
+  }
+
+  /** Stores the position of the first name of a block. Call only with the lock of this */
+  protected void setBlock(int block, long position) {
+    int segment = block >>> SEGMENT_BITS;
+    long[][] blocks = this.blocks;
+    if (segment >= blocks.length) blocks = Arrays.copyOf(blocks, Math.max(segment + 1, blocks.length * 2));
+    if (blocks[segment] == null) blocks[segment] = new long[1 << SEGMENT_BITS];
+    blocks[segment][block & ((1 << SEGMENT_BITS) - 1)] = position;
+    this.blocks = blocks;
+  }
+
+  /** Encodes a name as the next id, returns the id */
+  protected synchronized int append(byte[] name) {
+    int id = size.get();
+    int shared = 0;
+    if ((id & BLOCK_MASK) == 0) {
+      setBlock(id >>> BLOCK_BITS, end);
+    } else {
+      int max = Math.min(previous.length, name.length);
+      while (shared < max && previous[shared] == name[shared])
+        shared++;
+      writeVarint(shared);
+    }
+    writeVarint(name.length - shared);
+    write(name, shared, name.length - shared);
+    previous = name;
+    // The name is encoded before the id counts
+    size.incrementAndGet();
+    return (id);
+  }
+
+  /** Returns the id of a name in a shard, or -1. Call only with the lock of the shard */
+  protected int find(PackedShard shard, CharSequence name, long fingerprint) {
+    long[] table = shard.table;
+    int mask = table.length - 1;
+    long tag = fingerprint & 0xFFFFFFFF00000000L;
+    for (int i = slot(fingerprint, mask);; i = (i + 1) & mask) {
+      long entry = table[i];
+      if (entry == -1) return (-1);
+      if ((entry & 0xFFFFFFFF00000000L) == tag && name((int) entry).contentEquals(name)) return ((int) entry);
+    }
+  }
+
+  @Override
+  public int indexOf(CharSequence name) {
+    long fingerprint = fingerprint(name);
+    PackedShard shard = shard(fingerprint);
+    synchronized (shard) {
+      return (find(shard, name, fingerprint));
+    }
+  }
+
+  @Override
+  public int getOrAdd(CharSequence name) {
+    long fingerprint = fingerprint(name);
+    PackedShard shard = shard(fingerprint);
+    synchronized (shard) {
+      int id = find(shard, name, fingerprint);
+      if (id != -1) return (id);
+      return (add(shard, name.toString(), fingerprint));
+    }
+  }
+
+  @Override
+  public int add(String name) {
+    long fingerprint = fingerprint(name);
+    PackedShard shard = shard(fingerprint);
+    synchronized (shard) {
+      return (add(shard, name, fingerprint));
+    }
+  }
+
+  /** Adds a name to a shard. Call only with the lock of the shard */
+  protected int add(PackedShard shard, String name, long fingerprint) {
+    if (shard.size * 4 >= shard.table.length * 3) rehash(shard, shard.table.length * 2);
+    int id = append(name.getBytes(StandardCharsets.UTF_8));
+    insert(shard.table, entry(fingerprint, id));
+    shard.size++;
+    return (id);
+  }
+
+  /** Puts an entry into a table */
+  protected static void insert(long[] table, long entry) {
+    int mask = table.length - 1;
+    int i = slot(entry, mask);
+    while (table[i] != -1)
+      i = (i + 1) & mask;
+    table[i] = entry;
+  }
+
+  /** Rebuilds the hash table of a shard with a new size */
+  protected void rehash(PackedShard shard, int length) {
+    long[] newTable = new long[length];
+    Arrays.fill(newTable, -1);
+    for (long entry : shard.table)
+      if (entry != -1) insert(newTable, entry);
+    shard.table = newTable;
+  }
+
+  @Override
+  public void ensureCapacity(int names) {
+    int perShard = (int) Math.min(Integer.MAX_VALUE / 4, names / (long) SHARDS + names / (SHARDS * 8L) + 16);
+    for (PackedShard shard : packedShards) {
+      synchronized (shard) {
+        int length = newPackedTable(perShard).length;
+        if (length > shard.table.length) rehash(shard, length);
+      }
+    }
+    int segment = ((Math.max(names, 1) - 1) >>> BLOCK_BITS) >>> SEGMENT_BITS;
+    synchronized (this) {
+      if (segment >= blocks.length) blocks = Arrays.copyOf(blocks, segment + 1);
+    }
+  }
+
+  @Override
+  public void trimToSize() {
+    for (PackedShard shard : packedShards) {
+      synchronized (shard) {
+        int length = newPackedTable(shard.size).length;
+        if (length < shard.table.length) rehash(shard, length);
+      }
+    }
+  }
+}
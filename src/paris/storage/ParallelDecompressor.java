@@ -0,0 +1,265 @@
+package paris.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Decompresses a file piece by piece in several threads, and returns the
+ * contents in the order of the file. One thread cuts the file into pieces at
+ * the places where a unit of the compression format (a gzip member, a bzip2
+ * block, an xz block) starts or may start, the other threads decode the pieces
+ * independently. The reader of the stream then decides for each piece in the
+ * order of the file whether its decoded contents continue the contents so far,
+ * and decodes the piece itself where they do not (e.g., because the piece did
+ * not start at a unit, or was too large to be decoded into memory).
+ */
+public abstract class ParallelDecompressor extends InputStream {
+
+  /** Pieces that decode to more bytes than this are not kept in memory */
+  public static final int MAX_PIECE_OUTPUT = 64 * 1024 * 1024;
+
+  /** A piece of the file */
+  protected static class Piece {
+
+    /** Where the piece starts, in bytes or bits of the file */
+    long start;
+
+    /** Where the next piece starts */
+    long end;
+
+    /** TRUE if the piece is not decoded by the workers, but by the reader */
+    boolean serial;
+
+    /** Decoded contents, NULL if the piece was not decoded */
+    byte[] data;
+
+    /** Where the decoded units end */
+    long decodedEnd;
+
+    /** Error while decoding, NULL for none */
+    IOException failure;
+
+    /** TRUE if the failure concerns the whole file, not just the piece */
+    boolean fatal;
+
+    boolean done;
+
+    synchronized void finish() {
+      done = true;
+      notifyAll();
+    }
+
+    synchronized void await() throws IOException {
+      try {
+        while (!done)
+          wait();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  /** The state of a decoding thread, e.g. its decoder and its handle of the file */
+  protected interface Decoder {
+
+    /** Decodes the piece into its data, or sets its failure. A runtime exception counts as a failure of the piece */
+    public void decode(Piece piece);
+
+    /** Frees the resources of the decoder */
+    public void close();
+  }
+
+  /** Marks the end of the file */
+  protected static final Piece END = new Piece();
+
+  /** The compressed file */
+  protected final File file;
+
+  /** Pieces to decode */
+  protected final BlockingQueue<Piece> work;
+
+  /** Pieces in the order of the file */
+  protected final BlockingQueue<Piece> ordered;
+
+  /** Threads that cut and decode */
+  protected final Thread[] threads;
+
+  /** Contents of the current piece, NULL if the next piece has to be taken */
+  protected InputStream current;
+
+  /** End of the current piece */
+  protected long currentEnd;
+
+  /** End of the last piece whose contents were returned */
+  protected long position;
+
+  protected boolean atEnd;
+
+  /** Constructor. Subclasses call start() once they are initialized */
+  public ParallelDecompressor(File f, int nThreads) {
+    file = f;
+    nThreads = Math.max(1, nThreads);
+    work = new ArrayBlockingQueue<Piece>(nThreads * 2);
+    ordered = new ArrayBlockingQueue<Piece>(nThreads * 2);
+    threads = new Thread[nThreads + 1];
+  }
+
+  /** Cuts the file into pieces and passes them to emit() in the order of the file */
+  protected abstract void cut() throws IOException, InterruptedException;
+
+  /** Returns a new decoder for a decoding thread */
+  protected abstract Decoder newDecoder() throws IOException;
+
+  /**
+   * Returns the contents of a piece that follow the contents so far, NULL if
+   * the piece adds nothing. Called in the order of the file, once the piece is
+   * decoded.
+   */
+  protected abstract InputStream contents(Piece piece) throws IOException;
+
+  /** Hands a piece to the decoding threads */
+  protected void emit(Piece piece) throws InterruptedException {
+    ordered.put(piece);
+    if (piece.serial) piece.finish();
+    else work.put(piece);
+  }
+
+  /** Hands a piece to the decoding threads */
+  protected void emit(long start, long end) throws InterruptedException {
+    Piece piece = new Piece();
+    piece.start = start;
+    piece.end = end;
+    emit(piece);
+  }
+
+  /** Starts the threads */
+  protected void start() {
+    final int workers = threads.length - 1;
+    threads[0] = new Thread() {
+
+      public void run() {
+        try {
+          try {
+            cut();
+            ordered.put(END);
+          } catch (IOException | RuntimeException e) {
+            Piece piece = new Piece();
+            piece.failure = e instanceof IOException ? (IOException) e : new IOException(e);
+            piece.fatal = true;
+            piece.finish();
+            ordered.put(piece);
+          }
+          for (int i = 0; i < workers; i++)
+            work.put(END);
+        } catch (InterruptedException e) {
+          // Stream was closed
+        }
+      }
+    };
+    for (int t = 1; t < threads.length; t++) {
+      threads[t] = new Thread() {
+
+        public void run() {
+          Decoder decoder = null;
+          try {
+            Piece piece;
+            while ((piece = work.take()) != END) {
+              if (decoder == null) {
+                try {
+                  decoder = newDecoder();
+                } catch (IOException e) {
+                  piece.failure = e;
+                  piece.fatal = true;
+                  piece.finish();
+                  continue;
+                }
+              }
+              try {
+                decoder.decode(piece);
+              } catch (RuntimeException e) {
+                // E.g. a size field of corrupt input that is out of range
+                piece.failure = new IOException("Corrupt input in " + file, e);
+              } finally {
+                // The reader waits for every piece
+                piece.finish();
+              }
+            }
+          } catch (InterruptedException e) {
+            // Stream was closed
+          } finally {
+            if (decoder != null) decoder.close();
+          }
+        }
+      };
+    }
+    for (Thread thread : threads) {
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /** Returns the data of a decoded piece as a stream */
+  protected static InputStream data(Piece piece) {
+    return (new ByteArrayInputStream(piece.data));
+  }
+
+  /** Moves to the next piece with contents. Returns FALSE at the end */
+  protected boolean nextPiece() throws IOException {
+    while (!atEnd && current == null) {
+      Piece piece;
+      try {
+        piece = ordered.take();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      if (piece == END) {
+        atEnd = true;
+        break;
+      }
+      piece.await();
+      if (piece.fatal) throw piece.failure;
+      current = contents(piece);
+      if (current == null) position = Math.max(position, piece.end);
+      else currentEnd = piece.end;
+    }
+    return (current != null);
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return (read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) return (0);
+    while (nextPiece()) {
+      int n = current.read(b, off, len);
+      if (n > 0) return (n);
+      current.close();
+      current = null;
+      position = Math.max(position, currentEnd);
+    }
+    return (-1);
+  }
+
+  /**
+   * Returns about how many bytes of the file were decompressed into the
+   * contents that were returned so far
+   */
+  public long position() {
+    return (position);
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Thread thread : threads)
+      if (thread != null) thread.interrupt();
+    if (current != null) current.close();
+  }
+}
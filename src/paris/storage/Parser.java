@@ -2,13 +2,13 @@ package paris.storage;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import paris.Config;
 
@@ -16,9 +16,7 @@ import javatools.administrative.Announce;
 import javatools.administrative.D;
 import javatools.datatypes.FinalMap;
 import javatools.datatypes.PeekIterator;
-import javatools.filehandlers.FileLines;
 import javatools.filehandlers.FileSet;
-import javatools.parsers.Char;
 import javatools.parsers.DateParser;
 import javatools.parsers.NumberParser;
 
@@ -32,20 +30,34 @@ public abstract class Parser extends PeekIterator<String[]> {
       "http://www.w3.org/2006/vcard/ns#", "dbp:", "http://dbpedia.org/", "y1:", "http://www.mpii.de/yago/resource/", "y2:",
       "http://yago-knowledge.org/resource/", "geo:", "http://www.geonames.org/ontology#");
 
-  /** Translates the URI into a Qname*/
-  public static String compressUri(String s) {
-    s = s.trim();
-    s = Char.decodeAmpersand(s);
-    s = Char.decodeBackslash(s);
-    s = stripSquareBrackets(s);
-    if (s.startsWith("http://")) {
-      for (Entry<String, String> entry : standardPrefixes.entrySet()) {
-        if (s.startsWith(entry.getValue())) {
-          return (entry.getKey() + s.substring(entry.getValue().length()));
-        }
-      }
+  /** The standard prefixes, to which no prefixes are added*/
+  protected static final UriPrefixes standard = new UriPrefixes();
+
+  /** Builds the trie of the URIs of the prefixes. Only URIs that start with "http://" are compressed*/
+  protected static PrefixTrie uriTrie(Map<String, String> prefixes) {
+    PrefixTrie trie = new PrefixTrie();
+    for (Entry<String, String> entry : prefixes.entrySet()) {
+      if (entry.getValue().startsWith("http://")) trie.put(entry.getValue(), entry.getKey());
     }
-    return (s);
+    return (trie);
+  }
+
+  /** Translates the URI into a Qname with the standard prefixes*/
+  public static String compressUri(String s) {
+    return (standard.compress(s));
+  }
+
+  /** Translates s[start,end) into a Qname in the buffer with the standard prefixes*/
+  public static void compressUri(CharSequence s, int start, int end, StringBuilder out) {
+    standard.compress(s, start, end, out);
+  }
+
+  /** TRUE if s[start,end) starts with the prefix*/
+  public static boolean regionMatches(CharSequence s, int start, int end, String prefix) {
+    if (end - start < prefix.length()) return (false);
+    for (int i = 0; i < prefix.length(); i++)
+      if (s.charAt(start + i) != prefix.charAt(i)) return (false);
+    return (true);
   }
 
   /** removes <>*/
@@ -55,130 +67,356 @@ public abstract class Parser extends PeekIterator<String[]> {
     return (s);
   }
 
+  /** TRUE if forFile() returns a parser for the file*/
+  public static boolean accepts(File f) {
+    switch (FileSet.extension(CompressedInput.uncompressedName(f)).toLowerCase()) {
+      case ".imdb":
+      case ".tsv":
+      case ".ttl":
+      case ".n3":
+      case ".nq":
+      case ".n4":
+      case ".nt":
+        return (true);
+    }
+    return (false);
+  }
+
   /** returns the appropriate parser for the file*/
   public static Parser forFile(File f) throws IOException {
-    switch (FileSet.extension(f).toLowerCase()) {
+    return (forFile(f, Runtime.getRuntime().availableProcessors()));
+  }
+
+  /** returns the appropriate parser for the file, which may be compressed. Uses the threads for decompression*/
+  public static Parser forFile(File f, int threads) throws IOException {
+    switch (FileSet.extension(CompressedInput.uncompressedName(f)).toLowerCase()) {
     	case ".imdb":
-    		return new ImdbParser(f);
+    		return new ImdbParser(f, threads);
       case ".tsv":
-        return (new TsvParser(f));
+        return (new TsvParser(f, threads));
       case ".ttl":
       case ".n3":
+      case ".nq":
+        return (new StreamingTurtleParser(f, threads));
       case ".n4":
       case ".nt":
-        return (new TurtleParser(f));
+        return (new TurtleParser(f, threads));
     }
     return (null);
   }
 
   /** File lines*/
-  protected FileLines lines;
+  protected LineReader lines;
+
+  /** The prefixes of the knowledge base of the file, which "@prefix" lines extend*/
+  protected UriPrefixes prefixes = new UriPrefixes();
+
+  /** Uses the prefixes of a knowledge base instead of prefixes of its own. Call before parsing*/
+  public void usePrefixes(UriPrefixes prefixes) {
+    this.prefixes = prefixes;
+  }
+
+  /** Buffer for the current line*/
+  protected final StringBuilder line = new StringBuilder();
+
+  /** Buffers for subject, predicate and object*/
+  protected final StringBuilder[] terms = newTermBuffers();
+
+  /** Returns buffers for subject, predicate and object*/
+  public static StringBuilder[] newTermBuffers() {
+    return (new StringBuilder[] { new StringBuilder(), new StringBuilder(), new StringBuilder() });
+  }
+
+  /** Opens the lines of a file, decompressing it if necessary*/
+  protected static LineReader lineReader(File f, int threads) throws IOException {
+    return (new LineReader(new InputStreamReader(CompressedInput.open(f, threads), StandardCharsets.UTF_8)));
+  }
+
+  /** Returns the name of the file without extensions*/
+  protected static String baseName(File f) {
+    return (FileSet.newExtension(CompressedInput.uncompressedName(f).getName(), null));
+  }
+
+  /** Parses the next triple and passes it to the sink. Returns FALSE at the end of the file*/
+  public abstract boolean parseNext(TripleSink sink) throws IOException;
+
+  /** Prints a warning. Parsers can run in several threads*/
+  protected static void warning(Object... o) {
+    synchronized (Announce.blanks) {
+      Announce.warning(o);
+    }
+  }
+
+  /** Passes all triples to the sink and closes the parser*/
+  public void parse(TripleSink sink) throws IOException {
+    try {
+      while (parseNext(sink))
+        ;
+    } finally {
+      close();
+    }
+  }
+
+  /** Holds the last triple of parseNext for the iterator*/
+  protected String[] current;
+
+  /** Copies the triples of parseNext for the iterator*/
+  protected final TripleSink collector = new TripleSink() {
+
+    @Override
+    public void triple(CharSequence subject, CharSequence predicate, CharSequence object) {
+      current = new String[] { subject.toString(), predicate.toString(), object.toString() };
+    }
+  };
+
+  @Override
+  protected String[] internalNext() throws Exception {
+    current = null;
+    if (!parseNext(collector)) return (null);
+    return (current);
+  }
+
+  /**
+   * Splits the line at tabs as String.split("\t") does. Stores start and end
+   * of the first columns, returns the number of columns
+   */
+  protected static int splitTabs(CharSequence line, int[] columns) {
+    int n = 0;
+    int nonEmpty = 0;
+    int start = 0;
+    boolean tab = false;
+    for (int i = 0; i <= line.length(); i++) {
+      if (i < line.length()) {
+        if (line.charAt(i) != '\t') continue;
+        tab = true;
+      }
+      if (2 * n + 1 < columns.length) {
+        columns[2 * n] = start;
+        columns[2 * n + 1] = i;
+      }
+      n++;
+      // Trailing empty columns are dropped
+      if (i > start) nonEmpty = n;
+      start = i + 1;
+    }
+    return (tab ? nonEmpty : 1);
+  }
+
+  /** TRUE for the characters of the regex class \s*/
+  public static boolean isSpace(char c) {
+    return (c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r');
+  }
+
+  /** TRUE for the characters that the regex . does not match*/
+  public static boolean isLineTerminator(char c) {
+    return (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029');
+  }
+
+  /**
+   * A parser for files with one triple per line, whose lines can be parsed in
+   * any order and by several threads, e.g. by a ParserPipeline
+   */
+  public static abstract class LineParser extends Parser {
+
+    /** TRUE if the line changes how the following lines are parsed. Such lines go to directive() instead of parseLine()*/
+    protected boolean isDirective(CharSequence line) {
+      return (false);
+    }
+
+    /** Applies a line for which isDirective() is TRUE*/
+    protected void directive(String line) {
+    }
+
+    /**
+     * Parses a line that is no directive with the given buffers and passes its
+     * triple to the sink. Returns FALSE if the line has no triple. Can be called
+     * by several threads, each with its own buffers
+     */
+    protected abstract boolean parseLine(CharSequence line, StringBuilder[] terms, int[] columns, TripleSink sink);
+
+    /** Returns a buffer for the columns that parseLine() needs*/
+    protected int[] newColumnBuffer() {
+      return (new int[12]);
+    }
+  }
 
   /** For parsing TTL. This is optimized for speed and will not work for all files! */
-  public static class TurtleParser extends Parser {
+  public static class TurtleParser extends LineParser {
 
     /** Current base URI*/
-    protected String base = "";
-
-    /** TTL line*/
-    protected static Pattern ttlLine = Pattern.compile("([^\\s]+)\\s+([^\\s]+)\\s+(.+)");
+    protected volatile String base = "";
 
     /** Constructor*/
     public TurtleParser(File f) throws IOException {
-      lines = new FileLines(f, "UTF-8", null);
+      this(f, 1);
+    }
+
+    /** Constructor, with threads for decompression*/
+    public TurtleParser(File f, int threads) throws IOException {
+      lines = lineReader(f, threads);
     }
 
     /** Compresses a URI*/
     protected String baseAndCompressUri(String s) {
-      if (s.startsWith("<") && !s.startsWith("<http")) s = base + s.substring(1, s.length() - 1);
-      return (compressUri(s));
+      return (prefixes.compress(base, s));
+    }
+
+    /**
+     * Splits line[start,end) as "([^\s]+)\s+([^\s]+)\s+(.+)", compresses the terms into the buffers
+     * with the prefixes and passes them to the sink. Returns FALSE if the line cannot be parsed
+     */
+    public static boolean parseTriple(CharSequence line, int start, int end, String base, UriPrefixes prefixes, StringBuilder[] terms, TripleSink sink) {
+      int subjectEnd = start;
+      while (subjectEnd < end && !isSpace(line.charAt(subjectEnd)))
+        subjectEnd++;
+      int predicateStart = subjectEnd;
+      while (predicateStart < end && isSpace(line.charAt(predicateStart)))
+        predicateStart++;
+      int predicateEnd = predicateStart;
+      while (predicateEnd < end && !isSpace(line.charAt(predicateEnd)))
+        predicateEnd++;
+      int objectStart = predicateEnd;
+      while (objectStart < end && isSpace(line.charAt(objectStart)))
+        objectStart++;
+      // Only spaces after the predicate: the regex leaves the last one for the object
+      if (objectStart == end && end - predicateEnd >= 2) objectStart = end - 1;
+      if (subjectEnd == start || predicateStart == subjectEnd || predicateEnd == predicateStart || objectStart == predicateEnd
+          || objectStart >= end) return (false);
+      for (int i = start; i < end; i++)
+        if (isLineTerminator(line.charAt(i))) return (false);
+      prefixes.compress(base, line, start, subjectEnd, terms[0]);
+      prefixes.compress(base, line, predicateStart, predicateEnd, terms[1]);
+      prefixes.compress(base, line, objectStart, end, terms[2]);
+      sink.triple(terms[0], terms[1], terms[2]);
+      return (true);
     }
 
     @Override
-    protected String[] internalNext() throws Exception {
-      String line;
-      do {
-        // Trivial cases
-        if (!lines.hasNext()) return (null);
-        line = lines.next();
-        line = line.trim();
-        if (line.isEmpty()) continue;
-        if (line.startsWith("#")) continue;
-        // BASE
-        if (line.startsWith("@base")) {
-          base = stripSquareBrackets(line.substring(5, line.length() - 1).trim());
-          continue;
-        }
-        // PREFIX
-        if (line.startsWith("@prefix")) {
-          String[] components = line.split("\\s+");
-          components[2] = stripSquareBrackets(components[2]);
-          if (standardPrefixes.containsKey(components[1]) && !standardPrefixes.get(components[1]).equals(components[2])) {
-            Announce.warning("Ignoring non-standard redefinition of prefix", line);
-            continue;
-          }
-          standardPrefixes.put(components[1], components[2]);
-          continue;
-        }
-        // TTL line
-        if (!line.endsWith(" .")) {
-          Announce.warning("Line does not end with dot:", line);
-          continue;
-        }
-        line = line.substring(0, line.length() - 2);
-        Matcher m = ttlLine.matcher(line);
-        if (!m.matches()) {
-          Announce.warning("Cannot parse line:", line);
+    protected boolean isDirective(CharSequence line) {
+      int start = 0;
+      while (start < line.length() && line.charAt(start) <= ' ')
+        start++;
+      return (regionMatches(line, start, line.length(), "@base") || regionMatches(line, start, line.length(), "@prefix"));
+    }
+
+    @Override
+    protected void directive(String line) {
+      line = line.trim();
+      // BASE
+      if (line.startsWith("@base")) base = stripSquareBrackets(line.substring(5, line.length() - 1).trim());
+      // PREFIX
+      else prefixes.register(line);
+    }
+
+    @Override
+    protected boolean parseLine(CharSequence line, StringBuilder[] terms, int[] columns, TripleSink sink) {
+      // Trivial cases
+      int start = 0;
+      int end = line.length();
+      while (start < end && line.charAt(start) <= ' ')
+        start++;
+      while (end > start && line.charAt(end - 1) <= ' ')
+        end--;
+      if (start == end) return (false);
+      if (line.charAt(start) == '#') return (false);
+      // TTL line
+      if (end - start < 2 || line.charAt(end - 1) != '.' || line.charAt(end - 2) != ' ') {
+        warning("Line does not end with dot:", line.subSequence(start, end));
+        return (false);
+      }
+      if (!parseTriple(line, start, end - 2, base, prefixes, terms, sink)) {
+        warning("Cannot parse line:", line.subSequence(start, end - 2));
+        return (false);
+      }
+      return (true);
+    }
+
+    @Override
+    public boolean parseNext(TripleSink sink) throws IOException {
+      while (lines.next(line)) {
+        if (isDirective(line)) {
+          directive(line.toString());
           continue;
         }
-        return new String[] { baseAndCompressUri(m.group(1)), baseAndCompressUri(m.group(2)), baseAndCompressUri(m.group(3)) };
-      } while (true);
+        if (parseLine(line, terms, null, sink)) return (true);
+      }
+      return (false);
     }
 
   }
 
   /** Parses TSV files*/
-  public static class TsvParser extends Parser {
+  public static class TsvParser extends LineParser {
 
     /** If the TSV file does not contain the relation, use this one*/
     protected String relationName;
 
     /** Constructor with default relation name*/
     public TsvParser(File f) throws IOException {
-      lines = new FileLines(f, "UTF-8", null);
-      relationName = FileSet.newExtension(f.getName(), null);
+      this(f, 1);
+    }
+
+    /** Constructor with default relation name, with threads for decompression*/
+    public TsvParser(File f, int threads) throws IOException {
+      lines = lineReader(f, threads);
+      relationName = baseName(f);
       if (relationName.equals("type")) relationName = "rdf:type";
       if (relationName.equalsIgnoreCase("subclassof")) relationName = "rdfs:subclassOf";
       relationName = compressUri(relationName);
     }
 
+    /** Start and end of the columns of the current line*/
+    protected final int[] columns = newColumnBuffer();
+
+    /** Compresses a column of the line into a buffer*/
+    protected StringBuilder column(CharSequence line, int[] columns, int c, StringBuilder out) {
+      prefixes.compress(line, columns[2 * c], columns[2 * c + 1], out);
+      return (out);
+    }
+
+    /** TRUE if the column starts with "#"*/
+    protected static boolean isId(CharSequence line, int[] columns, int c) {
+      return (columns[2 * c] < columns[2 * c + 1] && line.charAt(columns[2 * c]) == '#');
+    }
+
     @Override
-    protected String[] internalNext() throws Exception {
-      if (!lines.hasNext()) return (null);
-      String[] line = lines.next().split("\t");
-      switch (line.length) {
+    protected boolean parseLine(CharSequence line, StringBuilder[] terms, int[] columns, TripleSink sink) {
+      int numColumns = splitTabs(line, columns);
+      switch (numColumns) {
         case 2:
           // Old YAGO: subject TAB object
-          return (new String[] { compressUri(line[0]), relationName, compressUri(line[1]) });
+          sink.triple(column(line, columns, 0, terms[0]), relationName, column(line, columns, 1, terms[2]));
+          return (true);
         case 3:
           // Old YAGO: #id TAB subject TAB object
-          if (line[0].startsWith("#")) return (new String[] { compressUri(line[1]), relationName, compressUri(line[2]) });
+          if (isId(line, columns, 0)) sink.triple(column(line, columns, 1, terms[0]), relationName, column(line, columns, 2, terms[2]));
           // Standard TSV: subject TAB predicate TAB object
-          return (new String[] { compressUri(line[0]), compressUri(line[1]), compressUri(line[2]) });
+          else sink.triple(column(line, columns, 0, terms[0]), column(line, columns, 1, terms[1]), column(line, columns, 2, terms[2]));
+          return (true);
         case 4:
           // Old YAGO: #id TAB subject TAB object TAB confidence
-          if (line[0].startsWith("#")) return (new String[] { compressUri(line[1]), relationName, compressUri(line[2]) });
+          if (isId(line, columns, 0)) {
+            sink.triple(column(line, columns, 1, terms[0]), relationName, column(line, columns, 2, terms[2]));
+            return (true);
+          }
           // else fall thru
         case 5:
-          return (new String[] { compressUri(line[1]), compressUri(line[2]), compressUri(line[3]) });
+          sink.triple(column(line, columns, 1, terms[0]), column(line, columns, 2, terms[1]), column(line, columns, 3, terms[2]));
+          return (true);
         default:
-          Announce.warning("Unsupported number of columns (", line.length, ")", line);
-          return (null);
+          warning("Unsupported number of columns (", numColumns, ")", line);
+          return (false);
       }
     }
 
+    @Override
+    public boolean parseNext(TripleSink sink) throws IOException {
+      if (!lines.next(line)) return (false);
+      return (parseLine(line, terms, columns, sink));
+    }
+
   }
-  
+
   /** Parses IMDB TSV files */
   public static class ImdbParser extends Parser {
     /** How to treat IMDB relations*/
@@ -235,8 +473,13 @@ public abstract class Parser extends PeekIterator<String[]> {
 
     /** Constructor with default relation name*/
     public ImdbParser(File f) throws IOException {
-      lines = new FileLines(f, "UTF-8", null);
-      relationName = FileSet.newExtension(f.getName(), null);
+      this(f, 1);
+    }
+
+    /** Constructor with default relation name, with threads for decompression*/
+    public ImdbParser(File f, int threads) throws IOException {
+      lines = lineReader(f, threads);
+      relationName = baseName(f);
       targetType = imdbRelations.get(relationName);
       relationName = relationName.equals("type") ? "rdf:type" : relationName.equals("label") ? "rdfs:label" : relationName;
       relationName = compressUri(relationName);
@@ -245,58 +488,71 @@ public abstract class Parser extends PeekIterator<String[]> {
       counter = 0;
     }
     
+    /** Start and end of the columns of the current line*/
+    protected final int[] columns = new int[6];
+
     @Override
-    protected String[] internalNext() throws Exception {
-    	if (!lines.hasNext()) {
-    		if (stringsAsEntities == null)
-    			stringsAsEntities = stringsThatAreEntities.iterator();
-    		if (!stringsAsEntities.hasNext())
-    			return null;
-    		String entity = stringsAsEntities.next();
-        return new String[] { entity.replace(' ', '_'), "rdfs:label", "\"" + entity + "\""};
-    	}
-      String[] split = lines.next().split("\t");
-      if (split.length < 3) {
-      	// some facts in bornOn have no object
-    		// jump to next fact
-      	return internalNext();
-      }
-      String arg1 = split[1];
-      String arg2 = split[2];
-      switch (targetType) {
-        case DATE:
-          arg2 = DateParser.normalize(arg2);
-          assert(!arg2.startsWith("\""));
-          arg2 = "\"" + arg2 + "\"";
-          break;
-        case NUMBER:
-          if (arg2.contains("1/2\"")) return internalNext();
-          arg2 = arg2.replaceAll("(\\d+)' (\\d+)\"", "\\1 feet \\2 inches");
-          arg2 = arg2.replaceAll("(\\d+)'", "\\1 feet");
-          arg2 = NumberParser.normalize(arg2).trim();
-          assert(!arg2.startsWith("\""));
-          arg2 = "\"" + arg2 + "\"";
-          break;
-        case STRING:
-          if (arg2.contains("$") || arg2.length() < 3 || (!Character.isLetter(arg2.charAt(0)) && !Character.isDigit(arg2.charAt(0)))
-              || arg2.equals("Too")) return internalNext();
-          assert(!arg2.startsWith("\""));
-          arg2 = "\"" + arg2 + "\"";
-          break;
-        case RESOURCE:
-          break;
-        case STRINGASRESOURCE:
-          stringsThatAreEntities.add(arg2);
-          arg2 = arg2.replace(' ', '_');
+    public boolean parseNext(TripleSink sink) throws IOException {
+      while (lines.next(line)) {
+        if (splitTabs(line, columns) < 3) {
+          // some facts in bornOn have no object
+          // jump to next fact
+          continue;
+        }
+        terms[0].setLength(0);
+        terms[0].append(line, columns[2], columns[3]);
+        if (targetType == IMDBType.RESOURCE) {
+          terms[2].setLength(0);
+          terms[2].append(line, columns[4], columns[5]);
+          sink.triple(terms[0], relationName, terms[2]);
+          return (true);
+        }
+        String arg2 = line.substring(columns[4], columns[5]);
+        switch (targetType) {
+          case DATE:
+            arg2 = DateParser.normalize(arg2);
+            assert (!arg2.startsWith("\""));
+            arg2 = "\"" + arg2 + "\"";
+            break;
+          case NUMBER:
+            if (arg2.contains("1/2\"")) continue;
+            arg2 = arg2.replaceAll("(\\d+)' (\\d+)\"", "\\1 feet \\2 inches");
+            arg2 = arg2.replaceAll("(\\d+)'", "\\1 feet");
+            arg2 = NumberParser.normalize(arg2).trim();
+            assert (!arg2.startsWith("\""));
+            arg2 = "\"" + arg2 + "\"";
+            break;
+          case STRING:
+            if (arg2.contains("$") || arg2.length() < 3 || (!Character.isLetter(arg2.charAt(0)) && !Character.isDigit(arg2.charAt(0)))
+                || arg2.equals("Too")) continue;
+            assert (!arg2.startsWith("\""));
+            arg2 = "\"" + arg2 + "\"";
+            break;
+          case RESOURCE:
+            break;
+          case STRINGASRESOURCE:
+            stringsThatAreEntities.add(arg2);
+            arg2 = arg2.replace(' ', '_');
+        }
+        assert (arg2 != null);
+        sink.triple(terms[0], relationName, arg2);
+        return (true);
       }
-      assert(arg2 != null);
-      return new String[] { arg1, relationName, arg2 };
+      if (stringsAsEntities == null) stringsAsEntities = stringsThatAreEntities.iterator();
+      if (!stringsAsEntities.hasNext()) return (false);
+      String entity = stringsAsEntities.next();
+      sink.triple(entity.replace(' ', '_'), "rdfs:label", "\"" + entity + "\"");
+      return (true);
     }
   }
 
   @Override
   public void close() {
-    lines.close();
+    try {
+      lines.close();
+    } catch (IOException e) {
+      Announce.warning(e);
+    }
   }
 
   public static void main(String[] args) throws Exception {
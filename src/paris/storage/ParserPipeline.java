@@ -0,0 +1,176 @@
+package paris.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import bak.pcj.list.IntArrayList;
+
+/**
+ * Runs a parser as a pipeline: the calling thread reads (and decompresses) the
+ * lines of the file into blocks, and worker threads parse the blocks and pass
+ * the triples to the sink, which encodes them. This way, reading, parsing and
+ * encoding overlap, and a single file keeps several cores busy. The blocks are
+ * recycled, so that the pipeline creates no garbage per line. Directives (e.g.
+ * "@prefix") are applied only when all lines before them have been parsed, so
+ * that the result is the same as with Parser.parse().
+ */
+public class ParserPipeline {
+
+  /** Number of lines per block */
+  public static final int BLOCK_LINES = 4096;
+
+  /** Number of blocks per worker */
+  public static final int BLOCKS_PER_WORKER = 4;
+
+  /** Lines that are handed from the reader to a worker */
+  protected static class Block {
+
+    /** The characters of the lines */
+    protected final StringBuilder text = new StringBuilder();
+
+    /** The end of each line in the text */
+    protected final IntArrayList ends = new IntArrayList(BLOCK_LINES);
+
+    /** TRUE for the block that tells a worker to stop */
+    protected final boolean last;
+
+    protected Block(boolean last) {
+      this.last = last;
+    }
+
+    protected void clear() {
+      text.setLength(0);
+      ends.clear();
+    }
+  }
+
+  /** The parser */
+  protected final Parser.LineParser parser;
+
+  /** Number of worker threads */
+  protected final int nWorkers;
+
+  /** Blocks that wait for a worker */
+  protected final BlockingQueue<Block> full;
+
+  /** Blocks that the reader can fill */
+  protected final BlockingQueue<Block> free;
+
+  /** Total number of blocks */
+  protected final int numBlocks;
+
+  /** Constructor */
+  public ParserPipeline(Parser.LineParser parser, int nWorkers) {
+    this.parser = parser;
+    this.nWorkers = Math.max(1, nWorkers);
+    numBlocks = this.nWorkers * BLOCKS_PER_WORKER;
+    full = new ArrayBlockingQueue<Block>(numBlocks + this.nWorkers);
+    free = new ArrayBlockingQueue<Block>(numBlocks);
+    for (int i = 0; i < numBlocks; i++)
+      free.add(new Block(false));
+  }
+
+  /** Passes all triples to the sink and closes the parser */
+  public void parse(TripleSink sink) throws IOException {
+    run(sink, null, 0);
+  }
+
+  /** Loads all triples into the fact store, which makes room for the expected number of facts in advance, and closes the parser */
+  public void load(FactStore fs, long expectedFacts) throws IOException {
+    run(fs, fs, expectedFacts / nWorkers);
+  }
+
+  /** Runs the pipeline. Every worker reserves room for the facts in the fact store, if given */
+  protected void run(final TripleSink sink, final FactStore fs, final long factsPerWorker) throws IOException {
+    final RuntimeException[] failure = new RuntimeException[1];
+    List<Thread> workers = new ArrayList<Thread>();
+    for (int i = 0; i < nWorkers; i++) {
+      Thread worker = new Thread() {
+
+        public void run() {
+          if (fs != null && factsPerWorker > 0) fs.reserveFacts(factsPerWorker);
+          StringBuilder line = new StringBuilder();
+          StringBuilder[] terms = Parser.newTermBuffers();
+          int[] columns = parser.newColumnBuffer();
+          try {
+            while (true) {
+              Block block = full.take();
+              if (block.last) return;
+              try {
+                int start = 0;
+                for (int l = 0; l < block.ends.size(); l++) {
+                  int end = block.ends.get(l);
+                  line.setLength(0);
+                  line.append(block.text, start, end);
+                  parser.parseLine(line, terms, columns, sink);
+                  start = end;
+                }
+              } catch (RuntimeException e) {
+                synchronized (failure) {
+                  if (failure[0] == null) failure[0] = e;
+                }
+              }
+              block.clear();
+              free.put(block);
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      };
+      workers.add(worker);
+      worker.start();
+    }
+    try {
+      read();
+      for (int i = 0; i < nWorkers; i++)
+        full.put(new Block(true));
+      for (Thread worker : workers)
+        worker.join();
+    } catch (InterruptedException e) {
+      for (Thread worker : workers)
+        worker.interrupt();
+      throw new IOException(e);
+    } finally {
+      parser.close();
+    }
+    if (failure[0] != null) throw failure[0];
+  }
+
+  /** Reads the lines into blocks and hands them to the workers */
+  protected void read() throws IOException, InterruptedException {
+    StringBuilder line = parser.line;
+    Block block = free.take();
+    while (parser.lines.next(line)) {
+      if (parser.isDirective(line)) {
+        // All lines before the directive are parsed before it applies
+        if (block.ends.size() > 0) {
+          full.put(block);
+          block = free.take();
+        }
+        drain();
+        parser.directive(line.toString());
+        continue;
+      }
+      block.text.append(line);
+      block.ends.add(block.text.length());
+      if (block.ends.size() == BLOCK_LINES) {
+        full.put(block);
+        block = free.take();
+      }
+    }
+    if (block.ends.size() > 0) full.put(block);
+    else free.put(block);
+  }
+
+  /** Waits until the workers have parsed all blocks. Call while holding one block */
+  protected void drain() throws InterruptedException {
+    List<Block> blocks = new ArrayList<Block>();
+    for (int i = 0; i < numBlocks - 1; i++)
+      blocks.add(free.take());
+    free.addAll(blocks);
+  }
+}
@@ -0,0 +1,122 @@
+package paris.storage;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Finds the longest registered prefix of a string in one pass over the string,
+ * so that compressing a URI does not have to try all prefixes one by one.
+ * Build the trie completely before sharing it between threads.
+ */
+public class PrefixTrie {
+
+  /** A node of the trie. The children are sorted by their label */
+  protected static class Node {
+
+    protected char[] labels = new char[0];
+
+    protected Node[] children = new Node[0];
+
+    /** The prefix that ends here, or NULL */
+    protected String prefix;
+
+    /** The replacement of that prefix */
+    protected String replacement;
+  }
+
+  /** The root, i.e., the empty prefix */
+  protected final Node root = new Node();
+
+  /** Constructs an empty trie */
+  public PrefixTrie() {
+  }
+
+  /** Constructs a trie that maps the keys of the map to its values */
+  public PrefixTrie(Map<String, String> prefixes) {
+    for (Entry<String, String> entry : prefixes.entrySet())
+      put(entry.getKey(), entry.getValue());
+  }
+
+  /** Adds a prefix with its replacement. Keeps the first replacement if the prefix is added twice */
+  public void put(String prefix, String replacement) {
+    Node node = root;
+    for (int i = 0; i < prefix.length(); i++) {
+      char c = prefix.charAt(i);
+      int pos = Arrays.binarySearch(node.labels, c);
+      if (pos < 0) {
+        pos = -pos - 1;
+        Node child = new Node();
+        node.labels = insert(node.labels, pos, c);
+        Node[] children = new Node[node.children.length + 1];
+        System.arraycopy(node.children, 0, children, 0, pos);
+        System.arraycopy(node.children, pos, children, pos + 1, node.children.length - pos);
+        children[pos] = child;
+        node.children = children;
+      }
+      node = node.children[pos];
+    }
+    if (node.prefix != null) return;
+    node.prefix = prefix;
+    node.replacement = replacement;
+  }
+
+  /** Inserts a char into an array */
+  protected static char[] insert(char[] array, int pos, char c) {
+    char[] result = new char[array.length + 1];
+    System.arraycopy(array, 0, result, 0, pos);
+    System.arraycopy(array, pos, result, pos + 1, array.length - pos);
+    result[pos] = c;
+    return (result);
+  }
+
+  /** Returns the node of the longest prefix of s[start,end), or NULL */
+  protected Node find(CharSequence s, int start, int end) {
+    Node node = root;
+    Node result = root.prefix != null ? root : null;
+    for (int i = start; i < end; i++) {
+      Node child = child(node, s.charAt(i));
+      if (child == null) break;
+      node = child;
+      if (node.prefix != null) result = node;
+    }
+    return (result);
+  }
+
+  /** Returns the child with the label, or NULL */
+  protected static Node child(Node node, char c) {
+    char[] labels = node.labels;
+    // Most nodes have one child
+    if (labels.length == 1) return (labels[0] == c ? node.children[0] : null);
+    int pos = Arrays.binarySearch(labels, c);
+    return (pos < 0 ? null : node.children[pos]);
+  }
+
+  /** TRUE if s was added as a prefix */
+  public boolean contains(CharSequence s) {
+    Node node = root;
+    for (int i = 0; i < s.length() && node != null; i++)
+      node = child(node, s.charAt(i));
+    return (node != null && node.prefix != null);
+  }
+
+  /** TRUE if s starts with a prefix that was added */
+  public boolean startsWithPrefix(CharSequence s) {
+    return (find(s, 0, s.length()) != null);
+  }
+
+  /** Replaces the longest prefix of s[start,end) and appends the result. Returns FALSE and appends nothing if no prefix matches */
+  public boolean replace(CharSequence s, int start, int end, StringBuilder out) {
+    Node node = find(s, start, end);
+    if (node == null) return (false);
+    out.append(node.replacement).append(s, start + node.prefix.length(), end);
+    return (true);
+  }
+
+  /** Replaces the longest prefix of s, returns s if no prefix matches */
+  public String replace(String s) {
+    Node node = find(s, 0, s.length());
+    if (node == null) return (s);
+    return (node.replacement + s.substring(node.prefix.length()));
+  }
+}
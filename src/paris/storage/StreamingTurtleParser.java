@@ -0,0 +1,489 @@
+package paris.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javatools.administrative.Announce;
+
+/**
+ * Parses Turtle and N-Quads files with a streaming state machine, so that
+ * triples can span several lines and use the abbreviations of Turtle
+ * (";", ",", "a", "[...]", "(...)", literals in triple quotes). Every term is
+ * brought into the form that it would have in an N-Triples file and is then
+ * compressed as by the TurtleParser, so that a file yields the same facts as
+ * its conversion to N-Triples. Prefixes are registered as by the TurtleParser.
+ * The graph label of N-Quads is ignored, unless keepGraphs() restricts the
+ * graphs to load; then the triples of the default graph are dropped, too.
+ */
+public class StreamingTurtleParser extends Parser {
+
+  /** Counter for the names of anonymous blank nodes */
+  protected static final AtomicLong blankNodes = new AtomicLong();
+
+  /** The input */
+  protected final Reader in;
+
+  /** Read buffer */
+  protected final char[] buffer = new char[64 * 1024];
+
+  /** Current position in the buffer */
+  protected int pos;
+
+  /** End of the valid data in the buffer */
+  protected int limit;
+
+  /** Current line, for warnings */
+  protected long lineNumber = 1;
+
+  /** Current base URI */
+  protected String base = "";
+
+  /** Graphs whose triples are loaded, as compressed URIs, NULL for all */
+  protected PrefixTrie graphs;
+
+  /** Raw subject, predicate and object of each nesting level of "[...]" and "(...)" */
+  protected final List<StringBuilder[]> levels = new ArrayList<StringBuilder[]>();
+
+  /** Raw graph label */
+  protected final StringBuilder graph = new StringBuilder();
+
+  /** Compressed triples that wait for parseNext */
+  protected final List<StringBuilder[]> pending = new ArrayList<StringBuilder[]>();
+
+  /** Number of waiting triples, and the next one to pass on */
+  protected int numPending;
+
+  protected int nextPending;
+
+  /** Constructor */
+  public StreamingTurtleParser(File f) throws IOException {
+    this(f, 1);
+  }
+
+  /** Constructor, with threads for decompression */
+  public StreamingTurtleParser(File f, int threads) throws IOException {
+    in = new InputStreamReader(CompressedInput.open(f, threads), StandardCharsets.UTF_8);
+  }
+
+  /** Loads only the triples of the given graphs, given as URIs or compressed URIs */
+  public void keepGraphs(Collection<String> keep) {
+    graphs = new PrefixTrie();
+    for (String g : keep)
+      graphs.put(prefixes.compress(g), g);
+  }
+
+  @Override
+  public boolean parseNext(TripleSink sink) throws IOException {
+    while (nextPending == numPending) {
+      nextPending = numPending = 0;
+      if (!statement()) return (false);
+    }
+    StringBuilder[] triple = pending.get(nextPending++);
+    sink.triple(triple[0], triple[1], triple[2]);
+    return (true);
+  }
+
+  @Override
+  public void close() {
+    try {
+      in.close();
+    } catch (IOException e) {
+      Announce.warning(e);
+    }
+  }
+
+  // ----------------------------------------------------------------------------
+  // Characters
+  // ----------------------------------------------------------------------------
+
+  /** Makes sure that n characters can be peeked, if the input has them */
+  protected void ensure(int n) throws IOException {
+    if (limit - pos >= n) return;
+    System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+    limit -= pos;
+    pos = 0;
+    while (limit < n) {
+      int read = in.read(buffer, limit, buffer.length - limit);
+      if (read <= 0) return;
+      limit += read;
+    }
+  }
+
+  /** Returns the character at the offset from the current position, -1 at the end */
+  protected int peekChar(int offset) throws IOException {
+    if (pos + offset >= limit) ensure(offset + 1);
+    return (pos + offset < limit ? buffer[pos + offset] : -1);
+  }
+
+  /** Returns the current character, -1 at the end */
+  protected int peekChar() throws IOException {
+    if (pos == limit) ensure(1);
+    return (pos < limit ? buffer[pos] : -1);
+  }
+
+  /** Consumes and returns the current character, -1 at the end */
+  protected int readChar() throws IOException {
+    int c = peekChar();
+    if (c == -1) return (-1);
+    pos++;
+    if (c == '\n') lineNumber++;
+    return (c);
+  }
+
+  /** Skips white space and comments. Returns the next character, -1 at the end */
+  protected int skipSpace() throws IOException {
+    while (true) {
+      int c = peekChar();
+      if (c == '#') {
+        while (c != -1 && c != '\n' && c != '\r')
+          c = readChar();
+        continue;
+      }
+      if (c == -1 || c > ' ') return (c);
+      readChar();
+    }
+  }
+
+  /** Thrown for input that is not Turtle */
+  protected class SyntaxException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public SyntaxException(String message) {
+      super(message + " in line " + lineNumber);
+    }
+  }
+
+  /** Consumes the character or fails */
+  protected void expect(char c) throws IOException {
+    if (skipSpace() != c) throw new SyntaxException("Expected '" + c + "'");
+    readChar();
+  }
+
+  /** TRUE for characters that can occur in prefixed names and keywords */
+  protected static boolean isNameChar(int c) {
+    return ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-' || c == ':' || c == '%' || c > 0x7F);
+  }
+
+  // ----------------------------------------------------------------------------
+  // Terms
+  // ----------------------------------------------------------------------------
+
+  /** Reads "<...>" */
+  protected void iri(StringBuilder out) throws IOException {
+    out.append((char) readChar());
+    while (true) {
+      int c = readChar();
+      if (c == -1 || c == '\n' || c == '\r') throw new SyntaxException("Unterminated IRI");
+      out.append((char) c);
+      if (c == '>') return;
+    }
+  }
+
+  /** Reads a prefixed name, a blank node label or a keyword */
+  protected void name(StringBuilder out) throws IOException {
+    while (true) {
+      int c = peekChar();
+      if (c == '\\') {
+        out.append((char) readChar());
+        if (peekChar() == -1) throw new SyntaxException("Unterminated escape");
+        out.append((char) readChar());
+        continue;
+      }
+      // A dot belongs to the name if a name character follows
+      if (c == '.' && isNameChar(peekChar(1)) && out.length() > 0) {
+        out.append((char) readChar());
+        continue;
+      }
+      if (!isNameChar(c)) return;
+      out.append((char) readChar());
+    }
+  }
+
+  /** Reads a number as it is written */
+  protected void number(StringBuilder out) throws IOException {
+    int c = peekChar();
+    if (c == '+' || c == '-') out.append((char) readChar());
+    while ((c = peekChar()) >= '0' && c <= '9')
+      out.append((char) readChar());
+    if (c == '.' && peekChar(1) >= '0' && peekChar(1) <= '9') {
+      out.append((char) readChar());
+      while ((c = peekChar()) >= '0' && c <= '9')
+        out.append((char) readChar());
+    }
+    if (c == 'e' || c == 'E') {
+      out.append((char) readChar());
+      if (peekChar() == '+' || peekChar() == '-') out.append((char) readChar());
+      while ((c = peekChar()) >= '0' && c <= '9')
+        out.append((char) readChar());
+    }
+  }
+
+  /** Reads a literal in single, double or triple quotes, writes it in double quotes as in N-Triples */
+  protected void literal(StringBuilder out) throws IOException {
+    int quote = readChar();
+    boolean isLong = peekChar() == quote && peekChar(1) == quote;
+    if (isLong) {
+      readChar();
+      readChar();
+    }
+    out.append('"');
+    while (true) {
+      int c = readChar();
+      if (c == -1) throw new SyntaxException("Unterminated literal");
+      if (c == '\\') {
+        int escaped = readChar();
+        if (escaped == -1) throw new SyntaxException("Unterminated literal");
+        // Single quotes need no escape in double quotes
+        if (escaped != '\'') out.append('\\');
+        out.append((char) escaped);
+        continue;
+      }
+      if (c == quote) {
+        if (!isLong) break;
+        if (peekChar() == quote && peekChar(1) == quote) {
+          // Up to two quotes before the closing ones belong to the literal
+          while (peekChar(2) == quote) {
+            out.append(quote == '"' ? "\\\"" : "'");
+            readChar();
+          }
+          readChar();
+          readChar();
+          break;
+        }
+      }
+      if ((c == '\n' || c == '\r') && !isLong) throw new SyntaxException("Line break in literal");
+      if (c == '"') out.append("\\\"");
+      else if (c == '\n') out.append("\\n");
+      else if (c == '\r') out.append("\\r");
+      else out.append((char) c);
+    }
+    out.append('"');
+    // Language tag or datatype
+    if (peekChar() == '@') {
+      out.append((char) readChar());
+      name(out);
+    } else if (peekChar() == '^' && peekChar(1) == '^') {
+      out.append((char) readChar()).append((char) readChar());
+      if (peekChar() == '<') iri(out);
+      else name(out);
+    }
+  }
+
+  /** Reads a term that is no "[...]" or "(...)" */
+  protected void simpleTerm(StringBuilder out) throws IOException {
+    out.setLength(0);
+    int c = skipSpace();
+    if (c == '<') iri(out);
+    else if (c == '"' || c == '\'') literal(out);
+    else if ((c >= '0' && c <= '9') || c == '+' || c == '-' || (c == '.' && peekChar(1) >= '0' && peekChar(1) <= '9')) number(out);
+    else if (isNameChar(c)) {
+      name(out);
+      // The shorthand booleans are literals, as "true"^^xsd:boolean in N-Triples
+      if ("true".contentEquals(out) || "false".contentEquals(out)) out.insert(0, '"').append("\"^^<http://www.w3.org/2001/XMLSchema#boolean>");
+    }
+    if (out.length() == 0) throw new SyntaxException("Unexpected " + (c == -1 ? "end of file" : "'" + (char) c + "'"));
+  }
+
+  /** Writes the name of a new blank node */
+  protected static void newBlankNode(StringBuilder out) {
+    out.setLength(0);
+    out.append("_:paris").append(blankNodes.incrementAndGet());
+  }
+
+  /**
+   * Reads a subject or an object into the buffer. "[...]" and "(...)" produce
+   * their triples with the buffers of the given level, which must not hold the
+   * buffer
+   */
+  protected void term(StringBuilder out, int level) throws IOException {
+    int c = skipSpace();
+    if (c == '[') {
+      readChar();
+      newBlankNode(out);
+      if (skipSpace() == ']') {
+        readChar();
+        return;
+      }
+      StringBuilder[] inner = level(level);
+      inner[0].setLength(0);
+      inner[0].append(out);
+      predicateObjectList(level);
+      expect(']');
+      return;
+    }
+    if (c == '(') {
+      readChar();
+      collection(out, level);
+      return;
+    }
+    simpleTerm(out);
+  }
+
+  /** Reads the elements of "(...)" and produces the rdf:first and rdf:rest triples. Writes the head of the list */
+  protected void collection(StringBuilder out, int level) throws IOException {
+    StringBuilder[] inner = level(level);
+    StringBuilder node = inner[0];
+    StringBuilder element = inner[1];
+    StringBuilder next = inner[2];
+    if (skipSpace() == ')') {
+      readChar();
+      out.setLength(0);
+      out.append("rdf:nil");
+      return;
+    }
+    newBlankNode(node);
+    out.setLength(0);
+    out.append(node);
+    while (true) {
+      term(element, level + 1);
+      emit(node, "rdf:first", element);
+      if (skipSpace() == ')') {
+        readChar();
+        emit(node, "rdf:rest", "rdf:nil");
+        return;
+      }
+      newBlankNode(next);
+      emit(node, "rdf:rest", next);
+      node.setLength(0);
+      node.append(next);
+    }
+  }
+
+  /** Returns the buffers of a nesting level: subject, predicate, object */
+  protected StringBuilder[] level(int level) {
+    while (levels.size() <= level)
+      levels.add(newTermBuffers());
+    return (levels.get(level));
+  }
+
+  // ----------------------------------------------------------------------------
+  // Statements
+  // ----------------------------------------------------------------------------
+
+  /** Reads the predicates and objects of the subject in level(level)[0] */
+  protected void predicateObjectList(int level) throws IOException {
+    StringBuilder[] terms = level(level);
+    while (true) {
+      // Verb
+      simpleTerm(terms[1]);
+      if (terms[1].length() == 1 && terms[1].charAt(0) == 'a') {
+        terms[1].setLength(0);
+        terms[1].append("rdf:type");
+      }
+      // Objects
+      while (true) {
+        StringBuilder o = terms[2];
+        term(o, level + 1);
+        int c = skipSpace();
+        // N-Quads: a graph label follows the object
+        if (c == '<' || c == '_') {
+          simpleTerm(graph);
+          if (graphs == null || graphs.contains(compress(graph))) emit(terms[0], terms[1], o);
+          c = skipSpace();
+        } else if (graphs == null) emit(terms[0], terms[1], o);
+        if (c != ',') break;
+        readChar();
+      }
+      if (skipSpace() != ';') return;
+      // Several ";" in a row are allowed, as is a ";" at the end
+      while (skipSpace() == ';')
+        readChar();
+      int c = skipSpace();
+      if (c == '.' || c == ']' || c == -1) return;
+    }
+  }
+
+  /** Buffer for compressing graph labels */
+  protected final StringBuilder compressed = new StringBuilder();
+
+  /** Compresses a term as the triples are compressed, into a buffer that the next call overwrites */
+  protected CharSequence compress(CharSequence term) {
+    prefixes.compress(base, term, 0, term.length(), compressed);
+    return (compressed);
+  }
+
+  /** Compresses a triple and adds it to the pending triples */
+  protected void emit(CharSequence subject, CharSequence predicate, CharSequence object) {
+    if (numPending == pending.size()) pending.add(newTermBuffers());
+    StringBuilder[] triple = pending.get(numPending++);
+    prefixes.compress(base, subject, 0, subject.length(), triple[0]);
+    prefixes.compress(base, predicate, 0, predicate.length(), triple[1]);
+    prefixes.compress(base, object, 0, object.length(), triple[2]);
+  }
+
+  /** Reads "@prefix", "@base", "PREFIX" or "BASE" */
+  protected void directive(boolean sparql) throws IOException {
+    StringBuilder keyword = level(0)[0];
+    keyword.setLength(0);
+    if (!sparql) readChar();
+    name(keyword);
+    String word = keyword.toString().toLowerCase();
+    if (word.equals("prefix")) {
+      simpleTerm(level(0)[1]);
+      simpleTerm(level(0)[2]);
+      String uri = level(0)[2].toString();
+      // Relative namespaces are resolved against the base
+      if (uri.startsWith("<") && !uri.startsWith("<http") && !base.isEmpty()) uri = "<" + base + uri.substring(1);
+      prefixes.register("@prefix " + level(0)[1] + " " + uri + " .");
+    } else if (word.equals("base")) {
+      simpleTerm(level(0)[1]);
+      base = stripSquareBrackets(level(0)[1].toString());
+    } else throw new SyntaxException("Unknown directive " + keyword);
+    if (!sparql) expect('.');
+  }
+
+  /** TRUE if the next word is the SPARQL keyword */
+  protected boolean isKeyword(String keyword) throws IOException {
+    for (int i = 0; i < keyword.length(); i++) {
+      if (Character.toUpperCase(peekChar(i)) != keyword.charAt(i)) return (false);
+    }
+    int next = peekChar(keyword.length());
+    return (next != -1 && next <= ' ');
+  }
+
+  /** Reads the next statement into the pending triples. Returns FALSE at the end of the file */
+  protected boolean statement() throws IOException {
+    while (true) {
+      int c = skipSpace();
+      if (c == -1) return (false);
+      try {
+        if (c == '@') {
+          directive(false);
+          continue;
+        }
+        if (isKeyword("PREFIX") || isKeyword("BASE")) {
+          directive(true);
+          continue;
+        }
+        StringBuilder[] terms = level(0);
+        boolean blank = c == '[';
+        term(terms[0], 1);
+        // "[...] ." is a statement of its own
+        if (!(blank && skipSpace() == '.')) predicateObjectList(0);
+        expect('.');
+        return (true);
+      } catch (SyntaxException e) {
+        Announce.warning(e.getMessage());
+        numPending = 0;
+        skipStatement();
+      }
+    }
+  }
+
+  /** Skips to the end of the current statement after a syntax error */
+  protected void skipStatement() throws IOException {
+    while (true) {
+      int c = readChar();
+      if (c == -1) return;
+      if (c == '.' && (peekChar() == -1 || peekChar() <= ' ')) return;
+    }
+  }
+}
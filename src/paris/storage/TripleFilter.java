@@ -0,0 +1,104 @@
+package paris.storage;
+
+import java.util.List;
+
+import paris.Setting;
+
+/**
+ * Decides which triples a fact store loads. Triples can be filtered by their
+ * predicate, and a sample of the subjects can be taken by the hash of their
+ * names, so that the sample is the same in every run. The filter runs before
+ * the names go into the dictionaries, so that dropped triples cost no memory.
+ */
+public class TripleFilter {
+
+  /** Relations given as names or as namespaces that end in "*" */
+  protected static class Relations {
+
+    protected final PrefixTrie names = new PrefixTrie();
+
+    protected final PrefixTrie namespaces = new PrefixTrie();
+
+    protected final String description;
+
+    public Relations(List<String> relations) {
+      for (String relation : relations) {
+        if (relation.endsWith("*")) namespaces.put(relation.substring(0, relation.length() - 1), relation);
+        else names.put(relation, relation);
+      }
+      description = relations.toString();
+    }
+
+    public boolean contains(CharSequence relation) {
+      return (names.contains(relation) || namespaces.startsWithPrefix(relation));
+    }
+  }
+
+  /** Relations to keep, NULL for all */
+  protected final Relations kept;
+
+  /** Relations to drop, NULL for none */
+  protected final Relations dropped;
+
+  /** Fraction of the subjects to keep */
+  protected final double subjectSample;
+
+  /** Subjects whose mixed hash is below this value are kept */
+  protected final long sampleThreshold;
+
+  /** Constructor */
+  public TripleFilter(List<String> keepRelations, List<String> dropRelations, double subjectSample) {
+    kept = keepRelations == null ? null : new Relations(keepRelations);
+    dropped = dropRelations == null ? null : new Relations(dropRelations);
+    this.subjectSample = subjectSample;
+    sampleThreshold = (long) (subjectSample * (1L << 31));
+  }
+
+  /** Returns the filter of the setting, or NULL if the setting loads all triples */
+  public static TripleFilter forSetting(Setting setting) {
+    if (setting.keepRelations == null && setting.dropRelations == null && setting.subjectSample >= 1) return (null);
+    return (new TripleFilter(setting.keepRelations, setting.dropRelations, setting.subjectSample));
+  }
+
+  /**
+   * TRUE if the triple shall be loaded. The predicate is the relation name as
+   * in the fact store. Facts about subclasses are kept for all subjects, so
+   * that the class hierarchy stays complete
+   */
+  public boolean accepts(CharSequence subject, CharSequence predicate) {
+    return (acceptsRelation(predicate) && (!samples(predicate) || acceptsSubject(subject)));
+  }
+
+  /** TRUE if facts with the relation can be loaded */
+  public boolean acceptsRelation(CharSequence predicate) {
+    if (kept != null && !kept.contains(predicate)) return (false);
+    if (dropped != null && dropped.contains(predicate)) return (false);
+    return (true);
+  }
+
+  /** TRUE if facts with the relation are loaded only for the subjects of the sample */
+  public boolean samples(CharSequence predicate) {
+    return (sampleThreshold < 1L << 31 && !"rdfs:subClassOf".contentEquals(predicate));
+  }
+
+  /** TRUE if the subject is in the sample */
+  public boolean acceptsSubject(CharSequence subject) {
+    return ((NameDictionary.mix(NameDictionary.hash(subject)) >>> 1) < sampleThreshold);
+  }
+
+  /**
+   * Returns the fraction of the triples that the filter is expected to keep:
+   * the subject sample, or 0 if relations are kept or dropped, because then
+   * the fraction is not known before loading
+   */
+  public double expectedFraction() {
+    return (kept == null && dropped == null ? Math.min(1, subjectSample) : 0);
+  }
+
+  /** Describes the filter, so that snapshots can tell whether they were made with the same filter */
+  @Override
+  public String toString() {
+    return ("keep=" + (kept == null ? "all" : kept.description) + " drop=" + (dropped == null ? "none" : dropped.description) + " sample="
+        + subjectSample);
+  }
+}
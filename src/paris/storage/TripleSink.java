@@ -0,0 +1,12 @@
+package paris.storage;
+
+/**
+ * Receives the triples of a parser. The arguments are reusable buffers of the
+ * parser: they are valid only during the call, and have to be copied by
+ * receivers that want to keep them.
+ */
+public interface TripleSink {
+
+  /** Receives one triple */
+  public void triple(CharSequence subject, CharSequence predicate, CharSequence object);
+}
@@ -0,0 +1,210 @@
+package paris.storage;
+
+import java.util.Arrays;
+
+/**
+ * The rdf:type facts of a prepared fact store, in compressed sparse rows for
+ * both directions: the instances of each class and the classes of each
+ * instance, each sorted and without repetitions. The classes (all entities
+ * that are classes or have instances) are also numbered densely from 0 to
+ * numClasses()-1, so that callers can keep per-class values in arrays instead
+ * of maps. The index is immutable and allocates nothing on lookups.
+ *
+ * The index also holds the closure of rdfs:subClassOf: the ancestors of each
+ * class (the class and all its direct and indirect superclasses), as sorted
+ * arrays of class numbers. The closure is computed once, on first use.
+ *
+ * FactStoreSnapshot saves the index with the facts. A MappedTypeIndex reads
+ * the arrays about entities and instances from the mapped snapshot.
+ */
+public class TypeIndex {
+
+  /** Maps class numbers to entity ids */
+  protected final int[] classes;
+
+  /** Maps entity ids to class numbers, -1 for entities that are not classes. NULL in a MappedTypeIndex */
+  protected final int[] classNumbers;
+
+  /** The instances of class number c are at instanceOffsets[c] to instanceOffsets[c+1]-1 of instances */
+  protected final int[] instanceOffsets;
+
+  /** The instances of all classes, NULL in a MappedTypeIndex */
+  protected final int[] instances;
+
+  /** The classes of entity e are at typeOffsets[e] to typeOffsets[e+1]-1 of types. Both are NULL in a MappedTypeIndex */
+  protected final int[] typeOffsets;
+
+  protected final int[] types;
+
+  /** The direct superclasses of class number c are at superclassOffsets[c] to superclassOffsets[c+1]-1 of superclasses, as class numbers */
+  protected final int[] superclassOffsets;
+
+  protected final int[] superclasses;
+
+  /** The ancestors of class number c are at ancestorOffsets[c] to ancestorOffsets[c+1]-1 of ancestors, as sorted class numbers */
+  protected int[] ancestorOffsets;
+
+  protected volatile int[] ancestors;
+
+  /** Builds the index from the sorted facts of the fact store */
+  public TypeIndex(FactStore fs) {
+    int numEntities = fs.numEntities();
+    int type = fs.TYPE;
+    int inverseType = FactStore.inverse(type);
+    // relation() returns 0 for unknown relations
+    int subclassOf = "rdfs:subClassOf".equals(fs.relation(fs.SUBCLASSOF)) ? fs.SUBCLASSOF : -2;
+    classNumbers = new int[numEntities];
+    int numClasses = 0;
+    for (int e = 0; e < numEntities; e++) {
+      boolean isClass = fs.isClass(e) || fs.degree(e, inverseType) > 0;
+      if (subclassOf >= 0) isClass = isClass || fs.degree(e, subclassOf) > 0 || fs.degree(e, FactStore.inverse(subclassOf)) > 0;
+      classNumbers[e] = isClass ? numClasses++ : -1;
+    }
+    classes = new int[numClasses];
+    for (int e = 0; e < numEntities; e++)
+      if (classNumbers[e] != -1) classes[classNumbers[e]] = e;
+    instanceOffsets = new int[numClasses + 1];
+    for (int c = 0; c < numClasses; c++)
+      instanceOffsets[c + 1] = instanceOffsets[c] + distinctObjects(fs, classes[c], inverseType, null, 0);
+    instances = new int[instanceOffsets[numClasses]];
+    for (int c = 0; c < numClasses; c++)
+      distinctObjects(fs, classes[c], inverseType, instances, instanceOffsets[c]);
+    typeOffsets = new int[numEntities + 1];
+    for (int e = 0; e < numEntities; e++)
+      typeOffsets[e + 1] = typeOffsets[e] + distinctObjects(fs, e, type, null, 0);
+    types = new int[typeOffsets[numEntities]];
+    for (int e = 0; e < numEntities; e++)
+      distinctObjects(fs, e, type, types, typeOffsets[e]);
+    superclassOffsets = new int[numClasses + 1];
+    for (int c = 0; c < numClasses; c++)
+      superclassOffsets[c + 1] = superclassOffsets[c] + (subclassOf < 0 ? 0 : distinctObjects(fs, classes[c], subclassOf, null, 0));
+    superclasses = new int[superclassOffsets[numClasses]];
+    for (int c = 0; c < numClasses && subclassOf >= 0; c++)
+      distinctObjects(fs, classes[c], subclassOf, superclasses, superclassOffsets[c]);
+    for (int i = 0; i < superclasses.length; i++)
+      superclasses[i] = classNumbers[superclasses[i]];
+  }
+
+  /** Constructor for an index read from a snapshot */
+  protected TypeIndex(int[] classes, int[] classNumbers, int[] instanceOffsets, int[] instances, int[] typeOffsets, int[] types,
+      int[] superclassOffsets, int[] superclasses) {
+    this.classes = classes;
+    this.classNumbers = classNumbers;
+    this.instanceOffsets = instanceOffsets;
+    this.instances = instances;
+    this.typeOffsets = typeOffsets;
+    this.types = types;
+    this.superclassOffsets = superclassOffsets;
+    this.superclasses = superclasses;
+  }
+
+  /** Computes the ancestors of all classes, by a search from every class */
+  protected synchronized void computeAncestors() {
+    if (ancestors != null) return;
+    int numClasses = numClasses();
+    int[] offsets = new int[numClasses + 1];
+    int[] result = new int[Math.max(16, numClasses + superclasses.length)];
+    // visited[d] == c+1 if class d has been reached from class c
+    int[] visited = new int[numClasses];
+    for (int c = 0; c < numClasses; c++) {
+      int start = offsets[c];
+      int end = start;
+      // The ancestors found so far serve as the queue
+      if (end + 1 > result.length) result = Arrays.copyOf(result, 2 * result.length);
+      result[end++] = c;
+      visited[c] = c + 1;
+      for (int next = start; next < end; next++) {
+        int d = result[next];
+        for (int i = superclassOffsets[d]; i < superclassOffsets[d + 1]; i++) {
+          int parent = superclasses[i];
+          if (visited[parent] == c + 1) continue;
+          visited[parent] = c + 1;
+          if (end + 1 > result.length) result = Arrays.copyOf(result, 2 * result.length);
+          result[end++] = parent;
+        }
+      }
+      Arrays.sort(result, start, end);
+      offsets[c + 1] = end;
+    }
+    ancestorOffsets = offsets;
+    ancestors = Arrays.copyOf(result, offsets[numClasses]);
+  }
+
+  /**
+   * Counts the distinct objects of the facts about the subject with the
+   * predicate, and copies them to the target at the given position, if any.
+   * The objects of these facts are sorted, so that repetitions are adjacent
+   */
+  protected static int distinctObjects(FactStore fs, int subject, int predicate, int[] target, int pos) {
+    int end = fs.endFact(subject, predicate);
+    int n = 0;
+    int last = -1;
+    for (int i = fs.firstFact(subject, predicate); i < end; i++) {
+      int object = fs.objectAt(subject, i);
+      if (n > 0 && object == last) continue;
+      if (target != null) target[pos + n] = object;
+      last = object;
+      n++;
+    }
+    return (n);
+  }
+
+  /** Returns the number of classes */
+  public int numClasses() {
+    return (classes.length);
+  }
+
+  /** Returns the entity id of a class number */
+  public int classAt(int number) {
+    return (classes[number]);
+  }
+
+  /** Returns the class number of an entity, -1 if it is not a class */
+  public int classNumber(int entity) {
+    return (classNumbers[entity]);
+  }
+
+  /** Returns the number of instances of a class (entity id) */
+  public int numInstances(int clss) {
+    int c = classNumber(clss);
+    return (c == -1 ? 0 : instanceOffsets[c + 1] - instanceOffsets[c]);
+  }
+
+  /** Returns the i-th instance of a class (entity id), in increasing order */
+  public int instanceAt(int clss, int i) {
+    return (instances[instanceOffsets[classNumbers[clss]] + i]);
+  }
+
+  /** Returns the number of classes of an entity */
+  public int numTypes(int entity) {
+    return (typeOffsets[entity + 1] - typeOffsets[entity]);
+  }
+
+  /** Returns the i-th class (entity id) of an entity, in increasing order */
+  public int typeAt(int entity, int i) {
+    return (types[typeOffsets[entity] + i]);
+  }
+
+  /** Returns the number of ancestors of a class (entity id): the class itself and all its superclasses */
+  public int numAncestors(int clss) {
+    int c = classNumber(clss);
+    if (c == -1) return (0);
+    if (ancestors == null) computeAncestors();
+    return (ancestorOffsets[c + 1] - ancestorOffsets[c]);
+  }
+
+  /** Returns the i-th ancestor (entity id) of a class (entity id), in increasing order */
+  public int ancestorAt(int clss, int i) {
+    if (ancestors == null) computeAncestors();
+    return (classes[ancestors[ancestorOffsets[classNumber(clss)] + i]]);
+  }
+
+  /** TRUE if the class is the superclass or one of its direct or indirect subclasses (entity ids) */
+  public boolean isSubclassOf(int clss, int superclass) {
+    int c = classNumber(clss);
+    int d = classNumber(superclass);
+    if (c == -1 || d == -1) return (false);
+    if (ancestors == null) computeAncestors();
+    return (Arrays.binarySearch(ancestors, ancestorOffsets[c], ancestorOffsets[c + 1], d) >= 0);
+  }
+}
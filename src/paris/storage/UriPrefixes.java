@@ -0,0 +1,79 @@
+package paris.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javatools.administrative.Announce;
+import javatools.parsers.Char;
+
+/**
+ * The namespace prefixes of one knowledge base: the standard prefixes of the
+ * Parser and the prefixes that the files of the knowledge base declare with
+ * "@prefix". Every fact store has its own prefixes, so that two knowledge bases
+ * that are loaded at the same time do not change how the URIs of the other one
+ * are compressed.
+ */
+public class UriPrefixes {
+
+  /** Maps the prefixes to their URIs */
+  protected final Map<String, String> prefixes = new HashMap<String, String>(Parser.standardPrefixes);
+
+  /** Maps the URIs to the prefixes. Rebuilt when a prefix is registered */
+  protected volatile PrefixTrie trie = Parser.uriTrie(prefixes);
+
+  /** Registers the prefix of a "@prefix" line */
+  public synchronized void register(String line) {
+    String[] components = line.split("\\s+");
+    components[2] = Parser.stripSquareBrackets(components[2]);
+    if (prefixes.containsKey(components[1]) && !prefixes.get(components[1]).equals(components[2])) {
+      Announce.warning("Ignoring non-standard redefinition of prefix", line);
+      return;
+    }
+    prefixes.put(components[1], components[2]);
+    trie = Parser.uriTrie(prefixes);
+  }
+
+  /** Translates the URI into a Qname */
+  public String compress(String s) {
+    s = s.trim();
+    s = Char.decodeAmpersand(s);
+    s = Char.decodeBackslash(s);
+    s = Parser.stripSquareBrackets(s);
+    return (trie.replace(s));
+  }
+
+  /** Translates s[start,end) into a Qname in the buffer. Creates Strings only for URIs that have to be decoded */
+  public void compress(CharSequence s, int start, int end, StringBuilder out) {
+    out.setLength(0);
+    while (start < end && s.charAt(start) <= ' ')
+      start++;
+    while (end > start && s.charAt(end - 1) <= ' ')
+      end--;
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if (c == '&' || c == '\\') {
+        out.append(compress(s.subSequence(start, end).toString()));
+        return;
+      }
+    }
+    if (start < end && s.charAt(start) == '<') start++;
+    if (end > start && s.charAt(end - 1) == '>') end--;
+    if (!trie.replace(s, start, end, out)) out.append(s, start, end);
+  }
+
+  /** Compresses a URI, resolving relative URIs against the base */
+  public String compress(String base, String s) {
+    if (s.startsWith("<") && !s.startsWith("<http")) s = base + s.substring(1, s.length() - 1);
+    return (compress(s));
+  }
+
+  /** Compresses the URI s[start,end) into the buffer, resolving relative URIs against the base */
+  public void compress(String base, CharSequence s, int start, int end, StringBuilder out) {
+    if (s.charAt(start) == '<' && !Parser.regionMatches(s, start, end, "<http")) {
+      out.setLength(0);
+      out.append(compress(base, s.subSequence(start, end).toString()));
+      return;
+    }
+    compress(s, start, end, out);
+  }
+}
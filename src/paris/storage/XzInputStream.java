@@ -0,0 +1,656 @@
+package paris.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Decompresses an xz file in several threads. The index at the end of each xz
+ * stream lists the blocks of the stream with their sizes, and the blocks are
+ * compressed independently of each other (xz writes several blocks with "-T"
+ * or "--block-size"). Each block is decoded by itself; blocks that are too
+ * large to be kept in memory are decoded by the reader. Only blocks that are
+ * compressed with LZMA2 alone (as xz does by default) are supported.
+ */
+public class XzInputStream extends ParallelDecompressor {
+
+  /** Magic bytes of the stream header */
+  protected static final byte[] HEADER_MAGIC = { (byte) 0xFD, '7', 'z', 'X', 'Z', 0 };
+
+  /** Id of the LZMA2 filter */
+  protected static final int LZMA2 = 0x21;
+
+  /** Size of the check of each check type */
+  protected static final int[] CHECK_SIZES = { 0, 4, 4, 4, 8, 8, 8, 16, 16, 16, 32, 32, 32, 64, 64, 64 };
+
+  /** A block of the file, as listed in the index */
+  protected static class Block extends Piece {
+
+    /** Size of the block without its padding */
+    long unpaddedSize;
+
+    long uncompressedSize;
+
+    /** Type of the check of the uncompressed data */
+    int checkType;
+  }
+
+  /** Handle of the file for the blocks that the reader decodes */
+  protected RandomAccessFile serialFile;
+
+  /** The block that the reader decodes, NULL for none */
+  protected BlockDecoder serialBlock;
+
+  public XzInputStream(File f, int nThreads) throws IOException {
+    super(f, nThreads);
+    try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+      byte[] header = new byte[HEADER_MAGIC.length];
+      if (raf.length() < 32) throw new IOException("Not in xz format: " + f);
+      raf.readFully(header);
+      if (!Arrays.equals(header, HEADER_MAGIC)) throw new IOException("Not in xz format: " + f);
+    }
+    start();
+  }
+
+  /** Returns the 4 bytes at b[i], little-endian */
+  protected static long int32(byte[] b, int i) {
+    return ((b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (long) (b[i + 3] & 0xFF) << 24);
+  }
+
+  /** TRUE if the CRC32 of b[start,end) is the 4 bytes at b[stored] */
+  protected static boolean crcMatches(byte[] b, int start, int end, int stored) {
+    CRC32 crc = new CRC32();
+    crc.update(b, start, end - start);
+    return (crc.getValue() == int32(b, stored));
+  }
+
+  /** Reads a variable-length number at position[0] of b, and moves the position */
+  protected static long varint(byte[] b, int[] position) throws IOException {
+    long result = 0;
+    for (int shift = 0; shift < 63; shift += 7) {
+      if (position[0] >= b.length) break;
+      int v = b[position[0]++] & 0xFF;
+      result |= (long) (v & 0x7F) << shift;
+      if (v < 0x80) return (result);
+    }
+    throw new IOException("Corrupt xz file");
+  }
+
+  /** Reads n bytes at a position of the file */
+  protected static byte[] read(RandomAccessFile raf, long position, int n) throws IOException {
+    byte[] result = new byte[n];
+    raf.seek(position);
+    raf.readFully(result);
+    return (result);
+  }
+
+  /** Reads the blocks of the streams from their indexes, from the end of the file */
+  @Override
+  protected void cut() throws IOException, InterruptedException {
+    List<Block> blocks = new ArrayList<Block>();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      long end = raf.length();
+      while (end > 0) {
+        // Streams can be followed by zeros
+        while (end >= 4 && int32(read(raf, end - 4, 4), 0) == 0)
+          end -= 4;
+        if (end < 24) throw new IOException("Corrupt xz file: " + file);
+        byte[] footer = read(raf, end - 12, 12);
+        if (footer[10] != 'Y' || footer[11] != 'Z' || !crcMatches(footer, 4, 10, 0)) throw new IOException("Corrupt xz footer in " + file);
+        int checkType = footer[9] & 0x0F;
+        long indexSize = (int32(footer, 4) + 1) * 4;
+        long indexStart = end - 12 - indexSize;
+        if (indexStart < 12 || indexSize > Integer.MAX_VALUE) throw new IOException("Corrupt xz footer in " + file);
+        byte[] index = read(raf, indexStart, (int) indexSize);
+        if (index[0] != 0 || !crcMatches(index, 0, index.length - 4, index.length - 4)) throw new IOException("Corrupt xz index in " + file);
+        int[] position = { 1 };
+        long n = varint(index, position);
+        List<Block> stream = new ArrayList<Block>();
+        long size = 0;
+        for (long i = 0; i < n; i++) {
+          Block block = new Block();
+          block.unpaddedSize = varint(index, position);
+          block.uncompressedSize = varint(index, position);
+          block.checkType = checkType;
+          block.start = size;
+          size += (block.unpaddedSize + 3) & ~3L;
+          block.end = size;
+          block.serial = block.uncompressedSize > MAX_PIECE_OUTPUT;
+          stream.add(block);
+        }
+        long streamStart = indexStart - size - 12;
+        if (streamStart < 0) throw new IOException("Corrupt xz index in " + file);
+        byte[] header = read(raf, streamStart, 12);
+        if (!Arrays.equals(Arrays.copyOf(header, 6), HEADER_MAGIC) || (header[7] & 0x0F) != checkType) throw new IOException("Corrupt xz header in " + file);
+        for (Block block : stream) {
+          block.start += streamStart + 12;
+          block.end += streamStart + 12;
+        }
+        blocks.addAll(0, stream);
+        end = streamStart;
+      }
+    }
+    for (Block block : blocks)
+      emit(block);
+  }
+
+  @Override
+  protected Decoder newDecoder() throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    return (new Decoder() {
+
+      @Override
+      public void decode(Piece piece) {
+        Block block = (Block) piece;
+        try {
+          byte[] data = new byte[(int) block.uncompressedSize];
+          new BlockDecoder(block, raf.getChannel(), data).readAll();
+          block.data = data;
+        } catch (IOException e) {
+          block.failure = e;
+        } catch (RuntimeException e) {
+          block.failure = new IOException("Corrupt xz block", e);
+        }
+      }
+
+      @Override
+      public void close() {
+        try {
+          raf.close();
+        } catch (IOException e) {
+        }
+      }
+    });
+  }
+
+  @Override
+  protected InputStream contents(Piece piece) throws IOException {
+    if (piece.failure != null) throw piece.failure;
+    if (piece.data != null) return (data(piece));
+    if (serialFile == null) serialFile = new RandomAccessFile(file, "r");
+    return (serialBlock = new BlockDecoder((Block) piece, serialFile.getChannel(), null));
+  }
+
+  @Override
+  public long position() {
+    if (current != null && current == serialBlock) return (serialBlock.block.start + serialBlock.headerSize + serialBlock.lzma.consumed);
+    return (super.position());
+  }
+
+  @Override
+  public void close() throws IOException {
+    super.close();
+    if (serialFile != null) serialFile.close();
+  }
+
+  /** The check of the uncompressed data of a block */
+  protected static class Check {
+
+    protected final int type;
+
+    protected final CRC32 crc32 = new CRC32();
+
+    protected long crc64 = -1;
+
+    protected final MessageDigest sha256;
+
+    protected static final long[] CRC64_TABLE = new long[256];
+    static {
+      for (int i = 0; i < 256; i++) {
+        long c = i;
+        for (int k = 0; k < 8; k++)
+          c = (c & 1) != 0 ? (c >>> 1) ^ 0xC96C5795D7870F42L : c >>> 1;
+        CRC64_TABLE[i] = c;
+      }
+    }
+
+    public Check(int type) throws IOException {
+      this.type = type;
+      try {
+        sha256 = type == 10 ? MessageDigest.getInstance("SHA-256") : null;
+      } catch (NoSuchAlgorithmException e) {
+        throw new IOException(e);
+      }
+    }
+
+    public void update(byte[] b, int off, int len) {
+      switch (type) {
+        case 1:
+          crc32.update(b, off, len);
+          break;
+        case 4:
+          long c = crc64;
+          for (int i = off; i < off + len; i++)
+            c = CRC64_TABLE[(int) (c ^ b[i]) & 0xFF] ^ (c >>> 8);
+          crc64 = c;
+          break;
+        case 10:
+          sha256.update(b, off, len);
+          break;
+      }
+    }
+
+    /** TRUE if the check matches the stored check. Unknown types of checks are not verified */
+    public boolean matches(byte[] stored) {
+      switch (type) {
+        case 1:
+          return (int32(stored, 0) == crc32.getValue());
+        case 4:
+          return ((int32(stored, 0) | int32(stored, 4) << 32) == ~crc64);
+        case 10:
+          return (Arrays.equals(stored, sha256.digest()));
+      }
+      return (true);
+    }
+  }
+
+  /** Decodes a block, and returns its uncompressed data */
+  protected static class BlockDecoder extends InputStream {
+
+    protected final Block block;
+
+    protected final DataInputStream in;
+
+    protected final Lzma2Decoder lzma;
+
+    protected final Check check;
+
+    /** Size of the block header */
+    protected final int headerSize;
+
+    /** Next byte in the window that was not returned */
+    protected int outPos;
+
+    /** Number of decoded bytes */
+    protected long size;
+
+    protected boolean finished;
+
+    /** Starts decoding the block into the window, or into a sliding window if the window is NULL */
+    public BlockDecoder(Block block, FileChannel channel, byte[] window) throws IOException {
+      this.block = block;
+      channel.position(block.start);
+      in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+      int first = in.readUnsignedByte();
+      if (first == 0) throw new IOException("Corrupt xz block");
+      headerSize = (first + 1) * 4;
+      byte[] header = new byte[headerSize];
+      header[0] = (byte) first;
+      in.readFully(header, 1, headerSize - 1);
+      if (!crcMatches(header, 0, headerSize - 4, headerSize - 4)) throw new IOException("Corrupt xz block header");
+      int flags = header[1] & 0xFF;
+      if ((flags & 0x3C) != 0) throw new IOException("Corrupt xz block header");
+      if ((flags & 3) != 0) throw new IOException("Unsupported xz filters, only LZMA2 is supported");
+      int[] position = { 2 };
+      if ((flags & 0x40) != 0) varint(header, position);
+      if ((flags & 0x80) != 0) varint(header, position);
+      if (varint(header, position) != LZMA2 || varint(header, position) != 1) throw new IOException("Unsupported xz filters, only LZMA2 is supported");
+      int props = header[position[0]] & 0xFF;
+      if (props > 40) throw new IOException("Corrupt xz block header");
+      long dictSize = props == 40 ? 0xFFFFFFFFL : (2L | (props & 1)) << (props / 2 + 11);
+      if (window == null) {
+        long keep = Math.min(dictSize, block.uncompressedSize);
+        long length = keep + Math.max(Lzma2Decoder.MAX_CHUNK + 16, Math.min(keep, 256 << 20));
+        if (length > Integer.MAX_VALUE - 16) throw new IOException("xz dictionary too large");
+        window = new byte[(int) length];
+      }
+      lzma = new Lzma2Decoder(in, (int) Math.min(dictSize, Integer.MAX_VALUE), window, window.length < block.uncompressedSize);
+      check = new Check(block.checkType);
+    }
+
+    /** Decodes the next chunk. Returns FALSE at the end of the block, after checking it */
+    protected boolean nextChunk() throws IOException {
+      if (finished) return (false);
+      int n = lzma.decodeChunk();
+      if (n < 0) {
+        finished = true;
+        long unpadded = headerSize + lzma.consumed + CHECK_SIZES[block.checkType];
+        for (long i = headerSize + lzma.consumed; (i & 3) != 0; i++)
+          if (in.readUnsignedByte() != 0) throw new IOException("Corrupt xz block padding");
+        byte[] stored = new byte[CHECK_SIZES[block.checkType]];
+        in.readFully(stored);
+        if (unpadded != block.unpaddedSize || size != block.uncompressedSize) throw new IOException("xz block does not match the index");
+        if (!check.matches(stored)) throw new IOException("Corrupt xz block, wrong checksum");
+        return (false);
+      }
+      check.update(lzma.window, lzma.pos - n, n);
+      size += n;
+      outPos = lzma.pos - n;
+      return (true);
+    }
+
+    /** Decodes the whole block into the window */
+    public void readAll() throws IOException {
+      while (nextChunk());
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return (read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      while (outPos == lzma.pos) {
+        if (!nextChunk()) return (-1);
+      }
+      int n = Math.min(len, lzma.pos - outPos);
+      System.arraycopy(lzma.window, outPos, b, off, n);
+      outPos += n;
+      return (n);
+    }
+  }
+
+  /** Decodes LZMA2 data into a window */
+  protected static class Lzma2Decoder {
+
+    /** Maximal number of uncompressed bytes of a chunk */
+    protected static final int MAX_CHUNK = 1 << 21;
+
+    protected static final int STATES = 12;
+
+    protected static final int LITERAL_STATES = 7;
+
+    protected final DataInputStream in;
+
+    /** Size of the dictionary */
+    protected final int dictSize;
+
+    /** Decoded data. Matches can refer back to the dictionary before pos */
+    protected final byte[] window;
+
+    /** TRUE if the window is moved back when it is full */
+    protected final boolean sliding;
+
+    /** Position of the next decoded byte in the window */
+    protected int pos;
+
+    /** Position of the last dictionary reset, may be before the window */
+    protected int dictStart;
+
+    /** Number of bytes read from the input */
+    protected long consumed;
+
+    protected boolean needDictReset = true;
+
+    protected boolean needProps = true;
+
+    /** Range decoder over the compressed bytes of a chunk */
+    protected final byte[] rc = new byte[1 << 16];
+
+    protected int rcPos, rcEnd, range, code;
+
+    protected int lc, lp, pb;
+
+    protected int state, rep0, rep1, rep2, rep3;
+
+    protected final int[] isMatch = new int[STATES << 4];
+
+    protected final int[] isRep = new int[STATES];
+
+    protected final int[] isRep0 = new int[STATES];
+
+    protected final int[] isRep1 = new int[STATES];
+
+    protected final int[] isRep2 = new int[STATES];
+
+    protected final int[] isRep0Long = new int[STATES << 4];
+
+    protected final int[][] distSlots = new int[4][64];
+
+    protected final int[][] distSpecial = new int[10][];
+
+    protected final int[] distAlign = new int[16];
+
+    protected final int[] matchLen = new int[2 + 16 * 8 * 2 + 256];
+
+    protected final int[] repLen = new int[matchLen.length];
+
+    protected int[] literals = new int[0x300];
+
+    public Lzma2Decoder(DataInputStream in, int dictSize, byte[] window, boolean sliding) {
+      this.in = in;
+      this.dictSize = dictSize;
+      this.window = window;
+      this.sliding = sliding;
+      for (int i = 0; i < distSpecial.length; i++)
+        distSpecial[i] = new int[1 << (i / 2 + 1)];
+    }
+
+    /** Decodes the next chunk into the window. Returns the number of bytes, -1 at the end */
+    public int decodeChunk() throws IOException {
+      int control = in.readUnsignedByte();
+      consumed++;
+      if (control == 0) return (-1);
+      if (control >= 0xE0 || control == 1) {
+        needProps = true;
+        needDictReset = false;
+        dictStart = pos;
+      } else if (needDictReset) throw new IOException("Corrupt xz block");
+      if (control < 0x80) {
+        if (control > 2) throw new IOException("Corrupt xz block");
+        int size = in.readUnsignedShort() + 1;
+        makeRoom(size);
+        in.readFully(window, pos, size);
+        consumed += 2 + size;
+        pos += size;
+        return (size);
+      }
+      int size = ((control & 0x1F) << 16) + in.readUnsignedShort() + 1;
+      int compressed = in.readUnsignedShort() + 1;
+      consumed += 4;
+      if (control >= 0xC0) {
+        needProps = false;
+        props(in.readUnsignedByte());
+        consumed++;
+      } else if (needProps) throw new IOException("Corrupt xz block");
+      else if (control >= 0xA0) reset();
+      if (compressed < 5) throw new IOException("Corrupt xz block");
+      in.readFully(rc, 0, compressed);
+      consumed += compressed;
+      if (rc[0] != 0) throw new IOException("Corrupt xz block");
+      rcEnd = compressed;
+      rcPos = 5;
+      code = (rc[1] & 0xFF) << 24 | (rc[2] & 0xFF) << 16 | (rc[3] & 0xFF) << 8 | (rc[4] & 0xFF);
+      range = -1;
+      makeRoom(size);
+      decode(pos + size);
+      normalize();
+      if (rcPos != rcEnd || code != 0) throw new IOException("Corrupt xz block");
+      return (size);
+    }
+
+    /** Makes room for n more bytes in the window */
+    protected void makeRoom(int n) throws IOException {
+      if (pos + n <= window.length) return;
+      if (!sliding) throw new IOException("xz block does not match the index");
+      // Keep the dictionary, and move by a multiple of 16 bytes, so that the positions keep their lower bits
+      int keep = (int) Math.min(pos - (long) dictStart, dictSize);
+      int shift = (pos - keep) & ~15;
+      System.arraycopy(window, shift, window, 0, pos - shift);
+      pos -= shift;
+      dictStart -= shift;
+    }
+
+    /** Sets the literal context bits, the literal position bits and the position bits */
+    protected void props(int props) throws IOException {
+      if (props > (4 * 5 + 4) * 9 + 8) throw new IOException("Corrupt xz block");
+      lc = props % 9;
+      props /= 9;
+      lp = props % 5;
+      pb = props / 5;
+      if (lc + lp > 4) throw new IOException("Corrupt xz block");
+      if (literals.length != 0x300 << (lc + lp)) literals = new int[0x300 << (lc + lp)];
+      reset();
+    }
+
+    /** Resets the state and the probabilities */
+    protected void reset() {
+      state = 0;
+      rep0 = rep1 = rep2 = rep3 = 0;
+      for (int[] probs : new int[][] { isMatch, isRep, isRep0, isRep1, isRep2, isRep0Long, distAlign, matchLen, repLen, literals })
+        Arrays.fill(probs, 1024);
+      for (int[] probs : distSlots)
+        Arrays.fill(probs, 1024);
+      for (int[] probs : distSpecial)
+        Arrays.fill(probs, 1024);
+    }
+
+    protected void normalize() {
+      if ((range & 0xFF000000) == 0) {
+        range <<= 8;
+        code = (code << 8) | (rc[rcPos++] & 0xFF);
+      }
+    }
+
+    /** Decodes a bit with the probability probs[i] */
+    protected int bit(int[] probs, int i) {
+      normalize();
+      int prob = probs[i];
+      int bound = (range >>> 11) * prob;
+      if ((code ^ 0x80000000) < (bound ^ 0x80000000)) {
+        range = bound;
+        probs[i] = prob + ((2048 - prob) >>> 5);
+        return (0);
+      }
+      range -= bound;
+      code -= bound;
+      probs[i] = prob - (prob >>> 5);
+      return (1);
+    }
+
+    /** Decodes bits of equal probability */
+    protected int directBits(int count) {
+      int result = 0;
+      do {
+        normalize();
+        range >>>= 1;
+        int t = (code - range) >>> 31;
+        code -= range & (t - 1);
+        result = (result << 1) | (1 - t);
+      } while (--count != 0);
+      return (result);
+    }
+
+    /** Decodes a number with a bit tree of probabilities */
+    protected int bitTree(int[] probs, int offset, int size) {
+      int symbol = 1;
+      do
+        symbol = (symbol << 1) | bit(probs, offset + symbol);
+      while (symbol < size);
+      return (symbol - size);
+    }
+
+    /** Decodes a number with a bit tree of probabilities, least significant bit first */
+    protected int reverseBitTree(int[] probs) {
+      int symbol = 1;
+      int result = 0;
+      for (int i = 0; symbol < probs.length; i++) {
+        int bit = bit(probs, symbol);
+        symbol = (symbol << 1) | bit;
+        result |= bit << i;
+      }
+      return (result);
+    }
+
+    /** Decodes a match length: choice bits, then 8 low, 8 middle or 256 high lengths */
+    protected int length(int[] probs, int posState) {
+      if (bit(probs, 0) == 0) return (2 + bitTree(probs, 2 + posState * 8, 8));
+      if (bit(probs, 1) == 0) return (2 + 8 + bitTree(probs, 2 + 16 * 8 + posState * 8, 8));
+      return (2 + 8 + 8 + bitTree(probs, 2 + 16 * 8 * 2, 256));
+    }
+
+    /** Decodes LZMA data up to the position */
+    protected void decode(int end) throws IOException {
+      int posMask = (1 << pb) - 1;
+      int lpMask = (1 << lp) - 1;
+      while (pos < end) {
+        int posState = (pos - dictStart) & posMask;
+        if (bit(isMatch, (state << 4) + posState) == 0) {
+          int prev = pos > dictStart ? window[pos - 1] & 0xFF : 0;
+          int offset = 0x300 * ((((pos - dictStart) & lpMask) << lc) + (prev >>> (8 - lc)));
+          int symbol = 1;
+          if (state < LITERAL_STATES) {
+            do
+              symbol = (symbol << 1) | bit(literals, offset + symbol);
+            while (symbol < 0x100);
+          } else {
+            int matchByte = window[pos - rep0 - 1] & 0xFF;
+            int matchOffset = 0x100;
+            do {
+              matchByte <<= 1;
+              int matchBit = matchByte & matchOffset;
+              int bit = bit(literals, offset + matchOffset + matchBit + symbol);
+              symbol = (symbol << 1) | bit;
+              matchOffset &= (0 - bit) ^ ~matchBit;
+            } while (symbol < 0x100);
+          }
+          window[pos++] = (byte) symbol;
+          state = state < 4 ? 0 : state < 10 ? state - 3 : state - 6;
+          continue;
+        }
+        int len;
+        if (bit(isRep, state) == 0) {
+          state = state < LITERAL_STATES ? 7 : 10;
+          rep3 = rep2;
+          rep2 = rep1;
+          rep1 = rep0;
+          len = length(matchLen, posState);
+          int slot = bitTree(distSlots[Math.min(len - 2, 3)], 0, 64);
+          if (slot < 4) rep0 = slot;
+          else {
+            int limit = (slot >>> 1) - 1;
+            rep0 = (2 | (slot & 1)) << limit;
+            if (slot < 14) rep0 |= reverseBitTree(distSpecial[slot - 4]);
+            else rep0 |= directBits(limit - 4) << 4 | reverseBitTree(distAlign);
+          }
+        } else {
+          if (bit(isRep0, state) == 0) {
+            if (bit(isRep0Long, (state << 4) + posState) == 0) {
+              // A single byte at the last distance
+              state = state < LITERAL_STATES ? 9 : 11;
+              if (rep0 >= pos - dictStart || rep0 >= dictSize) throw new IOException("Corrupt xz block");
+              window[pos] = window[pos - rep0 - 1];
+              pos++;
+              continue;
+            }
+          } else {
+            int distance;
+            if (bit(isRep1, state) == 0) distance = rep1;
+            else {
+              if (bit(isRep2, state) == 0) distance = rep2;
+              else {
+                distance = rep3;
+                rep3 = rep2;
+              }
+              rep2 = rep1;
+            }
+            rep1 = rep0;
+            rep0 = distance;
+          }
+          state = state < LITERAL_STATES ? 8 : 11;
+          len = length(repLen, posState);
+        }
+        if (rep0 < 0 || rep0 >= pos - dictStart || rep0 >= dictSize || len > end - pos) throw new IOException("Corrupt xz block");
+        int from = pos - rep0 - 1;
+        if (rep0 + 1 >= len) System.arraycopy(window, from, window, pos, len);
+        else for (int i = 0; i < len; i++)
+          window[pos + i] = window[from + i];
+        pos += len;
+      }
+    }
+  }
+
+}